@@ -0,0 +1,271 @@
+package com.library.librarysystem.cache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * 实体近端缓存（读穿透）
+ * 按主键缓存实体，另可按一个唯一的辅助键（如ISBN、用户名）查找；按条目数和估算的堆内存占用双重限制，
+ * 超出时淘汰最久未访问的条目。读写都返回副本，调用方修改实体不会影响缓存内容
+ */
+public class EntityCache<V> {
+
+    private final String name;
+    private final int maxEntries;
+    private final long maxWeight;
+    private final long ttlMillis;
+
+    private final Function<V, String> idOf;
+    private final Function<V, String> aliasOf;
+    private final ToLongFunction<V> weigher;
+    private final UnaryOperator<V> copier;
+
+    // 访问顺序的LRU：主键 -> 条目
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // 辅助键 -> 主键
+    private final Map<String, String> aliases = new HashMap<>();
+
+    private long weight;
+
+    // 每次失效递增，用于丢弃失效前开始加载的结果
+    private long generation;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long invalidations;
+
+    public EntityCache(String name, int maxEntries, long maxWeight, long ttlMillis,
+                       Function<V, String> idOf, Function<V, String> aliasOf,
+                       ToLongFunction<V> weigher, UnaryOperator<V> copier) {
+        this.name = name;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxWeight = Math.max(1, maxWeight);
+        this.ttlMillis = ttlMillis;
+        this.idOf = idOf;
+        this.aliasOf = aliasOf;
+        this.weigher = weigher;
+        this.copier = copier;
+    }
+
+    /**
+     * 按主键读取，未命中时调用loader加载并缓存（loader返回null时不缓存）
+     */
+    public V get(String id, Supplier<V> loader) {
+        if (id == null) {
+            return null;
+        }
+        long startGeneration;
+        synchronized (this) {
+            V cached = lookup(id);
+            if (cached != null) {
+                return copier.apply(cached);
+            }
+            startGeneration = generation;
+        }
+        return load(loader, startGeneration);
+    }
+
+    /**
+     * 按辅助键读取，未命中时调用loader加载并缓存
+     */
+    public V getByAlias(String alias, Supplier<V> loader) {
+        if (alias == null) {
+            return null;
+        }
+        long startGeneration;
+        synchronized (this) {
+            String id = aliases.get(alias);
+            V cached = id != null ? lookup(id) : null;
+            if (cached != null) {
+                return copier.apply(cached);
+            }
+            if (id == null) {
+                misses++;
+            }
+            startGeneration = generation;
+        }
+        return load(loader, startGeneration);
+    }
+
+    /**
+     * 直接写入（调用方刚写完数据库、持有最新值时使用）
+     */
+    public synchronized void put(V value) {
+        generation++;
+        store(copier.apply(value));
+    }
+
+    /**
+     * 失效该主键对应的条目（同时移除其辅助键）
+     */
+    public synchronized void invalidate(String id) {
+        generation++;
+        if (id != null && remove(id) != null) {
+            invalidations++;
+        }
+    }
+
+    /**
+     * 失效辅助键对应的条目
+     */
+    public synchronized void invalidateAlias(String alias) {
+        generation++;
+        String id = alias != null ? aliases.get(alias) : null;
+        if (id != null && remove(id) != null) {
+            invalidations++;
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        aliases.clear();
+        weight = 0;
+    }
+
+    /**
+     * 命中率、淘汰次数等统计信息
+     */
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long requests = hits + misses;
+        stats.put("name", name);
+        stats.put("size", entries.size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("weightBytes", weight);
+        stats.put("maxWeightBytes", maxWeight);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", requests == 0 ? 0.0 : (double) hits / requests);
+        stats.put("evictions", evictions);
+        stats.put("expirations", expirations);
+        stats.put("invalidations", invalidations);
+        return stats;
+    }
+
+    private V load(Supplier<V> loader, long startGeneration) {
+        V loaded = loader.get();
+        if (loaded == null) {
+            return null;
+        }
+        synchronized (this) {
+            // 加载期间发生过失效，结果可能已过时，不写入缓存
+            if (startGeneration == generation) {
+                store(copier.apply(loaded));
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * 查找未过期的条目，调用方持有锁；会记录命中和未命中
+     */
+    private V lookup(String id) {
+        Entry<V> entry = entries.get(id);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.expireAt < System.currentTimeMillis()) {
+            remove(id);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    private void store(V value) {
+        String id = idOf.apply(value);
+        if (id == null) {
+            return;
+        }
+        remove(id);
+
+        String alias = aliasOf != null ? aliasOf.apply(value) : null;
+        if (alias != null && alias.isEmpty()) {
+            alias = null;
+        }
+        if (alias != null) {
+            // 辅助键已指向其他实体时，说明那条缓存已过时
+            String previous = aliases.get(alias);
+            if (previous != null) {
+                remove(previous);
+            }
+        }
+
+        Entry<V> entry = new Entry<>(id, value, alias, weigher.applyAsLong(value),
+                System.currentTimeMillis() + ttlMillis);
+        entries.put(id, entry);
+        if (alias != null) {
+            aliases.put(alias, id);
+        }
+        weight += entry.weight;
+
+        // 超出条目数或内存上限时淘汰最久未访问的条目（至少保留刚写入的一条）
+        Iterator<Map.Entry<String, Entry<V>>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || weight > maxWeight) && entries.size() > 1) {
+            Map.Entry<String, Entry<V>> victim = eldest.next();
+            eldest.remove();
+            unlink(victim.getValue());
+            evictions++;
+        }
+    }
+
+    private Entry<V> remove(String id) {
+        Entry<V> entry = entries.remove(id);
+        if (entry != null) {
+            unlink(entry);
+        }
+        return entry;
+    }
+
+    private void unlink(Entry<V> entry) {
+        weight -= entry.weight;
+        if (entry.alias != null) {
+            aliases.remove(entry.alias, entry.id);
+        }
+    }
+
+    /**
+     * 估算若干字符串字段的堆内存占用（对象头、数组头及UTF-16字符）
+     */
+    public static long estimateStrings(String... values) {
+        long size = 0;
+        for (String value : values) {
+            if (value != null) {
+                size += 40 + 2L * value.length();
+            }
+        }
+        return size;
+    }
+
+    private static final class Entry<V> {
+        private final String id;
+        private final V value;
+        private final String alias;
+        private final long weight;
+        private final long expireAt;
+
+        private Entry(String id, V value, String alias, long weight, long expireAt) {
+            this.id = id;
+            this.value = value;
+            this.alias = alias;
+            this.weight = weight;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.library.librarysystem.cache;
+
+import com.library.librarysystem.entity.Book;
+import com.library.librarysystem.entity.User;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 图书、用户的近端缓存
+ * 图书按ID/ISBN、用户按ID/用户名读取；用户信息（角色、借阅上限）变化更敏感，过期时间更短
+ */
+@Component
+public class EntityCaches {
+
+    // 对象头、包装类型及日期字段的大致开销
+    private static final long ENTITY_OVERHEAD = 160;
+
+    // 用于估算ID列表占用的24位十六进制ObjectId
+    private static final String OBJECT_ID_HEX = "000000000000000000000000";
+
+    // 副本位图中每个Long元素（含引用）的大致开销
+    private static final long BOXED_LONG = 24;
+
+    private final EntityCache<Book> books;
+    private final EntityCache<User> users;
+
+    public EntityCaches(
+            @Value("${library.cache.books.max-entries:10000}") int bookEntries,
+            @Value("${library.cache.books.max-megabytes:16}") long bookMegabytes,
+            @Value("${library.cache.books.ttl-seconds:300}") long bookTtlSeconds,
+            @Value("${library.cache.users.max-entries:10000}") int userEntries,
+            @Value("${library.cache.users.max-megabytes:8}") long userMegabytes,
+            @Value("${library.cache.users.ttl-seconds:60}") long userTtlSeconds) {
+        this.books = new EntityCache<>("books", bookEntries, bookMegabytes * 1024 * 1024, bookTtlSeconds * 1000,
+                Book::getId, Book::getIsbn,
+                book -> ENTITY_OVERHEAD + EntityCache.estimateStrings(
+                        book.getId(), book.getIsbn(), book.getTitle(), book.getAuthor(), book.getPublisher())
+                        + (book.getCopyWords() != null ? book.getCopyWords().size() * BOXED_LONG : 0),
+                book -> {
+                    Book copy = new Book();
+                    BeanUtils.copyProperties(book, copy);
+                    if (book.getCopyWords() != null) {
+                        copy.setCopyWords(new ArrayList<>(book.getCopyWords()));
+                    }
+                    return copy;
+                });
+        this.users = new EntityCache<>("users", userEntries, userMegabytes * 1024 * 1024, userTtlSeconds * 1000,
+                User::getId, User::getUsername,
+                user -> ENTITY_OVERHEAD + EntityCache.estimateStrings(
+                        user.getId(), user.getUsername(), user.getPassword(), user.getName(),
+                        user.getEmail(), user.getRole())
+                        + (user.getActiveBookIds() != null
+                                ? user.getActiveBookIds().size() * EntityCache.estimateStrings(OBJECT_ID_HEX) : 0),
+                user -> {
+                    User copy = new User();
+                    BeanUtils.copyProperties(user, copy);
+                    if (user.getActiveBookIds() != null) {
+                        copy.setActiveBookIds(new ArrayList<>(user.getActiveBookIds()));
+                    }
+                    return copy;
+                });
+    }
+
+    public EntityCache<Book> books() {
+        return books;
+    }
+
+    public EntityCache<User> users() {
+        return users;
+    }
+
+    /**
+     * 各实体缓存的统计信息
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("books", books.stats());
+        stats.put("users", users.stats());
+        return stats;
+    }
+}
@@ -0,0 +1,261 @@
+package com.library.librarysystem.cache;
+
+import com.library.librarysystem.entity.Book;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * 图书检索结果缓存
+ * 采用W-TinyLFU策略：新结果先进入容量约1%的窗口区，被挤出窗口时与主区最久未用的结果
+ * 比较访问频率，频率更高者留下，避免一次性查询冲掉热门查询。
+ * 缓存按关键词和图书ID建立反向索引，图书变更时只失效受影响的结果
+ */
+@Component
+public class SearchResultCache {
+
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final long ttlMillis;
+
+    private final FrequencySketch sketch;
+
+    // 访问顺序的LRU
+    private final LinkedHashMap<String, CachedPage> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, CachedPage> main = new LinkedHashMap<>(16, 0.75f, true);
+
+    // 规范化关键词 -> 缓存键
+    private final Map<String, Set<String>> keysByKeyword = new HashMap<>();
+
+    // 图书ID -> 缓存键
+    private final Map<String, Set<String>> keysByBook = new HashMap<>();
+
+    // 每次失效递增，用于丢弃失效前开始计算的结果
+    private long generation;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+    private long invalidations;
+
+    public SearchResultCache(
+            @Value("${library.search.cache.capacity:1000}") int capacity,
+            @Value("${library.search.cache.ttl-seconds:60}") long ttlSeconds) {
+        int total = Math.max(capacity, 2);
+        this.windowCapacity = Math.max(1, total / 100);
+        this.mainCapacity = total - windowCapacity;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.sketch = new FrequencySketch(total);
+    }
+
+    /**
+     * 查询缓存，未命中或已过期返回null
+     */
+    public synchronized Page<Book> get(String keyword, int page, int size, boolean exactTotal) {
+        String key = key(keyword, page, size, exactTotal);
+        sketch.increment(key);
+
+        CachedPage cached = window.get(key);
+        if (cached == null) {
+            cached = main.get(key);
+        }
+        if (cached == null) {
+            misses++;
+            return null;
+        }
+        if (cached.expireAt < System.currentTimeMillis()) {
+            remove(key);
+            misses++;
+            return null;
+        }
+        hits++;
+        return cached.page;
+    }
+
+    /**
+     * 当前失效代数，查询前获取，写入时传回
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * 写入结果；若计算期间发生过失效则放弃写入
+     */
+    public synchronized void put(String keyword, int page, int size, boolean exactTotal,
+                                 Page<Book> result, long startGeneration) {
+        if (startGeneration != generation) {
+            return;
+        }
+
+        String key = key(keyword, page, size, exactTotal);
+        remove(key);
+
+        CachedPage cached = new CachedPage(key, normalize(keyword), result,
+                System.currentTimeMillis() + ttlMillis);
+        link(cached);
+        window.put(key, cached);
+
+        if (window.size() > windowCapacity) {
+            Iterator<CachedPage> eldest = window.values().iterator();
+            CachedPage candidate = eldest.next();
+            eldest.remove();
+            admit(candidate);
+        }
+    }
+
+    /**
+     * 失效包含该图书的结果页（库存变化不改变命中集合，只影响页内数据）
+     */
+    public synchronized void invalidateBook(String bookId) {
+        generation++;
+        Set<String> keys = keysByBook.get(bookId);
+        if (keys == null) {
+            return;
+        }
+        for (String key : new ArrayList<>(keys)) {
+            remove(key);
+            invalidations++;
+        }
+    }
+
+    /**
+     * 失效关键词满足条件的全部结果页（图书增删改会改变命中集合及后续分页）
+     */
+    public synchronized void invalidateKeywords(Predicate<String> affected) {
+        generation++;
+        List<String> keywords = new ArrayList<>(keysByKeyword.keySet());
+        for (String keyword : keywords) {
+            if (affected.test(keyword)) {
+                for (String key : new ArrayList<>(keysByKeyword.get(keyword))) {
+                    remove(key);
+                    invalidations++;
+                }
+            }
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        generation++;
+        window.clear();
+        main.clear();
+        keysByKeyword.clear();
+        keysByBook.clear();
+    }
+
+    /**
+     * 命中率等统计信息
+     */
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long requests = hits + misses;
+        stats.put("size", window.size() + main.size());
+        stats.put("capacity", windowCapacity + mainCapacity);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", requests == 0 ? 0.0 : (double) hits / requests);
+        stats.put("evictions", evictions);
+        stats.put("rejections", rejections);
+        stats.put("invalidations", invalidations);
+        return stats;
+    }
+
+    /**
+     * 窗口区挤出的结果尝试进入主区
+     */
+    private void admit(CachedPage candidate) {
+        if (main.size() < mainCapacity) {
+            main.put(candidate.key, candidate);
+            return;
+        }
+
+        Iterator<CachedPage> eldest = main.values().iterator();
+        CachedPage victim = eldest.next();
+        if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+            eldest.remove();
+            unlink(victim);
+            evictions++;
+            main.put(candidate.key, candidate);
+        } else {
+            unlink(candidate);
+            rejections++;
+        }
+    }
+
+    private void remove(String key) {
+        CachedPage cached = window.remove(key);
+        if (cached == null) {
+            cached = main.remove(key);
+        }
+        if (cached != null) {
+            unlink(cached);
+        }
+    }
+
+    private void link(CachedPage cached) {
+        keysByKeyword.computeIfAbsent(cached.keyword, k -> new HashSet<>()).add(cached.key);
+        for (Book book : cached.page.getContent()) {
+            keysByBook.computeIfAbsent(book.getId(), k -> new HashSet<>()).add(cached.key);
+        }
+    }
+
+    private void unlink(CachedPage cached) {
+        removeKey(keysByKeyword, cached.keyword, cached.key);
+        for (Book book : cached.page.getContent()) {
+            removeKey(keysByBook, book.getId(), cached.key);
+        }
+    }
+
+    private static void removeKey(Map<String, Set<String>> index, String indexKey, String key) {
+        Set<String> keys = index.get(indexKey);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                index.remove(indexKey);
+            }
+        }
+    }
+
+    /**
+     * 规范化关键词：去首尾空白、转小写、合并空白
+     */
+    public static String normalize(String keyword) {
+        if (keyword == null) {
+            return "";
+        }
+        return keyword.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+    }
+
+    private static String key(String keyword, int page, int size, boolean exactTotal) {
+        return normalize(keyword) + '\u0000' + page + '\u0000' + size + '\u0000' + exactTotal;
+    }
+
+    private static final class CachedPage {
+        private final String key;
+        private final String keyword;
+        private final Page<Book> page;
+        private final long expireAt;
+
+        private CachedPage(String key, String keyword, Page<Book> page, long expireAt) {
+            this.key = key;
+            this.keyword = keyword;
+            this.page = page;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -1,14 +1,25 @@
 package com.library.librarysystem.controller;
 
+import com.library.librarysystem.entity.Book;
 import com.library.librarysystem.entity.User;
 import com.library.librarysystem.service.UserService;
 import com.library.librarysystem.service.BorrowService;
+import com.library.librarysystem.service.CirculationRollupService;
+import com.library.librarysystem.service.CirculationSnapshotService;
+import com.library.librarysystem.service.CirculationStatsService;
+import com.library.librarysystem.service.CopyService;
+import com.library.librarysystem.service.DashboardStatisticsService;
+import com.library.librarysystem.service.StockReconciliationService;
+import com.library.librarysystem.service.MongoIndexService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import jakarta.servlet.http.HttpSession;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
@@ -24,6 +35,27 @@ public class AdminController {
     @Autowired
     private BorrowService borrowService;
 
+    @Autowired
+    private MongoIndexService mongoIndexService;
+    
+    @Autowired
+    private CirculationSnapshotService circulationSnapshotService;
+    
+    @Autowired
+    private CirculationStatsService circulationStatsService;
+    
+    @Autowired
+    private CirculationRollupService circulationRollupService;
+    
+    @Autowired
+    private StockReconciliationService stockReconciliationService;
+    
+    @Autowired
+    private CopyService copyService;
+    
+    @Autowired
+    private DashboardStatisticsService dashboardStatisticsService;
+
     /**
      * 管理员仪表板 - 修复版本
      */
@@ -39,22 +71,20 @@ public class AdminController {
                 return "redirect:/";
             }
 
-            // 获取统计数据
-            var users = userService.getAllUsers();
-            var readers = userService.getAllReaders();
-            var admins = userService.getAllAdmins();
-            var borrowStats = borrowService.getBorrowStatistics();
+            // 获取统计数据（只计数，并发查询）
+            Map<String, Object> stats = dashboardStatisticsService.collect();
             
             // 设置模型属性
-            model.addAttribute("totalUsers", users.size());
-            model.addAttribute("totalReaders", readers.size());
-            model.addAttribute("totalAdmins", admins.size());
-            model.addAttribute("borrowStats", borrowStats);
+            model.addAttribute("totalUsers", stats.get("totalUsers"));
+            model.addAttribute("totalReaders", stats.get("totalReaders"));
+            model.addAttribute("totalAdmins", stats.get("totalAdmins"));
+            model.addAttribute("borrowStats", stats.get("borrowStats"));
             
             System.out.println("仪表板统计数据:");
-            System.out.println("  总用户数: " + users.size());
-            System.out.println("  读者数: " + readers.size());
-            System.out.println("  管理员数: " + admins.size());
+            System.out.println("  总用户数: " + stats.get("totalUsers"));
+            System.out.println("  读者数: " + stats.get("totalReaders"));
+            System.out.println("  管理员数: " + stats.get("totalAdmins"));
+            System.out.println("  耗时: " + stats.get("elapsedMs") + "ms");
             
             System.out.println("=== 管理员仪表板访问结束 ===");
             
@@ -334,6 +364,7 @@ public class AdminController {
      * 数据库诊断页面
      */
     @GetMapping("/diagnose")
+    @SuppressWarnings("unchecked")
     public String diagnoseDatabase(HttpSession session, Model model) {
         try {
             // 检查权限
@@ -370,6 +401,28 @@ public class AdminController {
                 }
             }
             
+            // 索引状态
+            Map<String, Object> indexReport = mongoIndexService.getReport();
+            diagnoseInfo.append("\n3. 索引状态 (").append(indexReport.get("status")).append("):\n");
+            for (Map<String, Object> index : (List<Map<String, Object>>) indexReport.get("indexes")) {
+                diagnoseInfo.append("   - ").append(index.get("collection")).append(".").append(index.get("name"))
+                            .append(" ").append(index.get("keys"))
+                            .append(" - ").append(index.get("status"));
+                if (index.get("message") != null) {
+                    diagnoseInfo.append(" - ").append(index.get("message"));
+                }
+                diagnoseInfo.append("\n");
+            }
+            
+            diagnoseInfo.append("\n4. 查询方法索引检查:\n");
+            for (Map<String, Object> query : (List<Map<String, Object>>) indexReport.get("queries")) {
+                if (!"COVERED".equals(query.get("status"))) {
+                    diagnoseInfo.append("   - ").append(query.get("repository")).append(".").append(query.get("method"))
+                                .append(" ").append(query.get("fields"))
+                                .append(" - ").append(query.get("status")).append("\n");
+                }
+            }
+            
             model.addAttribute("diagnoseInfo", diagnoseInfo.toString());
             return "admin/diagnose";
             
@@ -379,6 +432,152 @@ public class AdminController {
         }
     }
     
+    /**
+     * 索引检查结果（JSON）
+     */
+    @GetMapping("/indexes")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> indexReport(HttpSession session) {
+        String role = (String) session.getAttribute("role");
+        if (!"ADMIN".equals(role)) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "无权限访问");
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
+        }
+        return ResponseEntity.ok(mongoIndexService.getReport());
+    }
+    
+    /**
+     * 重新检查并创建索引
+     */
+    @PostMapping("/indexes/provision")
+    public String provisionIndexes(HttpSession session) {
+        String role = (String) session.getAttribute("role");
+        if (!"ADMIN".equals(role)) {
+            return "redirect:/";
+        }
+        mongoIndexService.provision();
+        return "redirect:/admin/diagnose";
+    }
+    
+    /**
+     * 在借数量对账：按借阅记录修正用户的在借数量和在借图书（JSON，返回对账结果）
+     */
+    @PostMapping("/loans/reconcile")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> reconcileActiveLoans(HttpSession session) {
+        if (!"ADMIN".equals(session.getAttribute("role"))) {
+            return forbidden();
+        }
+        return ResponseEntity.ok(userService.reconcileActiveLoans());
+    }
+    
+    /**
+     * 为图书登记副本条码，多个条码以换行、空格或逗号分隔（JSON，返回登记后的副本数）
+     */
+    @PostMapping("/books/{bookId}/copies")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> registerCopies(@PathVariable String bookId,
+                                                              @RequestParam String barcodes,
+                                                              HttpSession session) {
+        if (!"ADMIN".equals(session.getAttribute("role"))) {
+            return forbidden();
+        }
+        Map<String, Object> response = new HashMap<>();
+        try {
+            Book book = copyService.registerCopies(bookId, List.of(barcodes.split("[\\s,，]+")));
+            response.put("success", true);
+            response.put("message", "副本登记成功");
+            response.put("copyCount", book.getCopyCount());
+            response.put("totalCopies", book.getTotalCopies());
+            response.put("availableCopies", book.getAvailableCopies());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+    
+    /**
+     * 库存对账：按在借记录和预约保留数修正图书可借数量（JSON，返回对账结果）
+     */
+    @PostMapping("/stock/reconcile")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> reconcileStock(HttpSession session) {
+        if (!"ADMIN".equals(session.getAttribute("role"))) {
+            return forbidden();
+        }
+        return ResponseEntity.ok(stockReconciliationService.reconcileStock());
+    }
+    
+    /**
+     * 立即生成流通快照（JSON，返回快照规模和耗时）
+     */
+    @PostMapping("/circulation/snapshot")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> takeCirculationSnapshot(HttpSession session) {
+        if (!"ADMIN".equals(session.getAttribute("role"))) {
+            return forbidden();
+        }
+        return ResponseEntity.ok(circulationSnapshotService.takeSnapshot());
+    }
+    
+    /**
+     * 由最近的快照重放流通事件，并与图书库存和在借记录逐条核对（JSON，返回重建耗时和差异）
+     */
+    @GetMapping("/circulation/verify")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> verifyCirculation(HttpSession session) {
+        if (!"ADMIN".equals(session.getAttribute("role"))) {
+            return forbidden();
+        }
+        return ResponseEntity.ok(circulationSnapshotService.verify());
+    }
+    
+    /**
+     * 由借阅记录重新计数借阅统计文档（JSON，返回重新计数后的统计）
+     */
+    @PostMapping("/stats/rebuild")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> rebuildCirculationStats(HttpSession session) {
+        if (!"ADMIN".equals(session.getAttribute("role"))) {
+            return forbidden();
+        }
+        return ResponseEntity.ok(circulationStatsService.rebuild());
+    }
+    
+    /**
+     * 由借阅记录回填until（yyyy-MM-dd，默认今天）之前的流通趋势日汇总（JSON，返回回填耗时）
+     */
+    @PostMapping("/stats/rollups/backfill")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> backfillRollups(@RequestParam(required = false) String until,
+                                                               HttpSession session) {
+        if (!"ADMIN".equals(session.getAttribute("role"))) {
+            return forbidden();
+        }
+        Map<String, Object> response = new HashMap<>();
+        try {
+            LocalDate end = until != null && !until.isBlank() ? LocalDate.parse(until) : null;
+            response.putAll(circulationRollupService.backfill(end));
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+    
+    private static ResponseEntity<Map<String, Object>> forbidden() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", "无权限访问");
+        return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
+    }
+    
     /**
      * 搜索用户（新增功能）
      */
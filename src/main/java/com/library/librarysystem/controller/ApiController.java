@@ -1,13 +1,26 @@
 package com.library.librarysystem.controller;
 
 import com.library.librarysystem.entity.Book;
+import com.library.librarysystem.search.FacetFilter;
+import com.library.librarysystem.search.SearchPage;
 import com.library.librarysystem.service.BookService;
 import com.library.librarysystem.service.BorrowService;
+import com.library.librarysystem.service.CirculationRollupService;
+import com.library.librarysystem.service.CopyIndex;
+import com.library.librarysystem.service.CopyService;
+import com.library.librarysystem.service.DashboardStatisticsService;
+import com.library.librarysystem.service.HoldService;
+import com.library.librarysystem.service.IdempotencyService;
+import com.library.librarysystem.service.TrendingService;
 import com.library.librarysystem.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -23,6 +36,24 @@ public class ApiController {
     @Autowired
     private UserService userService;
     
+    @Autowired
+    private HoldService holdService;
+    
+    @Autowired
+    private IdempotencyService idempotencyService;
+    
+    @Autowired
+    private CopyService copyService;
+    
+    @Autowired
+    private DashboardStatisticsService dashboardStatisticsService;
+    
+    @Autowired
+    private CirculationRollupService circulationRollupService;
+    
+    @Autowired
+    private TrendingService trendingService;
+    
     /**
      * 搜索图书API
      */
@@ -30,18 +61,84 @@ public class ApiController {
     public ResponseEntity<Map<String, Object>> searchBooks(
             @RequestParam(required = false) String keyword,
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "10") int size) {
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "true") boolean exactTotal,
+            @RequestParam(defaultValue = "0") int fuzzy) {
+        
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            var bookPage = bookService.searchBooks(keyword, page, size, exactTotal, fuzzy);
+            
+            response.put("success", true);
+            response.put("books", bookPage.getContent());
+            response.put("total", bookPage.getTotalElements());
+            response.put("totalEstimated", 
+                    bookPage instanceof SearchPage<?> searchPage && searchPage.isTotalEstimated());
+            response.put("pages", bookPage.getTotalPages());
+            response.put("currentPage", page);
+            
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+    
+    /**
+     * 分面搜索图书API：一次返回结果页和作者、出版社、借阅状态、上架时间的分面计数
+     */
+    @GetMapping("/books/search/facets")
+    public ResponseEntity<Map<String, Object>> searchBooksFaceted(
+            @RequestParam(required = false) String keyword,
+            @RequestParam(required = false) String author,
+            @RequestParam(required = false) String publisher,
+            @RequestParam(required = false) String availability,
+            @RequestParam(required = false) String arrival,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "0") int fuzzy) {
         
         Map<String, Object> response = new HashMap<>();
         
         try {
-            var bookPage = bookService.searchBooks(keyword, page, size);
+            FacetFilter filter = new FacetFilter(author, publisher, availability, arrival);
+            var bookPage = bookService.searchBooksFaceted(keyword, filter, page, size, fuzzy);
             
             response.put("success", true);
             response.put("books", bookPage.getContent());
             response.put("total", bookPage.getTotalElements());
             response.put("pages", bookPage.getTotalPages());
             response.put("currentPage", page);
+            response.put("facets", bookPage.getFacets());
+            
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+    
+    /**
+     * 游标分页搜索图书API（适用于无限滚动和批量导出）
+     */
+    @GetMapping("/books/search/cursor")
+    public ResponseEntity<Map<String, Object>> scrollBooks(
+            @RequestParam(required = false) String keyword,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "10") int size) {
+        
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            var bookPage = bookService.scrollBooks(keyword, cursor, Math.max(size, 1));
+            
+            response.put("success", true);
+            response.put("books", bookPage.getContent());
+            response.put("nextCursor", bookPage.getNextCursor());
+            response.put("hasNext", bookPage.hasNext());
             
             return ResponseEntity.ok(response);
         } catch (Exception e) {
@@ -51,25 +148,282 @@ public class ApiController {
         }
     }
     
+    /**
+     * 搜索联想API（书名/作者前缀，按借阅次数排序）
+     */
+    @GetMapping("/books/suggest")
+    public ResponseEntity<Map<String, Object>> suggestBooks(
+            @RequestParam(required = false) String prefix,
+            @RequestParam(defaultValue = "10") int limit) {
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("suggestions", bookService.suggest(prefix, limit));
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * 缓存统计API
+     */
+    @GetMapping("/cache/stats")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("searchResults", bookService.getSearchCacheStats());
+        response.putAll(bookService.getEntityCacheStats());
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * 借阅准入统计API（合并扣减批次、售罄快速拒绝次数等）
+     */
+    @GetMapping("/borrow/admission-stats")
+    public ResponseEntity<Map<String, Object>> getAdmissionStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("admission", bookService.getAdmissionStats());
+        response.put("holds", holdService.getHoldStats());
+        response.put("idempotencyKeys", idempotencyService.stats());
+        return ResponseEntity.ok(response);
+    }
+    
     /**
      * 借书API
+     * 可带Idempotency-Key请求头，重试时同一个键只借一次，直接返回首次的响应
      */
     @PostMapping("/borrow")
     public ResponseEntity<Map<String, Object>> borrowBook(
+            @RequestBody Map<String, String> request,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        
+        String userId = request.get("userId");
+        String bookId = request.get("bookId");
+        
+        return idempotencyService.execute("api-borrow", idempotencyKey, userId + "|" + bookId, () -> {
+            Map<String, Object> response = new HashMap<>();
+            
+            try {
+                var record = borrowService.borrowBook(userId, bookId);
+                
+                response.put("success", true);
+                response.put("message", "借书成功");
+                response.put("borrowId", record.getId());
+                response.put("dueDate", record.getDueDate());
+                
+                return ResponseEntity.ok(response);
+            } catch (Exception e) {
+                return IdempotencyService.failure(e);
+            }
+        });
+    }
+    
+    /**
+     * 还书API
+     * 可带Idempotency-Key请求头，重试时直接返回首次的响应
+     */
+    @PostMapping("/return")
+    public ResponseEntity<Map<String, Object>> returnBook(
+            @RequestBody Map<String, String> request,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        
+        String borrowId = request.get("borrowId");
+        
+        return idempotencyService.execute("api-return", idempotencyKey, String.valueOf(borrowId), () -> {
+            Map<String, Object> response = new HashMap<>();
+            
+            try {
+                borrowService.returnBook(borrowId);
+                
+                response.put("success", true);
+                response.put("message", "还书成功");
+                
+                return ResponseEntity.ok(response);
+            } catch (Exception e) {
+                return IdempotencyService.failure(e);
+            }
+        });
+    }
+    
+    /**
+     * 服务台按条码借书API，请求体：{"userId": "...", "barcode": "..."}，可带Idempotency-Key请求头
+     */
+    @PostMapping("/borrow/barcode")
+    public ResponseEntity<Map<String, Object>> borrowByBarcode(
+            @RequestBody Map<String, String> request,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        
+        String userId = request.get("userId");
+        String barcode = request.get("barcode");
+        
+        return idempotencyService.execute("api-borrow-barcode", idempotencyKey, userId + "|" + barcode, () -> {
+            Map<String, Object> response = new HashMap<>();
+            
+            try {
+                var record = borrowService.borrowByBarcode(userId, barcode);
+                
+                response.put("success", true);
+                response.put("message", "借书成功");
+                response.put("borrowId", record.getId());
+                response.put("bookId", record.getBookId());
+                response.put("dueDate", record.getDueDate());
+                
+                return ResponseEntity.ok(response);
+            } catch (Exception e) {
+                return IdempotencyService.failure(e);
+            }
+        });
+    }
+    
+    /**
+     * 服务台按条码还书API，请求体：{"barcode": "..."}，可带Idempotency-Key请求头
+     */
+    @PostMapping("/return/barcode")
+    public ResponseEntity<Map<String, Object>> returnByBarcode(
+            @RequestBody Map<String, String> request,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        
+        String barcode = request.get("barcode");
+        
+        return idempotencyService.execute("api-return-barcode", idempotencyKey, String.valueOf(barcode), () -> {
+            Map<String, Object> response = new HashMap<>();
+            
+            try {
+                var record = borrowService.returnByBarcode(barcode);
+                
+                response.put("success", true);
+                response.put("message", "还书成功");
+                response.put("borrowId", record.getId());
+                response.put("userId", record.getUserId());
+                
+                return ResponseEntity.ok(response);
+            } catch (Exception e) {
+                return IdempotencyService.failure(e);
+            }
+        });
+    }
+    
+    /**
+     * 按条码查询副本及是否在馆（内存索引）
+     */
+    @GetMapping("/copies/{barcode}")
+    public ResponseEntity<Map<String, Object>> getCopy(@PathVariable String barcode) {
+        Map<String, Object> response = new HashMap<>();
+        CopyIndex.CopyRef copy = copyService.findCopy(barcode);
+        if (copy == null) {
+            response.put("success", false);
+            response.put("message", "条码未登记");
+            return ResponseEntity.badRequest().body(response);
+        }
+        Book book = bookService.getBookById(copy.getBookId());
+        response.put("success", true);
+        response.put("barcode", copy.getBarcode());
+        response.put("bookId", copy.getBookId());
+        response.put("bookTitle", book != null ? book.getTitle() : null);
+        response.put("copyIndex", copy.getCopyIndex());
+        response.put("onShelf", copyService.isOnShelf(copy));
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * 图书的全部副本及在馆状态
+     */
+    @GetMapping("/books/{bookId}/copies")
+    public ResponseEntity<Map<String, Object>> getBookCopies(@PathVariable String bookId) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("copies", copyService.getCopies(bookId));
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * 批量借书API，请求体：{"userId": "...", "bookIds": ["...", ...]}，可带Idempotency-Key请求头
+     */
+    @PostMapping("/borrow/batch")
+    public ResponseEntity<Map<String, Object>> borrowBooks(
+            @RequestBody Map<String, Object> request,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        
+        String userId = (String) request.get("userId");
+        List<String> bookIds = stringList(request.get("bookIds"));
+        
+        return idempotencyService.execute("api-borrow-batch", idempotencyKey, userId + "|" + bookIds, () -> {
+            Map<String, Object> response = new HashMap<>();
+            
+            try {
+                List<Map<String, Object>> results = borrowService.borrowBooks(userId, bookIds);
+                putBatchResults(response, results, "借书");
+                
+                return ResponseEntity.ok(response);
+            } catch (Exception e) {
+                return IdempotencyService.failure(e);
+            }
+        });
+    }
+    
+    /**
+     * 批量还书API，请求体：{"borrowIds": ["...", ...]}，可带Idempotency-Key请求头
+     */
+    @PostMapping("/return/batch")
+    public ResponseEntity<Map<String, Object>> returnBooks(
+            @RequestBody Map<String, Object> request,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        
+        List<String> borrowIds = stringList(request.get("borrowIds"));
+        
+        return idempotencyService.execute("api-return-batch", idempotencyKey, borrowIds.toString(), () -> {
+            Map<String, Object> response = new HashMap<>();
+            
+            try {
+                List<Map<String, Object>> results = borrowService.returnBooks(borrowIds);
+                putBatchResults(response, results, "还书");
+                
+                return ResponseEntity.ok(response);
+            } catch (Exception e) {
+                return IdempotencyService.failure(e);
+            }
+        });
+    }
+    
+    /**
+     * 预约图书API，请求体：{"userId": "...", "bookId": "..."}
+     */
+    @PostMapping("/holds")
+    public ResponseEntity<Map<String, Object>> placeHold(
             @RequestBody Map<String, String> request) {
         
         Map<String, Object> response = new HashMap<>();
         
         try {
-            String userId = request.get("userId");
-            String bookId = request.get("bookId");
+            var hold = holdService.placeHold(request.get("userId"), request.get("bookId"));
             
-            var record = borrowService.borrowBook(userId, bookId);
+            response.put("success", true);
+            response.put("message", "预约成功");
+            response.put("holdId", hold.getId());
+            response.put("status", hold.getStatus());
+            response.put("queueLength", holdService.getQueueLength(hold.getBookId()));
+            
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+    
+    /**
+     * 取消预约API，请求体：{"userId": "...", "holdId": "..."}
+     */
+    @PostMapping("/holds/cancel")
+    public ResponseEntity<Map<String, Object>> cancelHold(
+            @RequestBody Map<String, String> request) {
+        
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            holdService.cancelHold(request.get("holdId"), request.get("userId"));
             
             response.put("success", true);
-            response.put("message", "借书成功");
-            response.put("borrowId", record.getId());
-            response.put("dueDate", record.getDueDate());
+            response.put("message", "已取消预约");
             
             return ResponseEntity.ok(response);
         } catch (Exception e) {
@@ -80,20 +434,21 @@ public class ApiController {
     }
     
     /**
-     * 还书API
+     * 预约到书后取书API，请求体：{"userId": "...", "holdId": "..."}
      */
-    @PostMapping("/return")
-    public ResponseEntity<Map<String, Object>> returnBook(
+    @PostMapping("/holds/pickup")
+    public ResponseEntity<Map<String, Object>> pickUpHold(
             @RequestBody Map<String, String> request) {
         
         Map<String, Object> response = new HashMap<>();
         
         try {
-            String borrowId = request.get("borrowId");
-            borrowService.returnBook(borrowId);
+            var record = borrowService.pickUpHold(request.get("userId"), request.get("holdId"));
             
             response.put("success", true);
-            response.put("message", "还书成功");
+            response.put("message", "取书成功");
+            response.put("borrowId", record.getId());
+            response.put("dueDate", record.getDueDate());
             
             return ResponseEntity.ok(response);
         } catch (Exception e) {
@@ -103,6 +458,17 @@ public class ApiController {
         }
     }
     
+    /**
+     * 用户的有效预约API（排队中或待取书，含排队位置）
+     */
+    @GetMapping("/holds/user/{userId}")
+    public ResponseEntity<Map<String, Object>> getUserHolds(@PathVariable String userId) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("holds", holdService.getUserActiveHolds(userId));
+        return ResponseEntity.ok(response);
+    }
+    
     /**
      * 添加图书API
      */
@@ -152,25 +518,9 @@ public class ApiController {
         Map<String, Object> response = new HashMap<>();
         
         try {
-            // 用户统计
-            var users = userService.getAllUsers();
-            var readers = userService.getAllReaders();
-            var admins = userService.getAllAdmins();
-            
-            // 图书统计
-            var books = bookService.getAllBooks();
-            var availableBooks = bookService.getAvailableBooks();
-            
-            // 借阅统计
-            var borrowStats = borrowService.getBorrowStatistics();
-            
+            // 用户、图书只计数，各项与借阅统计并发查询
+            response.putAll(dashboardStatisticsService.collect());
             response.put("success", true);
-            response.put("totalUsers", users.size());
-            response.put("totalReaders", readers.size());
-            response.put("totalAdmins", admins.size());
-            response.put("totalBooks", books.size());
-            response.put("availableBooks", availableBooks.size());
-            response.put("borrowStats", borrowStats);
             
             return ResponseEntity.ok(response);
         } catch (Exception e) {
@@ -179,6 +529,49 @@ public class ApiController {
             return ResponseEntity.badRequest().body(response);
         }
     }
+    
+    /**
+     * 流通趋势API：scope为global、book或user（后两者需要id），日期格式yyyy-MM-dd，
+     * granularity为day、week或month；只读取日汇总
+     */
+    @GetMapping("/stats/timeseries")
+    public ResponseEntity<Map<String, Object>> getTimeseries(
+            @RequestParam(defaultValue = "global") String scope,
+            @RequestParam(required = false) String id,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to,
+            @RequestParam(defaultValue = "day") String granularity) {
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            LocalDate fromDate = from != null && !from.isBlank() ? LocalDate.parse(from) : null;
+            LocalDate toDate = to != null && !to.isBlank() ? LocalDate.parse(to) : null;
+            response.putAll(circulationRollupService.timeseries(scope, id, fromDate, toDate, granularity));
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+        } catch (DateTimeParseException e) {
+            response.put("success", false);
+            response.put("message", "日期格式应为yyyy-MM-dd");
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+    
+    /**
+     * 热门图书和热门搜索API（近期借出、搜索最多的前k项，按半衰期衰减）
+     */
+    @GetMapping("/trending")
+    public ResponseEntity<Map<String, Object>> getTrending(@RequestParam(defaultValue = "10") int k) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("books", trendingService.topBooks(k));
+        response.put("searches", trendingService.topSearches(k));
+        return ResponseEntity.ok(response);
+    }
+    
     /**
      * 获取用户统计数据API
      */
@@ -207,24 +600,14 @@ public class ApiController {
                 return ResponseEntity.badRequest().body(response);
             }
             
-            // 获取用户的借阅记录
-            var records = borrowService.getUserBorrowRecords(userId);
-            
-            // 统计当前借阅数量
-            long currentBorrows = records.stream()
-                .filter(r -> "BORROWED".equals(r.getStatus()))
-                .count();
-            
-            // 统计逾期数量
-            long overdueCount = records.stream()
-                .filter(r -> "OVERDUE".equals(r.getStatus()))
-                .count();
+            // 借阅数量由一次聚合求出，不加载借阅记录
+            var stats = borrowService.getUserBorrowStatistics(userId);
             
             response.put("success", true);
             response.put("maxBorrow", user.getMaxBorrow());
-            response.put("currentBorrows", currentBorrows);
-            response.put("overdueCount", overdueCount);
-            response.put("totalBorrows", records.size());
+            response.put("currentBorrows", stats.get("currentBorrows"));
+            response.put("overdueCount", stats.get("overdueCount"));
+            response.put("totalBorrows", stats.get("totalBorrows"));
             response.put("username", user.getUsername());
             
             return ResponseEntity.ok(response);
@@ -235,4 +618,26 @@ public class ApiController {
             return ResponseEntity.badRequest().body(response);
         }
     }
-}
\ No newline at end of file
+    
+    private static List<String> stringList(Object value) {
+        List<String> list = new ArrayList<>();
+        if (value instanceof List<?> items) {
+            for (Object item : items) {
+                if (item != null) {
+                    list.add(item.toString());
+                }
+            }
+        }
+        return list;
+    }
+    
+    private static void putBatchResults(Map<String, Object> response, List<Map<String, Object>> results,
+                                        String action) {
+        long succeeded = results.stream().filter(result -> Boolean.TRUE.equals(result.get("success"))).count();
+        response.put("success", succeeded > 0);
+        response.put("message", action + "成功" + succeeded + "本，失败" + (results.size() - succeeded) + "本");
+        response.put("succeeded", succeeded);
+        response.put("failed", results.size() - succeeded);
+        response.put("results", results);
+    }
+}
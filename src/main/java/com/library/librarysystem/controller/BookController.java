@@ -2,13 +2,18 @@ package com.library.librarysystem.controller;
 
 import com.library.librarysystem.entity.Book;
 
+import com.library.librarysystem.search.FacetFilter;
+import com.library.librarysystem.search.FacetedPage;
+import com.library.librarysystem.search.SearchPage;
 import com.library.librarysystem.service.BookService;
+import com.library.librarysystem.service.HoldService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import jakarta.servlet.http.HttpSession;
+import java.util.Collections;
 
 @Controller
 @RequestMapping("/books")
@@ -17,14 +22,24 @@ public class BookController {
     @Autowired
     private BookService bookService;
     
+    @Autowired
+    private HoldService holdService;
+    
     /**
-     * 图书列表页面（分页）
+     * 图书列表页面（分页，带分面筛选）
      */
     @GetMapping
     public String listBooks(
             @RequestParam(required = false) String keyword,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "true") boolean exactTotal,
+            @RequestParam(defaultValue = "0") int fuzzy,
+            @RequestParam(defaultValue = "false") boolean facets,
+            @RequestParam(required = false) String author,
+            @RequestParam(required = false) String publisher,
+            @RequestParam(required = false) String availability,
+            @RequestParam(required = false) String arrival,
             Model model,
             HttpSession session) {
         
@@ -33,14 +48,35 @@ public class BookController {
             return "redirect:/login";
         }
         
-        Page<Book> bookPage = bookService.searchBooks(keyword, page, size);
+        FacetFilter filter;
+        try {
+            filter = new FacetFilter(author, publisher, availability, arrival);
+        } catch (IllegalArgumentException e) {
+            filter = FacetFilter.none();
+        }
+        
+        // 选择了分面或要求显示分面时才计算分面；否则沿用带结果缓存的原检索
+        boolean showFacets = facets || !filter.isEmpty();
+        Page<Book> bookPage = showFacets
+                ? bookService.searchBooksFaceted(keyword, filter, page, size, fuzzy)
+                : bookService.searchBooks(keyword, page, size, exactTotal, fuzzy);
         
         model.addAttribute("books", bookPage.getContent());
         model.addAttribute("currentPage", page);
         model.addAttribute("totalPages", bookPage.getTotalPages());
         model.addAttribute("totalItems", bookPage.getTotalElements());
+        model.addAttribute("totalEstimated", 
+                bookPage instanceof SearchPage<?> searchPage && searchPage.isTotalEstimated());
+        model.addAttribute("facets", 
+                bookPage instanceof FacetedPage<?> facetedPage ? facetedPage.getFacets() : Collections.emptyMap());
         model.addAttribute("keyword", keyword);
         model.addAttribute("size", size);
+        model.addAttribute("fuzzy", fuzzy);
+        model.addAttribute("showFacets", showFacets);
+        model.addAttribute("author", filter.getAuthor());
+        model.addAttribute("publisher", filter.getPublisher());
+        model.addAttribute("availability", filter.getAvailability());
+        model.addAttribute("arrival", filter.getArrival());
         
         return "book/list";
     }
@@ -61,6 +97,11 @@ public class BookController {
         }
         
         model.addAttribute("book", book);
+        
+        // 预约排队信息
+        String userId = (String) session.getAttribute("userId");
+        model.addAttribute("myHold", userId != null ? holdService.getUserActiveHold(userId, id) : null);
+        model.addAttribute("holdQueueLength", holdService.getQueueLength(id));
         return "book/view";
     }
     
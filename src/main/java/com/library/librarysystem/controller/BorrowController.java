@@ -1,14 +1,18 @@
 package com.library.librarysystem.controller;
 
 import com.library.librarysystem.service.BorrowService;
+import com.library.librarysystem.service.HoldService;
+import com.library.librarysystem.service.IdempotencyService;
 
 import com.library.librarysystem.service.UserService;
 import com.library.librarysystem.service.BookService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import jakarta.servlet.http.HttpSession;
+import java.util.HashMap;
 import java.util.Map;
 
 @Controller
@@ -24,12 +28,19 @@ public class BorrowController {
     @Autowired
     private UserService userService;
     
+    @Autowired
+    private HoldService holdService;
+    
+    @Autowired
+    private IdempotencyService idempotencyService;
+    
     /**
      * 借阅图书
      */
     @PostMapping("/borrow")
     public String borrowBook(
             @RequestParam String bookId,
+            @RequestParam(required = false) String idempotencyKey,
             HttpSession session,
             Model model) {
         
@@ -38,12 +49,20 @@ public class BorrowController {
             return "redirect:/login";
         }
         
-        try {
-            borrowService.borrowBook(userId, bookId);
-            model.addAttribute("success", "借书成功！请在30天内归还");
-        } catch (Exception e) {
-            model.addAttribute("error", "借书失败：" + e.getMessage());
-        }
+        // 同一表单重复提交（双击、刷新重发）只执行一次
+        idempotencyService.execute("borrow-form:" + userId, idempotencyKey, bookId, () -> {
+            Map<String, Object> result = new HashMap<>();
+            try {
+                borrowService.borrowBook(userId, bookId);
+                model.addAttribute("success", "借书成功！请在30天内归还");
+                result.put("success", true);
+            } catch (Exception e) {
+                model.addAttribute("error", "借书失败：" + e.getMessage());
+                // 临时失败不保存结果，重新提交同一表单时再次执行
+                return IdempotencyService.failure(e);
+            }
+            return ResponseEntity.ok(result);
+        });
         
         return "redirect:/books";
     }
@@ -73,6 +92,7 @@ public class BorrowController {
         model.addAttribute("currentCount", currentBorrows.size());
         model.addAttribute("overdueCount", overdueRecords.size());
         model.addAttribute("totalCount", records.size());
+        model.addAttribute("holds", holdService.getUserActiveHolds(userId));
         
         return "borrow/my-records";
     }
@@ -83,6 +103,86 @@ public class BorrowController {
     @PostMapping("/return")
     public String returnBook(
             @RequestParam String borrowId,
+            @RequestParam(required = false) String idempotencyKey,
+            HttpSession session,
+            Model model) {
+        
+        String userId = (String) session.getAttribute("userId");
+        if (userId == null) {
+            return "redirect:/login";
+        }
+        
+        idempotencyService.execute("return-form:" + userId, idempotencyKey, borrowId, () -> {
+            Map<String, Object> result = new HashMap<>();
+            try {
+                borrowService.returnBook(borrowId);
+                model.addAttribute("success", "还书成功！");
+                result.put("success", true);
+            } catch (Exception e) {
+                model.addAttribute("error", "还书失败：" + e.getMessage());
+                // 临时失败不保存结果，重新提交同一表单时再次执行
+                return IdempotencyService.failure(e);
+            }
+            return ResponseEntity.ok(result);
+        });
+        
+        return "redirect:/borrow/my-records";
+    }
+    
+    /**
+     * 预约图书（无库存时排队）
+     */
+    @PostMapping("/hold")
+    public String placeHold(
+            @RequestParam String bookId,
+            HttpSession session,
+            Model model) {
+        
+        String userId = (String) session.getAttribute("userId");
+        if (userId == null) {
+            return "redirect:/login";
+        }
+        
+        try {
+            holdService.placeHold(userId, bookId);
+            model.addAttribute("success", "预约成功！到书后请按时取书");
+        } catch (Exception e) {
+            model.addAttribute("error", "预约失败：" + e.getMessage());
+        }
+        
+        return "redirect:/books/" + bookId;
+    }
+    
+    /**
+     * 取消预约
+     */
+    @PostMapping("/hold/cancel")
+    public String cancelHold(
+            @RequestParam String holdId,
+            HttpSession session,
+            Model model) {
+        
+        String userId = (String) session.getAttribute("userId");
+        if (userId == null) {
+            return "redirect:/login";
+        }
+        
+        try {
+            holdService.cancelHold(holdId, userId);
+            model.addAttribute("success", "已取消预约");
+        } catch (Exception e) {
+            model.addAttribute("error", "取消预约失败：" + e.getMessage());
+        }
+        
+        return "redirect:/borrow/my-records";
+    }
+    
+    /**
+     * 预约到书后取书
+     */
+    @PostMapping("/hold/pickup")
+    public String pickUpHold(
+            @RequestParam String holdId,
             HttpSession session,
             Model model) {
         
@@ -92,10 +192,10 @@ public class BorrowController {
         }
         
         try {
-            borrowService.returnBook(borrowId);
-            model.addAttribute("success", "还书成功！");
+            borrowService.pickUpHold(userId, holdId);
+            model.addAttribute("success", "取书成功！请在30天内归还");
         } catch (Exception e) {
-            model.addAttribute("error", "还书失败：" + e.getMessage());
+            model.addAttribute("error", "取书失败：" + e.getMessage());
         }
         
         return "redirect:/borrow/my-records";
@@ -1,5 +1,6 @@
 package com.library.librarysystem.controller;
 
+import com.library.librarysystem.service.TrendingService;
 import com.library.librarysystem.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -13,6 +14,9 @@ public class HomeController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private TrendingService trendingService;
+
     @GetMapping("/")
     public String home(HttpSession session, Model model) {
         System.out.println("=== 访问首页开始 ===");
@@ -60,6 +64,9 @@ public class HomeController {
                 }
             } else {
                 System.out.println("用户未登录，跳转到公共首页");
+                // 热门图书和热门搜索来自内存中的统计，不访问数据库
+                model.addAttribute("trendingBooks", trendingService.topBooks(10));
+                model.addAttribute("trendingSearches", trendingService.topSearches(10));
                 return "index";
             }
         } catch (Exception e) {
@@ -3,6 +3,7 @@ package com.library.librarysystem.entity;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Document(collection = "books")
 public class Book {
@@ -14,6 +15,12 @@ public class Book {
     private String publisher;
     private Integer totalCopies = 1;
     private Integer availableCopies = 1;
+    // 库存版本号，每次变更可借或总数量时加一
+    private Long stockVersion;
+    // 已登记条码的副本数，副本按登记顺序编号0..copyCount-1
+    private Integer copyCount;
+    // 副本在架位图：第i个副本对应第i/64个元素的第i%64位，置位表示在架可借
+    private List<Long> copyWords;
     private LocalDateTime createTime;
     private LocalDateTime updateTime;
     
@@ -87,6 +94,30 @@ public class Book {
         this.availableCopies = availableCopies;
     }
     
+    public Long getStockVersion() {
+        return stockVersion;
+    }
+    
+    public void setStockVersion(Long stockVersion) {
+        this.stockVersion = stockVersion;
+    }
+    
+    public Integer getCopyCount() {
+        return copyCount;
+    }
+    
+    public void setCopyCount(Integer copyCount) {
+        this.copyCount = copyCount;
+    }
+    
+    public List<Long> getCopyWords() {
+        return copyWords;
+    }
+    
+    public void setCopyWords(List<Long> copyWords) {
+        this.copyWords = copyWords;
+    }
+    
     public LocalDateTime getCreateTime() {
         return createTime;
     }
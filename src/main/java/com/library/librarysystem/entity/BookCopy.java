@@ -0,0 +1,59 @@
+package com.library.librarysystem.entity;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+@Document(collection = "book_copies")
+public class BookCopy {
+    @Id
+    private String id; // 副本条码
+    
+    private String bookId;
+    private Integer copyIndex; // 副本在图书位图中的编号，登记完成前为空
+    private LocalDateTime createTime;
+    
+    // 构造方法
+    public BookCopy() {
+        this.createTime = LocalDateTime.now();
+    }
+    
+    public BookCopy(String barcode, String bookId) {
+        this();
+        this.id = barcode;
+        this.bookId = bookId;
+    }
+    
+    // Getter和Setter方法
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public String getBookId() {
+        return bookId;
+    }
+    
+    public void setBookId(String bookId) {
+        this.bookId = bookId;
+    }
+    
+    public Integer getCopyIndex() {
+        return copyIndex;
+    }
+    
+    public void setCopyIndex(Integer copyIndex) {
+        this.copyIndex = copyIndex;
+    }
+    
+    public LocalDateTime getCreateTime() {
+        return createTime;
+    }
+    
+    public void setCreateTime(LocalDateTime createTime) {
+        this.createTime = createTime;
+    }
+}
@@ -13,11 +13,14 @@ public class BorrowRecord {
     private String username; // 冗余字段，便于查询
     private String bookId;
     private String bookTitle; // 冗余字段，便于查询
+    private String barcode; // 在服务台按条码借出时的副本条码
     
     private LocalDateTime borrowDate;
     private LocalDateTime returnDate;
     private LocalDateTime dueDate; // 应还日期
     private String status; // "BORROWED", "RETURNED", "OVERDUE"
+    private LocalDateTime overdueAt; // 最近一次被定时任务标记为逾期的时间
+    private String returnBatchId; // 批量归还时本批的标记，用于识别本批实际归还的记录
     private LocalDateTime createTime;
     
     // 构造方法
@@ -66,6 +69,14 @@ public class BorrowRecord {
         this.bookTitle = bookTitle;
     }
     
+    public String getBarcode() {
+        return barcode;
+    }
+    
+    public void setBarcode(String barcode) {
+        this.barcode = barcode;
+    }
+    
     public LocalDateTime getBorrowDate() {
         return borrowDate;
     }
@@ -98,6 +109,22 @@ public class BorrowRecord {
         this.status = status;
     }
     
+    public LocalDateTime getOverdueAt() {
+        return overdueAt;
+    }
+    
+    public void setOverdueAt(LocalDateTime overdueAt) {
+        this.overdueAt = overdueAt;
+    }
+    
+    public String getReturnBatchId() {
+        return returnBatchId;
+    }
+    
+    public void setReturnBatchId(String returnBatchId) {
+        this.returnBatchId = returnBatchId;
+    }
+    
     public LocalDateTime getCreateTime() {
         return createTime;
     }
@@ -0,0 +1,121 @@
+package com.library.librarysystem.entity;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+@Document(collection = "circulation_events")
+public class CirculationEvent {
+    @Id
+    private String id;
+    
+    private Long seq; // 全局递增序号，重放按此顺序进行
+    private String type; // "BORROWED", "RETURNED", "RENEWED", "OVERDUE", "STOCK_ADJUSTED", "BOOK_REMOVED"
+    private String bookId;
+    private String userId;
+    private String borrowId;
+    private LocalDateTime dueDate; // 借出、续借后的应还日期；逾期事件中为判定逾期的截止时间
+    private Integer availableCopies; // 库存事件中变更后的可借数量
+    private Integer totalCopies; // 库存事件中变更后的总数量
+    private Long stockVersion; // 库存事件对应的图书库存版本号
+    private LocalDateTime time;
+    
+    // 构造方法
+    public CirculationEvent() {
+        this.time = LocalDateTime.now();
+    }
+    
+    public CirculationEvent(String type) {
+        this();
+        this.type = type;
+    }
+    
+    // Getter和Setter方法
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public Long getSeq() {
+        return seq;
+    }
+    
+    public void setSeq(Long seq) {
+        this.seq = seq;
+    }
+    
+    public String getType() {
+        return type;
+    }
+    
+    public void setType(String type) {
+        this.type = type;
+    }
+    
+    public String getBookId() {
+        return bookId;
+    }
+    
+    public void setBookId(String bookId) {
+        this.bookId = bookId;
+    }
+    
+    public String getUserId() {
+        return userId;
+    }
+    
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+    
+    public String getBorrowId() {
+        return borrowId;
+    }
+    
+    public void setBorrowId(String borrowId) {
+        this.borrowId = borrowId;
+    }
+    
+    public LocalDateTime getDueDate() {
+        return dueDate;
+    }
+    
+    public void setDueDate(LocalDateTime dueDate) {
+        this.dueDate = dueDate;
+    }
+    
+    public Integer getAvailableCopies() {
+        return availableCopies;
+    }
+    
+    public void setAvailableCopies(Integer availableCopies) {
+        this.availableCopies = availableCopies;
+    }
+    
+    public Integer getTotalCopies() {
+        return totalCopies;
+    }
+    
+    public void setTotalCopies(Integer totalCopies) {
+        this.totalCopies = totalCopies;
+    }
+    
+    public Long getStockVersion() {
+        return stockVersion;
+    }
+    
+    public void setStockVersion(Long stockVersion) {
+        this.stockVersion = stockVersion;
+    }
+    
+    public LocalDateTime getTime() {
+        return time;
+    }
+    
+    public void setTime(LocalDateTime time) {
+        this.time = time;
+    }
+}
@@ -0,0 +1,93 @@
+package com.library.librarysystem.entity;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+@Document(collection = "circulation_rollups")
+public class CirculationRollup {
+    @Id
+    private String id; // 范围:键:日期
+    
+    private String scope; // "GLOBAL"（全馆）, "BOOK"（按图书）, "USER"（按读者）
+    private String key; // 图书ID或读者ID，全馆为空
+    private String day; // 日期 yyyy-MM-dd
+    private Long borrowed;
+    private Long returned;
+    private Long overdue; // 当天新标记逾期的数量
+    private Long renewed;
+    private LocalDateTime updateTime;
+    
+    // Getter和Setter方法
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public String getScope() {
+        return scope;
+    }
+    
+    public void setScope(String scope) {
+        this.scope = scope;
+    }
+    
+    public String getKey() {
+        return key;
+    }
+    
+    public void setKey(String key) {
+        this.key = key;
+    }
+    
+    public String getDay() {
+        return day;
+    }
+    
+    public void setDay(String day) {
+        this.day = day;
+    }
+    
+    public Long getBorrowed() {
+        return borrowed;
+    }
+    
+    public void setBorrowed(Long borrowed) {
+        this.borrowed = borrowed;
+    }
+    
+    public Long getReturned() {
+        return returned;
+    }
+    
+    public void setReturned(Long returned) {
+        this.returned = returned;
+    }
+    
+    public Long getOverdue() {
+        return overdue;
+    }
+    
+    public void setOverdue(Long overdue) {
+        this.overdue = overdue;
+    }
+    
+    public Long getRenewed() {
+        return renewed;
+    }
+    
+    public void setRenewed(Long renewed) {
+        this.renewed = renewed;
+    }
+    
+    public LocalDateTime getUpdateTime() {
+        return updateTime;
+    }
+    
+    public void setUpdateTime(LocalDateTime updateTime) {
+        this.updateTime = updateTime;
+    }
+}
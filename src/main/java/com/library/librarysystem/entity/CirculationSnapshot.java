@@ -0,0 +1,98 @@
+package com.library.librarysystem.entity;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+@Document(collection = "circulation_snapshots")
+public class CirculationSnapshot {
+    @Id
+    private String id;
+    
+    private Long seq; // 快照包含序号不大于此值的全部事件
+    private String status; // "WRITING", "COMPLETE"
+    private String source; // "LIVE"（由当前数据生成）, "REPLAY"（由上一个快照重放生成）
+    private Integer books;
+    private Integer loans;
+    private Integer chunks;
+    private Long elapsedMillis;
+    private LocalDateTime createTime;
+    
+    // 构造方法
+    public CirculationSnapshot() {
+        this.createTime = LocalDateTime.now();
+    }
+    
+    // Getter和Setter方法
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public Long getSeq() {
+        return seq;
+    }
+    
+    public void setSeq(Long seq) {
+        this.seq = seq;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public void setStatus(String status) {
+        this.status = status;
+    }
+    
+    public String getSource() {
+        return source;
+    }
+    
+    public void setSource(String source) {
+        this.source = source;
+    }
+    
+    public Integer getBooks() {
+        return books;
+    }
+    
+    public void setBooks(Integer books) {
+        this.books = books;
+    }
+    
+    public Integer getLoans() {
+        return loans;
+    }
+    
+    public void setLoans(Integer loans) {
+        this.loans = loans;
+    }
+    
+    public Integer getChunks() {
+        return chunks;
+    }
+    
+    public void setChunks(Integer chunks) {
+        this.chunks = chunks;
+    }
+    
+    public Long getElapsedMillis() {
+        return elapsedMillis;
+    }
+    
+    public void setElapsedMillis(Long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+    
+    public LocalDateTime getCreateTime() {
+        return createTime;
+    }
+    
+    public void setCreateTime(LocalDateTime createTime) {
+        this.createTime = createTime;
+    }
+}
@@ -0,0 +1,68 @@
+package com.library.librarysystem.entity;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+@Document(collection = "circulation_snapshot_chunks")
+public class CirculationSnapshotChunk {
+    @Id
+    private String id;
+    
+    private String snapshotId;
+    private Integer index; // 分块序号，读取时按此排序
+    private List<Map<String, Object>> stock = new ArrayList<>(); // {bookId, available, total, version}
+    private List<Map<String, Object>> loans = new ArrayList<>(); // {borrowId, userId, bookId, dueDate, overdue}
+    
+    // 构造方法
+    public CirculationSnapshotChunk() {
+    }
+    
+    public CirculationSnapshotChunk(String snapshotId, Integer index) {
+        this.snapshotId = snapshotId;
+        this.index = index;
+    }
+    
+    // Getter和Setter方法
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public String getSnapshotId() {
+        return snapshotId;
+    }
+    
+    public void setSnapshotId(String snapshotId) {
+        this.snapshotId = snapshotId;
+    }
+    
+    public Integer getIndex() {
+        return index;
+    }
+    
+    public void setIndex(Integer index) {
+        this.index = index;
+    }
+    
+    public List<Map<String, Object>> getStock() {
+        return stock;
+    }
+    
+    public void setStock(List<Map<String, Object>> stock) {
+        this.stock = stock;
+    }
+    
+    public List<Map<String, Object>> getLoans() {
+        return loans;
+    }
+    
+    public void setLoans(List<Map<String, Object>> loans) {
+        this.loans = loans;
+    }
+}
@@ -0,0 +1,89 @@
+package com.library.librarysystem.entity;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+@Document(collection = "circulation_stats")
+public class CirculationStats {
+    @Id
+    private String id; // 全局只有一份，ID为"global"
+    
+    private Long totalBorrows; // 总借阅次数
+    private Long currentBorrows; // 未归还（含逾期）
+    private Long overdueBorrows; // 已标记逾期
+    private Long returnedBorrows; // 已归还
+    private Long renewals; // 续借次数
+    private LocalDateTime rebuildTime; // 最近一次由借阅记录重新计数的时间
+    private LocalDateTime updateTime;
+    
+    // 构造方法
+    public CirculationStats() {
+        this.updateTime = LocalDateTime.now();
+    }
+    
+    // Getter和Setter方法
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public Long getTotalBorrows() {
+        return totalBorrows;
+    }
+    
+    public void setTotalBorrows(Long totalBorrows) {
+        this.totalBorrows = totalBorrows;
+    }
+    
+    public Long getCurrentBorrows() {
+        return currentBorrows;
+    }
+    
+    public void setCurrentBorrows(Long currentBorrows) {
+        this.currentBorrows = currentBorrows;
+    }
+    
+    public Long getOverdueBorrows() {
+        return overdueBorrows;
+    }
+    
+    public void setOverdueBorrows(Long overdueBorrows) {
+        this.overdueBorrows = overdueBorrows;
+    }
+    
+    public Long getReturnedBorrows() {
+        return returnedBorrows;
+    }
+    
+    public void setReturnedBorrows(Long returnedBorrows) {
+        this.returnedBorrows = returnedBorrows;
+    }
+    
+    public Long getRenewals() {
+        return renewals;
+    }
+    
+    public void setRenewals(Long renewals) {
+        this.renewals = renewals;
+    }
+    
+    public LocalDateTime getRebuildTime() {
+        return rebuildTime;
+    }
+    
+    public void setRebuildTime(LocalDateTime rebuildTime) {
+        this.rebuildTime = rebuildTime;
+    }
+    
+    public LocalDateTime getUpdateTime() {
+        return updateTime;
+    }
+    
+    public void setUpdateTime(LocalDateTime updateTime) {
+        this.updateTime = updateTime;
+    }
+}
@@ -0,0 +1,140 @@
+package com.library.librarysystem.entity;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+@Document(collection = "holds")
+public class Hold {
+    @Id
+    private String id;
+    
+    private String userId;
+    private String username; // 冗余字段，便于查询
+    private String bookId;
+    private String bookTitle; // 冗余字段，便于查询
+    
+    private String status; // "WAITING", "READY", "FULFILLED", "CANCELLED", "EXPIRED"
+    private Boolean active; // 排队中或待取书时为true，用于同一用户同一本书只能有一个有效预约的唯一索引
+    private LocalDateTime createTime;
+    private LocalDateTime readyTime; // 分配到副本的时间
+    private LocalDateTime expireTime; // 取书截止时间
+    private LocalDateTime closeTime; // 取书、取消或过期的时间
+    
+    @Transient
+    private int queuePosition; // 排队位置，仅用于展示
+    
+    // 构造方法
+    public Hold() {
+        this.createTime = LocalDateTime.now();
+    }
+    
+    // Getter和Setter方法
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public String getUserId() {
+        return userId;
+    }
+    
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+    
+    public String getUsername() {
+        return username;
+    }
+    
+    public void setUsername(String username) {
+        this.username = username;
+    }
+    
+    public String getBookId() {
+        return bookId;
+    }
+    
+    public void setBookId(String bookId) {
+        this.bookId = bookId;
+    }
+    
+    public String getBookTitle() {
+        return bookTitle;
+    }
+    
+    public void setBookTitle(String bookTitle) {
+        this.bookTitle = bookTitle;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public void setStatus(String status) {
+        this.status = status;
+    }
+    
+    public Boolean getActive() {
+        return active;
+    }
+    
+    public void setActive(Boolean active) {
+        this.active = active;
+    }
+    
+    public LocalDateTime getCreateTime() {
+        return createTime;
+    }
+    
+    public void setCreateTime(LocalDateTime createTime) {
+        this.createTime = createTime;
+    }
+    
+    public LocalDateTime getReadyTime() {
+        return readyTime;
+    }
+    
+    public void setReadyTime(LocalDateTime readyTime) {
+        this.readyTime = readyTime;
+    }
+    
+    public LocalDateTime getExpireTime() {
+        return expireTime;
+    }
+    
+    public void setExpireTime(LocalDateTime expireTime) {
+        this.expireTime = expireTime;
+    }
+    
+    public LocalDateTime getCloseTime() {
+        return closeTime;
+    }
+    
+    public void setCloseTime(LocalDateTime closeTime) {
+        this.closeTime = closeTime;
+    }
+    
+    public int getQueuePosition() {
+        return queuePosition;
+    }
+    
+    public void setQueuePosition(int queuePosition) {
+        this.queuePosition = queuePosition;
+    }
+    
+    @Override
+    public String toString() {
+        return "Hold{" +
+                "id='" + id + '\'' +
+                ", bookTitle='" + bookTitle + '\'' +
+                ", username='" + username + '\'' +
+                ", status='" + status + '\'' +
+                ", createTime=" + createTime +
+                '}';
+    }
+}
@@ -0,0 +1,98 @@
+package com.library.librarysystem.entity;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+@Document(collection = "idempotency_keys")
+public class IdempotencyRecord {
+    @Id
+    private String id; // 作用域 + ":" + 客户端提供的幂等键
+    
+    private String fingerprint; // 请求参数摘要，同一个键用于不同请求时拒绝
+    private String status; // "IN_PROGRESS", "COMPLETED"
+    private Integer statusCode; // 原始响应的HTTP状态码
+    private String responseBody; // 原始响应体（JSON）
+    private LocalDateTime lockedUntil; // 处理中的占用期限，进程异常退出后过期可由重试接管
+    private String claimToken; // 占用标识，每次占用或接管重新生成，保存响应和释放时校验
+    private LocalDateTime createTime;
+    private LocalDateTime expireAt; // TTL索引按此字段自动删除
+    
+    // 构造方法
+    public IdempotencyRecord() {
+        this.createTime = LocalDateTime.now();
+    }
+    
+    // Getter和Setter方法
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public String getFingerprint() {
+        return fingerprint;
+    }
+    
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public void setStatus(String status) {
+        this.status = status;
+    }
+    
+    public Integer getStatusCode() {
+        return statusCode;
+    }
+    
+    public void setStatusCode(Integer statusCode) {
+        this.statusCode = statusCode;
+    }
+    
+    public String getResponseBody() {
+        return responseBody;
+    }
+    
+    public void setResponseBody(String responseBody) {
+        this.responseBody = responseBody;
+    }
+    
+    public LocalDateTime getLockedUntil() {
+        return lockedUntil;
+    }
+    
+    public void setLockedUntil(LocalDateTime lockedUntil) {
+        this.lockedUntil = lockedUntil;
+    }
+    
+    public String getClaimToken() {
+        return claimToken;
+    }
+    
+    public void setClaimToken(String claimToken) {
+        this.claimToken = claimToken;
+    }
+    
+    public LocalDateTime getCreateTime() {
+        return createTime;
+    }
+    
+    public void setCreateTime(LocalDateTime createTime) {
+        this.createTime = createTime;
+    }
+    
+    public LocalDateTime getExpireAt() {
+        return expireAt;
+    }
+    
+    public void setExpireAt(LocalDateTime expireAt) {
+        this.expireAt = expireAt;
+    }
+}
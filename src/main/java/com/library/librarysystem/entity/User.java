@@ -4,6 +4,7 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Document(collection = "users")
 public class User {
@@ -21,6 +22,8 @@ public class User {
     private String role; // "READER" 或 "ADMIN"
     
     private Integer maxBorrow = 5; // 最大借阅数量
+    private Integer activeLoans; // 当前在借数量，只通过UserService的条件更新维护，缺失时由对账初始化
+    private List<String> activeBookIds; // 当前在借的图书ID
     private LocalDateTime createTime;
     private LocalDateTime updateTime;
     
@@ -87,6 +90,22 @@ public class User {
         this.maxBorrow = maxBorrow;
     }
     
+    public Integer getActiveLoans() {
+        return activeLoans;
+    }
+    
+    public void setActiveLoans(Integer activeLoans) {
+        this.activeLoans = activeLoans;
+    }
+    
+    public List<String> getActiveBookIds() {
+        return activeBookIds;
+    }
+    
+    public void setActiveBookIds(List<String> activeBookIds) {
+        this.activeBookIds = activeBookIds;
+    }
+    
     public LocalDateTime getCreateTime() {
         return createTime;
     }
@@ -0,0 +1,26 @@
+package com.library.librarysystem.repository;
+
+/**
+ * 按图书分组的借阅次数（聚合查询结果）
+ */
+public class BookBorrowCount {
+
+    private String id; // 图书ID
+    private long count;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+}
@@ -1,6 +1,8 @@
 package com.library.librarysystem.repository;
 
 import com.library.librarysystem.entity.Book;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 import java.util.List;
@@ -23,4 +25,8 @@ public interface BookRepository extends MongoRepository<Book, String> {
     // 根据标题或作者搜索
     @Query("{$or: [{'title': {$regex: ?0, $options: 'i'}}, {'author': {$regex: ?0, $options: 'i'}}]}")
     List<Book> searchByKeyword(String keyword);
+    
+    // 根据标题或作者分页搜索（数据库端skip/limit，另行count）
+    @Query("{$or: [{'title': {$regex: ?0, $options: 'i'}}, {'author': {$regex: ?0, $options: 'i'}}]}")
+    Page<Book> searchByKeyword(String keyword, Pageable pageable);
 }
\ No newline at end of file
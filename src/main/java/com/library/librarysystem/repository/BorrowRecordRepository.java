@@ -1,7 +1,9 @@
 package com.library.librarysystem.repository;
 
 import com.library.librarysystem.entity.BorrowRecord;
+import org.springframework.data.mongodb.repository.Aggregation;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import java.util.Collection;
 import java.util.List;
 
 public interface BorrowRecordRepository extends MongoRepository<BorrowRecord, String> {
@@ -12,6 +14,9 @@ public interface BorrowRecordRepository extends MongoRepository<BorrowRecord, St
     // 根据用户ID和状态查找借阅记录
     List<BorrowRecord> findByUserIdAndStatus(String userId, String status);
     
+    // 根据用户ID和多个状态查找借阅记录（如未归还：借阅中和逾期）
+    List<BorrowRecord> findByUserIdAndStatusIn(String userId, Collection<String> statuses);
+    
     // 根据图书ID查找借阅记录
     List<BorrowRecord> findByBookId(String bookId);
     
@@ -20,4 +25,8 @@ public interface BorrowRecordRepository extends MongoRepository<BorrowRecord, St
     
     // 查找逾期未还的记录
     List<BorrowRecord> findByStatusAndDueDateBefore(String status, java.util.Date dueDate);
+    
+    // 统计每本图书的借阅次数
+    @Aggregation("{ $group: { _id: '$bookId', count: { $sum: 1 } } }")
+    List<BookBorrowCount> countBorrowsByBook();
 }
\ No newline at end of file
@@ -0,0 +1,18 @@
+package com.library.librarysystem.repository;
+
+import com.library.librarysystem.entity.Hold;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface HoldRepository extends MongoRepository<Hold, String> {
+    
+    // 根据用户ID和状态查找预约
+    List<Hold> findByUserIdAndStatus(String userId, String status);
+    
+    // 按预约时间顺序查找某状态的预约（启动时加载排队队列）
+    List<Hold> findByStatusOrderByCreateTimeAsc(String status);
+    
+    // 查找取书已过期的预约
+    List<Hold> findByStatusAndExpireTimeBefore(String status, LocalDateTime expireTime);
+}
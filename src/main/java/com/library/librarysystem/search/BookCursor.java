@@ -0,0 +1,63 @@
+package com.library.librarysystem.search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 图书游标，编码最后一条记录的(title, _id)
+ * 对外是不透明的URL安全Base64字符串
+ */
+public final class BookCursor {
+
+    private static final char SEPARATOR = '\u0000';
+
+    // 标题为null时的标记
+    private static final char NULL_TITLE = '0';
+    private static final char HAS_TITLE = '1';
+
+    private final String title;
+    private final String id;
+
+    public BookCursor(String title, String id) {
+        this.title = title;
+        this.id = id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * 编码为字符串
+     */
+    public String encode() {
+        String raw = (title == null ? NULL_TITLE + "" : HAS_TITLE + title) + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析游标字符串，格式错误时抛出IllegalArgumentException
+     */
+    public static BookCursor decode(String cursor) {
+        String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        int separator = raw.lastIndexOf(SEPARATOR);
+        if (raw.isEmpty() || separator < 1 || separator == raw.length() - 1) {
+            throw new IllegalArgumentException("无效的游标");
+        }
+
+        String id = raw.substring(separator + 1);
+        char flag = raw.charAt(0);
+        if (flag == NULL_TITLE && separator == 1) {
+            return new BookCursor(null, id);
+        }
+        if (flag == HAS_TITLE) {
+            return new BookCursor(raw.substring(1, separator), id);
+        }
+        throw new IllegalArgumentException("无效的游标");
+    }
+}
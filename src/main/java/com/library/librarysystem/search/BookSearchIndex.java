@@ -0,0 +1,61 @@
+package com.library.librarysystem.search;
+
+import com.library.librarysystem.entity.Book;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+import java.util.Collection;
+
+/**
+ * 图书检索索引（进程内）
+ * BookService 通过该接口检索图书，具体实现可替换
+ */
+public interface BookSearchIndex {
+
+    /**
+     * 索引是否已构建完成，可用于查询
+     */
+    boolean isReady();
+
+    /**
+     * 全量重建索引
+     */
+    void rebuild(Collection<Book> books);
+
+    /**
+     * 新增或更新单本图书
+     */
+    void index(Book book);
+
+    /**
+     * 删除单本图书
+     */
+    void remove(String bookId);
+
+    /**
+     * 按关键词检索（分页），关键词为空时返回全部图书
+     */
+    default Page<Book> search(String keyword, Pageable pageable) {
+        return search(keyword, 0, pageable);
+    }
+
+    /**
+     * 按关键词检索（分页），maxEdits大于0时容忍拼写错误
+     */
+    Page<Book> search(String keyword, int maxEdits, Pageable pageable);
+
+    /**
+     * 按关键词和分面条件检索，一次遍历命中集合同时得到结果页和各分面计数
+     */
+    FacetedPage<Book> searchFaceted(String keyword, int maxEdits, FacetFilter filter, Pageable pageable);
+
+    /**
+     * 判断单本图书是否命中关键词（不依赖索引内容）
+     */
+    boolean matches(String keyword, Book book);
+
+    /**
+     * 已索引的图书数量
+     */
+    int size();
+}
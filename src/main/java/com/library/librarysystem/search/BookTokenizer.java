@@ -0,0 +1,203 @@
+package com.library.librarysystem.search;
+
+import com.library.librarysystem.entity.Book;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 图书检索分词工具
+ * 字母数字按连续片段切分并转小写；中日韩文字没有空格分隔，
+ * 连续片段同时切成单字和二元组（bigram），子串查询通过二元组倒排表求交集
+ */
+public final class BookTokenizer {
+
+    private BookTokenizer() {
+    }
+
+    /**
+     * 对文档文本分词：字母数字片段 + 中日韩单字 + 中日韩二元组
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        for (Segment segment : segments(text)) {
+            if (!segment.cjk) {
+                tokens.add(segment.text);
+                continue;
+            }
+            int[] chars = segment.text.codePoints().toArray();
+            for (int i = 0; i < chars.length; i++) {
+                tokens.add(new String(chars, i, 1));
+                if (i + 1 < chars.length) {
+                    tokens.add(new String(chars, i, 2));
+                }
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 图书的全部索引词（书名、作者、出版社、ISBN）
+     */
+    public static Set<String> documentTerms(Book book) {
+        Set<String> terms = new LinkedHashSet<>();
+        terms.addAll(tokenize(book.getTitle()));
+        terms.addAll(tokenize(book.getAuthor()));
+        terms.addAll(tokenize(book.getPublisher()));
+        terms.addAll(tokenize(book.getIsbn()));
+
+        String compactIsbn = compactIsbn(book.getIsbn());
+        if (compactIsbn != null) {
+            terms.add(compactIsbn);
+        }
+        return terms;
+    }
+
+    /**
+     * 查询词：字母数字片段按前缀匹配；
+     * 中日韩片段为单字时取单字，否则取全部二元组精确匹配
+     */
+    public static List<String> queryTerms(String keyword) {
+        // 输入形如ISBN时，按去掉分隔符后的整体匹配
+        String compactIsbn = compactIsbn(keyword);
+        List<Segment> segments = segments(keyword);
+        if (compactIsbn != null && segments.size() > 1) {
+            List<String> isbnTerms = new ArrayList<>();
+            isbnTerms.add(compactIsbn);
+            return isbnTerms;
+        }
+
+        List<String> terms = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (!segment.cjk) {
+                terms.add(segment.text);
+                continue;
+            }
+            int[] chars = segment.text.codePoints().toArray();
+            if (chars.length == 1) {
+                terms.add(segment.text);
+            }
+            for (int i = 0; i + 1 < chars.length; i++) {
+                terms.add(new String(chars, i, 2));
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * 查询中长度不小于3的中日韩片段
+     * 二元组求交集后可能有不相邻的误命中，需要用原文再校验一次
+     */
+    public static List<String> cjkPhrases(String keyword) {
+        List<String> phrases = new ArrayList<>();
+        for (Segment segment : segments(keyword)) {
+            if (segment.cjk && segment.text.codePointCount(0, segment.text.length()) >= 3) {
+                phrases.add(segment.text);
+            }
+        }
+        return phrases;
+    }
+
+    /**
+     * 书名、作者或出版社是否包含该短语
+     */
+    public static boolean containsPhrase(Book book, String phrase) {
+        return contains(book.getTitle(), phrase)
+                || contains(book.getAuthor(), phrase)
+                || contains(book.getPublisher(), phrase);
+    }
+
+    /**
+     * 是否为中日韩词（单字或二元组），这类词精确匹配而不做前缀匹配
+     */
+    public static boolean isCjkTerm(String term) {
+        return !term.isEmpty() && isCjk(term.codePointAt(0));
+    }
+
+    /**
+     * 去掉ISBN中的分隔符，不是ISBN格式时返回null
+     */
+    static String compactIsbn(String value) {
+        if (value == null) {
+            return null;
+        }
+        String compact = value.replace("-", "").replace(" ", "").toLowerCase(Locale.ROOT);
+        if (compact.length() < 2) {
+            return null;
+        }
+        for (int i = 0; i < compact.length(); i++) {
+            char c = compact.charAt(i);
+            boolean checkDigit = c == 'x' && i == compact.length() - 1;
+            if (!Character.isDigit(c) && !checkDigit) {
+                return null;
+            }
+        }
+        return compact;
+    }
+
+    /**
+     * 是否为中日韩文字
+     */
+    static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static boolean contains(String text, String phrase) {
+        return text != null && text.toLowerCase(Locale.ROOT).contains(phrase);
+    }
+
+    /**
+     * 把文本切成连续的字母数字片段和中日韩片段，其余字符作为分隔符
+     */
+    private static List<Segment> segments(String text) {
+        List<Segment> segments = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return segments;
+        }
+
+        String normalized = text.toLowerCase(Locale.ROOT);
+        StringBuilder current = new StringBuilder();
+        boolean currentCjk = false;
+        int i = 0;
+        while (i < normalized.length()) {
+            int codePoint = normalized.codePointAt(i);
+            boolean cjk = isCjk(codePoint);
+            if (cjk || Character.isLetterOrDigit(codePoint)) {
+                if (current.length() > 0 && cjk != currentCjk) {
+                    flush(current, currentCjk, segments);
+                }
+                currentCjk = cjk;
+                current.appendCodePoint(codePoint);
+            } else {
+                flush(current, currentCjk, segments);
+            }
+            i += Character.charCount(codePoint);
+        }
+        flush(current, currentCjk, segments);
+        return segments;
+    }
+
+    private static void flush(StringBuilder current, boolean cjk, List<Segment> segments) {
+        if (current.length() > 0) {
+            segments.add(new Segment(current.toString(), cjk));
+            current.setLength(0);
+        }
+    }
+
+    private static final class Segment {
+        private final String text;
+        private final boolean cjk;
+
+        private Segment(String text, boolean cjk) {
+            this.text = text;
+            this.cjk = cjk;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.library.librarysystem.search;
+
+import java.util.List;
+
+/**
+ * 游标分页结果，nextCursor为null表示已到末尾
+ */
+public class CursorPage<T> {
+
+    private final List<T> content;
+    private final String nextCursor;
+
+    public CursorPage(List<T> content, String nextCursor) {
+        this.content = content;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
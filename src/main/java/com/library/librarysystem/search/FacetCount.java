@@ -0,0 +1,27 @@
+package com.library.librarysystem.search;
+
+import java.io.Serializable;
+
+/**
+ * 分面取值及其命中数量
+ */
+public class FacetCount implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String value;
+    private final long count;
+
+    public FacetCount(String value, long count) {
+        this.value = value;
+        this.count = count;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
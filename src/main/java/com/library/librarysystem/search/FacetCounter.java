@@ -0,0 +1,109 @@
+package com.library.librarysystem.search;
+
+import com.library.librarysystem.entity.Book;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 在一次遍历命中集合的过程中同时完成筛选和分面计数。
+ * 某个分面的计数忽略该分面自身的筛选条件（多选分面的常见语义）：
+ * 全部通过的图书计入所有分面，只差一个条件的图书只计入该条件所在的分面
+ */
+final class FacetCounter {
+
+    private static final Comparator<FacetCount> ORDER = Comparator
+            .comparingLong(FacetCount::getCount).reversed()
+            .thenComparing(FacetCount::getValue);
+
+    private final FacetFilter filter;
+    private final LocalDateTime now;
+    private final LocalDateTime[] arrivalSince;
+
+    private final Map<String, Long> authors = new HashMap<>();
+    private final Map<String, Long> publishers = new HashMap<>();
+    private long available;
+    private long unavailable;
+    private final long[] arrivals = new long[FacetFilter.ARRIVAL_DAYS.length];
+
+    FacetCounter(FacetFilter filter, LocalDateTime now) {
+        this.filter = filter;
+        this.now = now;
+        this.arrivalSince = new LocalDateTime[FacetFilter.ARRIVAL_DAYS.length];
+        for (int i = 0; i < arrivalSince.length; i++) {
+            arrivalSince[i] = now.minusDays(FacetFilter.ARRIVAL_DAYS[i]);
+        }
+    }
+
+    /**
+     * 统计一本命中的图书，返回它是否通过全部筛选条件
+     */
+    boolean accept(Book book) {
+        int failed = filter.failures(book, now);
+        if (Integer.bitCount(failed) > 1) {
+            return false;
+        }
+
+        if (failed == 0 || failed == FacetFilter.AUTHOR_BIT) {
+            increment(authors, book.getAuthor());
+        }
+        if (failed == 0 || failed == FacetFilter.PUBLISHER_BIT) {
+            increment(publishers, book.getPublisher());
+        }
+        if (failed == 0 || failed == FacetFilter.AVAILABILITY_BIT) {
+            if (FacetFilter.isAvailable(book)) {
+                available++;
+            } else {
+                unavailable++;
+            }
+        }
+        if ((failed == 0 || failed == FacetFilter.ARRIVAL_BIT) && book.getCreateTime() != null) {
+            for (int i = 0; i < arrivalSince.length; i++) {
+                if (!book.getCreateTime().isBefore(arrivalSince[i])) {
+                    arrivals[i]++;
+                }
+            }
+        }
+        return failed == 0;
+    }
+
+    Map<String, List<FacetCount>> result() {
+        Map<String, List<FacetCount>> facets = new LinkedHashMap<>();
+        facets.put(FacetFilter.AUTHOR, top(authors));
+        facets.put(FacetFilter.PUBLISHER, top(publishers));
+
+        List<FacetCount> availability = new ArrayList<>(2);
+        availability.add(new FacetCount(FacetFilter.AVAILABLE, available));
+        availability.add(new FacetCount(FacetFilter.UNAVAILABLE, unavailable));
+        facets.put(FacetFilter.AVAILABILITY, availability);
+
+        List<FacetCount> arrival = new ArrayList<>(arrivals.length);
+        for (int i = 0; i < arrivals.length; i++) {
+            arrival.add(new FacetCount(FacetFilter.arrivalKey(FacetFilter.ARRIVAL_DAYS[i]), arrivals[i]));
+        }
+        facets.put(FacetFilter.ARRIVAL, arrival);
+        return facets;
+    }
+
+    private static void increment(Map<String, Long> counts, String value) {
+        if (value != null && !value.isEmpty()) {
+            counts.merge(value, 1L, Long::sum);
+        }
+    }
+
+    private static List<FacetCount> top(Map<String, Long> counts) {
+        List<FacetCount> values = new ArrayList<>(counts.size());
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            values.add(new FacetCount(entry.getKey(), entry.getValue()));
+        }
+        values.sort(ORDER);
+        return values.size() > FacetFilter.MAX_VALUES
+                ? new ArrayList<>(values.subList(0, FacetFilter.MAX_VALUES))
+                : values;
+    }
+}
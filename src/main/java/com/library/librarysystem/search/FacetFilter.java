@@ -0,0 +1,124 @@
+package com.library.librarysystem.search;
+
+import com.library.librarysystem.entity.Book;
+
+import java.time.LocalDateTime;
+
+/**
+ * 分面筛选条件：作者、出版社、是否可借、新书上架时间
+ * 作者和出版社按原值精确匹配；上架时间为累计区间，例如30d表示近30天内入库
+ */
+public class FacetFilter {
+
+    public static final String AUTHOR = "author";
+    public static final String PUBLISHER = "publisher";
+    public static final String AVAILABILITY = "availability";
+    public static final String ARRIVAL = "arrival";
+
+    public static final String AVAILABLE = "available";
+    public static final String UNAVAILABLE = "unavailable";
+
+    // 新书上架区间（天）
+    public static final int[] ARRIVAL_DAYS = {7, 30, 90};
+
+    // 作者、出版社分面最多返回的取值个数
+    public static final int MAX_VALUES = 10;
+
+    // 各分面在未通过掩码中的位
+    static final int AUTHOR_BIT = 1;
+    static final int PUBLISHER_BIT = 1 << 1;
+    static final int AVAILABILITY_BIT = 1 << 2;
+    static final int ARRIVAL_BIT = 1 << 3;
+
+    private final String author;
+    private final String publisher;
+    private final String availability;
+    private final String arrival;
+
+    public FacetFilter(String author, String publisher, String availability, String arrival) {
+        this.author = blankToNull(author);
+        this.publisher = blankToNull(publisher);
+        this.availability = blankToNull(availability);
+        this.arrival = blankToNull(arrival);
+
+        if (this.availability != null
+                && !AVAILABLE.equals(this.availability) && !UNAVAILABLE.equals(this.availability)) {
+            throw new IllegalArgumentException("无效的借阅状态筛选：" + availability);
+        }
+        if (this.arrival != null && arrivalDays(this.arrival) < 0) {
+            throw new IllegalArgumentException("无效的上架时间筛选：" + arrival);
+        }
+    }
+
+    /**
+     * 不带任何筛选条件
+     */
+    public static FacetFilter none() {
+        return new FacetFilter(null, null, null, null);
+    }
+
+    public boolean isEmpty() {
+        return author == null && publisher == null && availability == null && arrival == null;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public String getPublisher() {
+        return publisher;
+    }
+
+    public String getAvailability() {
+        return availability;
+    }
+
+    public String getArrival() {
+        return arrival;
+    }
+
+    /**
+     * 上架区间对应的天数，无效时返回-1
+     */
+    public static int arrivalDays(String key) {
+        for (int days : ARRIVAL_DAYS) {
+            if (arrivalKey(days).equals(key)) {
+                return days;
+            }
+        }
+        return -1;
+    }
+
+    public static String arrivalKey(int days) {
+        return days + "d";
+    }
+
+    static boolean isAvailable(Book book) {
+        return book.getAvailableCopies() != null && book.getAvailableCopies() > 0;
+    }
+
+    /**
+     * 图书未通过的筛选条件（按位），0表示全部通过
+     */
+    int failures(Book book, LocalDateTime now) {
+        int failed = 0;
+        if (author != null && !author.equals(book.getAuthor())) {
+            failed |= AUTHOR_BIT;
+        }
+        if (publisher != null && !publisher.equals(book.getPublisher())) {
+            failed |= PUBLISHER_BIT;
+        }
+        if (availability != null && AVAILABLE.equals(availability) != isAvailable(book)) {
+            failed |= AVAILABILITY_BIT;
+        }
+        if (arrival != null && (book.getCreateTime() == null
+                || book.getCreateTime().isBefore(now.minusDays(arrivalDays(arrival))))) {
+            failed |= ARRIVAL_BIT;
+        }
+        return failed;
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+}
@@ -0,0 +1,28 @@
+package com.library.librarysystem.search;
+
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 带分面统计的检索结果页
+ */
+public class FacetedPage<T> extends SearchPage<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, List<FacetCount>> facets;
+
+    public FacetedPage(List<T> content, Pageable pageable, long total, Map<String, List<FacetCount>> facets) {
+        super(content, pageable, total, false);
+        this.facets = facets;
+    }
+
+    /**
+     * 分面名 -> 各取值的命中数量
+     */
+    public Map<String, List<FacetCount>> getFacets() {
+        return facets;
+    }
+}
@@ -0,0 +1,450 @@
+package com.library.librarysystem.search;
+
+import com.library.librarysystem.entity.Book;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 基于倒排表的内存图书索引
+ * 每本图书分配一个int文档号，词典按字典序存放。字母数字查询词按前缀匹配，
+ * 中文查询词按单字/二元组精确匹配，多个查询词的结果取交集，结果顺序与入库顺序一致。
+ * 模糊检索时字母数字查询词还会匹配编辑距离在1~2以内的词。
+ * 删除的文档号不复用（否则新书会插到结果中间），空缺积累到一定数量后按原顺序重新编号
+ */
+@Component
+public class InMemoryBookSearchIndex implements BookSearchIndex {
+
+    // 空缺的文档号至少达到此数量且超过总数的1/4时重新编号
+    private static final int COMPACT_MIN_HOLES = 1024;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // 词 -> 倒排表
+    private final TreeMap<String, PostingList> terms = new TreeMap<>();
+
+    // 图书ID -> 文档号
+    private final Map<String, Integer> docIds = new HashMap<>();
+
+    // 文档号 -> 图书快照
+    private Book[] documents = new Book[1024];
+
+    // 有效文档号
+    private final BitSet live = new BitSet();
+
+    private int nextDoc;
+
+    // 模糊检索使用的有序词典快照，词典增删词时置空
+    private volatile String[] sortedTerms;
+
+    private volatile boolean ready;
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void rebuild(Collection<Book> books) {
+        lock.writeLock().lock();
+        try {
+            terms.clear();
+            sortedTerms = null;
+            docIds.clear();
+            live.clear();
+            documents = new Book[Math.max(1024, books.size())];
+            nextDoc = 0;
+
+            for (Book book : books) {
+                if (book != null && book.getId() != null) {
+                    addDocument(book);
+                }
+            }
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void index(Book book) {
+        if (book == null || book.getId() == null) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            Integer doc = docIds.get(book.getId());
+            if (doc == null) {
+                addDocument(book);
+                return;
+            }
+
+            // 文本未变化时（例如库存变更）只替换快照
+            Set<String> oldTerms = BookTokenizer.documentTerms(documents[doc]);
+            Set<String> newTerms = BookTokenizer.documentTerms(book);
+            if (!oldTerms.equals(newTerms)) {
+                for (String term : oldTerms) {
+                    if (!newTerms.contains(term)) {
+                        removePosting(term, doc);
+                    }
+                }
+                for (String term : newTerms) {
+                    if (!oldTerms.contains(term)) {
+                        addPosting(term, doc);
+                    }
+                }
+            }
+            documents[doc] = book;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(String bookId) {
+        if (bookId == null) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            Integer doc = docIds.remove(bookId);
+            if (doc == null) {
+                return;
+            }
+            for (String term : BookTokenizer.documentTerms(documents[doc])) {
+                removePosting(term, doc);
+            }
+            documents[doc] = null;
+            live.clear(doc);
+
+            int holes = nextDoc - docIds.size();
+            if (holes >= COMPACT_MIN_HOLES && holes * 4 > nextDoc) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Page<Book> search(String keyword, int maxEdits, Pageable pageable) {
+        lock.readLock().lock();
+        try {
+            BitSet matches = match(keyword, maxEdits);
+            int total = matches.cardinality();
+
+            List<Book> content = new ArrayList<>(pageable.getPageSize());
+            long offset = pageable.getOffset();
+            if (offset < total) {
+                int doc = matches.nextSetBit(0);
+                for (long skipped = 0; skipped < offset; skipped++) {
+                    doc = matches.nextSetBit(doc + 1);
+                }
+                while (doc >= 0 && content.size() < pageable.getPageSize()) {
+                    content.add(documents[doc]);
+                    doc = matches.nextSetBit(doc + 1);
+                }
+            }
+            return new PageImpl<>(content, pageable, total);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public FacetedPage<Book> searchFaceted(String keyword, int maxEdits, FacetFilter filter, Pageable pageable) {
+        lock.readLock().lock();
+        try {
+            BitSet matches = match(keyword, maxEdits);
+            FacetCounter counter = new FacetCounter(filter, LocalDateTime.now());
+
+            List<Book> content = new ArrayList<>(pageable.getPageSize());
+            long offset = pageable.getOffset();
+            long total = 0;
+            for (int doc = matches.nextSetBit(0); doc >= 0; doc = matches.nextSetBit(doc + 1)) {
+                Book book = documents[doc];
+                if (!counter.accept(book)) {
+                    continue;
+                }
+                if (total >= offset && content.size() < pageable.getPageSize()) {
+                    content.add(book);
+                }
+                total++;
+            }
+            return new FacetedPage<>(content, pageable, total, counter.result());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean matches(String keyword, Book book) {
+        if (keyword == null || keyword.trim().isEmpty()) {
+            return true;
+        }
+
+        Set<String> bookTerms = BookTokenizer.documentTerms(book);
+        List<String> queryTerms = BookTokenizer.queryTerms(keyword);
+        if (queryTerms.isEmpty()) {
+            return false;
+        }
+        for (String term : queryTerms) {
+            boolean found = BookTokenizer.isCjkTerm(term)
+                    ? bookTerms.contains(term)
+                    : bookTerms.stream().anyMatch(t -> t.startsWith(term));
+            if (!found) {
+                return false;
+            }
+        }
+        for (String phrase : BookTokenizer.cjkPhrases(keyword)) {
+            if (!BookTokenizer.containsPhrase(book, phrase)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 计算命中的文档号集合（调用方持有读锁）
+     */
+    private BitSet match(String keyword, int maxEdits) {
+        if (keyword == null || keyword.trim().isEmpty()) {
+            return (BitSet) live.clone();
+        }
+
+        List<String> queryTerms = BookTokenizer.queryTerms(keyword);
+        if (queryTerms.isEmpty()) {
+            return new BitSet();
+        }
+
+        BitSet result = null;
+        for (String term : new HashSet<>(queryTerms)) {
+            BitSet termDocs = new BitSet(nextDoc);
+            if (BookTokenizer.isCjkTerm(term)) {
+                PostingList postings = terms.get(term);
+                if (postings != null) {
+                    postings.addTo(termDocs);
+                }
+            } else {
+                for (PostingList postings : terms.subMap(term, true, term + Character.MAX_VALUE, true).values()) {
+                    postings.addTo(termDocs);
+                }
+                int edits = allowedEdits(term, maxEdits);
+                if (edits > 0) {
+                    for (String similar : fuzzyTerms(sortedTerms(), term, edits)) {
+                        terms.get(similar).addTo(termDocs);
+                    }
+                }
+            }
+            if (result == null) {
+                result = termDocs;
+            } else {
+                result.and(termDocs);
+            }
+            if (result.isEmpty()) {
+                return result;
+            }
+        }
+
+        // 三个字以上的中文片段：二元组都命中但不一定相邻，用原文校验
+        List<String> phrases = BookTokenizer.cjkPhrases(keyword);
+        if (!phrases.isEmpty()) {
+            for (int doc = result.nextSetBit(0); doc >= 0; doc = result.nextSetBit(doc + 1)) {
+                for (String phrase : phrases) {
+                    if (!BookTokenizer.containsPhrase(documents[doc], phrase)) {
+                        result.clear(doc);
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 词越短允许的编辑次数越少：3个字符以下不做模糊匹配，5个字符以下最多1次
+     */
+    private static int allowedEdits(String term, int maxEdits) {
+        if (maxEdits <= 0 || term.length() < 3) {
+            return 0;
+        }
+        return term.length() <= 5 ? Math.min(1, maxEdits) : Math.min(2, maxEdits);
+    }
+
+    /**
+     * 用编辑距离自动机遍历有序词典，找出与term距离不超过maxEdits的词。
+     * 相邻词共享前缀部分的状态直接复用，某个前缀已不可能匹配时跳过该前缀下的所有词
+     */
+    static List<String> fuzzyTerms(String[] dictionary, String term, int maxEdits) {
+        List<String> result = new ArrayList<>();
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(term, maxEdits);
+
+        // states[d] 为读入前d个字符后的状态，valid为当前有效的状态个数
+        int maxDepth = automaton.maxDepth();
+        int[][] states = new int[maxDepth + 2][automaton.stateSize()];
+        states[0] = automaton.start();
+        int valid = 1;
+
+        String previous = "";
+        int index = 0;
+        while (index < dictionary.length) {
+            String current = dictionary[index];
+            valid = Math.min(valid, commonPrefix(previous, current) + 1);
+
+            int deadDepth = -1;
+            for (int depth = valid; depth <= current.length(); depth++) {
+                if (depth > maxDepth) {
+                    deadDepth = depth;
+                    break;
+                }
+                automaton.step(states[depth - 1], current.charAt(depth - 1), depth, states[depth]);
+                valid = depth + 1;
+                if (!automaton.canMatch(states[depth])) {
+                    deadDepth = depth;
+                    break;
+                }
+            }
+
+            previous = current;
+            if (deadDepth > 0) {
+                valid = Math.min(valid, deadDepth);
+                index = skipPrefix(dictionary, index, current.substring(0, deadDepth));
+                continue;
+            }
+            if (automaton.isMatch(states[current.length()])) {
+                result.add(current);
+            }
+            index++;
+        }
+        return result;
+    }
+
+    /**
+     * 从index开始跳过所有以prefix开头的词（倍增后二分），返回第一个不以prefix开头的位置
+     */
+    private static int skipPrefix(String[] dictionary, int index, String prefix) {
+        int low = index;
+        int step = 1;
+        int high = index + step;
+        while (high < dictionary.length && dictionary[high].startsWith(prefix)) {
+            low = high;
+            step <<= 1;
+            high = index + step;
+        }
+        high = Math.min(high, dictionary.length);
+        while (low + 1 < high) {
+            int mid = (low + high) >>> 1;
+            if (dictionary[mid].startsWith(prefix)) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * 有序词典快照，词典变化后首次模糊查询时重建
+     */
+    private String[] sortedTerms() {
+        String[] snapshot = sortedTerms;
+        if (snapshot == null) {
+            snapshot = terms.keySet().toArray(new String[0]);
+            sortedTerms = snapshot;
+        }
+        return snapshot;
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int max = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < max && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 去掉删除留下的空缺：有效文档按原顺序重新编号为0..n-1，倒排表同步改号（调用方持有写锁）
+     */
+    private void compact() {
+        int[] mapping = new int[nextDoc];
+        Book[] compacted = new Book[Math.max(1024, docIds.size() * 2)];
+        int next = 0;
+        for (int doc = live.nextSetBit(0); doc >= 0; doc = live.nextSetBit(doc + 1)) {
+            mapping[doc] = next;
+            compacted[next] = documents[doc];
+            next++;
+        }
+
+        for (PostingList postings : terms.values()) {
+            postings.remap(mapping);
+        }
+        docIds.replaceAll((bookId, doc) -> mapping[doc]);
+        documents = compacted;
+        live.clear();
+        live.set(0, next);
+        nextDoc = next;
+    }
+
+    private void addDocument(Book book) {
+        int doc = nextDoc++;
+        if (doc == documents.length) {
+            documents = Arrays.copyOf(documents, documents.length * 2);
+        }
+        documents[doc] = book;
+        docIds.put(book.getId(), doc);
+        live.set(doc);
+
+        for (String term : BookTokenizer.documentTerms(book)) {
+            addPosting(term, doc);
+        }
+    }
+
+    private void addPosting(String term, int doc) {
+        PostingList postings = terms.get(term);
+        if (postings == null) {
+            postings = new PostingList();
+            terms.put(term, postings);
+            sortedTerms = null;
+        }
+        postings.add(doc);
+    }
+
+    private void removePosting(String term, int doc) {
+        PostingList postings = terms.get(term);
+        if (postings != null) {
+            postings.remove(doc);
+            if (postings.isEmpty()) {
+                terms.remove(term);
+                sortedTerms = null;
+            }
+        }
+    }
+}
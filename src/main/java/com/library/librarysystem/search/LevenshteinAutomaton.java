@@ -0,0 +1,81 @@
+package com.library.librarysystem.search;
+
+import java.util.Arrays;
+
+/**
+ * 有界编辑距离自动机
+ * 状态为编辑距离矩阵中的一行，只计算对角线附近宽度为2k+1的带，其余位置视为k+1。
+ * 按字符逐步推进状态，一旦状态中的最小值超过k，任何以当前前缀开头的词都不可能匹配，
+ * 词典遍历时可以整段跳过
+ */
+public final class LevenshteinAutomaton {
+
+    private final String term;
+    private final int maxEdits;
+
+    public LevenshteinAutomaton(String term, int maxEdits) {
+        this.term = term;
+        this.maxEdits = maxEdits;
+    }
+
+    /**
+     * 初始状态（空前缀）
+     */
+    public int[] start() {
+        int[] state = new int[term.length() + 1];
+        for (int i = 0; i < state.length; i++) {
+            state[i] = Math.min(i, maxEdits + 1);
+        }
+        return state;
+    }
+
+    /**
+     * 状态数组长度
+     */
+    public int stateSize() {
+        return term.length() + 1;
+    }
+
+    /**
+     * 可能匹配的最大前缀长度，更长的前缀一定不匹配
+     */
+    public int maxDepth() {
+        return term.length() + maxEdits;
+    }
+
+    /**
+     * 读入字符c后的新状态写入next，depth为读入后的前缀长度
+     */
+    public void step(int[] state, char c, int depth, int[] next) {
+        int limit = maxEdits + 1;
+        Arrays.fill(next, limit);
+
+        next[0] = Math.min(depth, limit);
+        int from = Math.max(1, depth - maxEdits);
+        int to = Math.min(term.length(), depth + maxEdits);
+        for (int i = from; i <= to; i++) {
+            int cost = term.charAt(i - 1) == c ? 0 : 1;
+            int value = Math.min(state[i - 1] + cost, Math.min(state[i] + 1, next[i - 1] + 1));
+            next[i] = Math.min(value, limit);
+        }
+    }
+
+    /**
+     * 当前前缀与目标词的编辑距离是否在k以内
+     */
+    public boolean isMatch(int[] state) {
+        return state[term.length()] <= maxEdits;
+    }
+
+    /**
+     * 当前前缀继续扩展后是否还有可能匹配
+     */
+    public boolean canMatch(int[] state) {
+        for (int value : state) {
+            if (value <= maxEdits) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
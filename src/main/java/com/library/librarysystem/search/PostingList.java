@@ -0,0 +1,81 @@
+package com.library.librarysystem.search;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * 倒排表，文档号升序存放在int数组中
+ */
+final class PostingList {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private int[] docs = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * 加入文档号，保持升序且不重复
+     */
+    void add(int doc) {
+        // 构建时文档号递增，直接追加
+        if (size == 0 || docs[size - 1] < doc) {
+            ensureCapacity();
+            docs[size++] = doc;
+            return;
+        }
+
+        int pos = Arrays.binarySearch(docs, 0, size, doc);
+        if (pos >= 0) {
+            return;
+        }
+        int insertAt = -pos - 1;
+        ensureCapacity();
+        System.arraycopy(docs, insertAt, docs, insertAt + 1, size - insertAt);
+        docs[insertAt] = doc;
+        size++;
+    }
+
+    /**
+     * 移除文档号
+     */
+    void remove(int doc) {
+        int pos = Arrays.binarySearch(docs, 0, size, doc);
+        if (pos < 0) {
+            return;
+        }
+        System.arraycopy(docs, pos + 1, docs, pos, size - pos - 1);
+        size--;
+    }
+
+    /**
+     * 按mapping重新编号（mapping[旧文档号] = 新文档号）。mapping对仍有效的文档号保持递增，顺序不变
+     */
+    void remap(int[] mapping) {
+        for (int i = 0; i < size; i++) {
+            docs[i] = mapping[docs[i]];
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 把文档号并入位图
+     */
+    void addTo(BitSet bits) {
+        for (int i = 0; i < size; i++) {
+            bits.set(docs[i]);
+        }
+    }
+
+    private void ensureCapacity() {
+        if (size == docs.length) {
+            docs = Arrays.copyOf(docs, docs.length * 2);
+        }
+    }
+}
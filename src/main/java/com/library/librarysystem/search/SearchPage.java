@@ -0,0 +1,28 @@
+package com.library.librarysystem.search;
+
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+/**
+ * 检索结果页，可标记总数为估算值
+ */
+public class SearchPage<T> extends PageImpl<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean totalEstimated;
+
+    public SearchPage(List<T> content, Pageable pageable, long total, boolean totalEstimated) {
+        super(content, pageable, total);
+        this.totalEstimated = totalEstimated;
+    }
+
+    /**
+     * 总数是否为估算值
+     */
+    public boolean isTotalEstimated() {
+        return totalEstimated;
+    }
+}
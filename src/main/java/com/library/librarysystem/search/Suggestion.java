@@ -0,0 +1,32 @@
+package com.library.librarysystem.search;
+
+/**
+ * 搜索建议项
+ */
+public class Suggestion {
+
+    public static final String TYPE_TITLE = "TITLE";
+    public static final String TYPE_AUTHOR = "AUTHOR";
+
+    private final String text;
+    private final String type;
+    private final long weight;
+
+    public Suggestion(String text, String type, long weight) {
+        this.text = text;
+        this.type = type;
+        this.weight = weight;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+}
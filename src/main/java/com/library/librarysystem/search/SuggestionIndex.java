@@ -0,0 +1,406 @@
+package com.library.librarysystem.search;
+
+import com.library.librarysystem.entity.Book;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 书名/作者前缀联想索引
+ * 基于压缩前缀树（radix trie），每个节点预先保存子树中权重最高的若干条目，
+ * 查询只需沿前缀走到对应节点并直接返回。条目权重为对应图书的借阅次数之和
+ */
+@Component
+public class SuggestionIndex {
+
+    public static final int MAX_SUGGESTIONS = 10;
+
+    // 权重降序，权重相同按文本排序
+    private static final Comparator<Entry> ORDER = Comparator
+            .comparingLong((Entry e) -> e.weight).reversed()
+            .thenComparing(e -> e.key);
+
+    private static final Entry[] EMPTY = new Entry[0];
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Node root = new Node("", null);
+
+    // 类型 + 规范化文本 -> 条目
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    // 图书ID -> 该书登记的条目
+    private final Map<String, List<Entry>> bookEntries = new HashMap<>();
+
+    // 图书ID -> 借阅次数
+    private final Map<String, Long> borrowCounts = new HashMap<>();
+
+    /**
+     * 全量重建
+     */
+    public void rebuild(Collection<Book> books, Map<String, Long> counts) {
+        lock.writeLock().lock();
+        try {
+            root = new Node("", null);
+            entries.clear();
+            bookEntries.clear();
+            borrowCounts.clear();
+            borrowCounts.putAll(counts);
+
+            for (Book book : books) {
+                if (book != null && book.getId() != null) {
+                    register(book, false);
+                }
+            }
+            computeTops(root);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 新增或更新图书；书名和作者未变化时不做任何操作
+     */
+    public void index(Book book) {
+        if (book == null || book.getId() == null) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            List<Entry> current = bookEntries.get(book.getId());
+            if (current != null && sameKeys(current, book)) {
+                return;
+            }
+            unregister(book.getId());
+            register(book, true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除图书
+     */
+    public void remove(String bookId) {
+        if (bookId == null) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            unregister(bookId);
+            borrowCounts.remove(bookId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 记录一次借阅，提高该书书名和作者的权重
+     */
+    public void recordBorrow(String bookId) {
+        if (bookId == null) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            borrowCounts.merge(bookId, 1L, Long::sum);
+            List<Entry> registered = bookEntries.get(bookId);
+            if (registered != null) {
+                for (Entry entry : registered) {
+                    entry.weight++;
+                    promote(entry.node, entry);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按前缀返回权重最高的limit条建议
+     */
+    public List<Suggestion> suggest(String prefix, int limit) {
+        List<Suggestion> result = new ArrayList<>();
+        String key = normalize(prefix);
+        if (key.isEmpty() || limit <= 0) {
+            return result;
+        }
+
+        lock.readLock().lock();
+        try {
+            Node node = find(key);
+            if (node == null) {
+                return result;
+            }
+            for (int i = 0; i < node.top.length && i < limit; i++) {
+                Entry entry = node.top[i];
+                result.add(new Suggestion(entry.text, entry.type, entry.weight));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 规范化：全角转半角、转小写、合并空白
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT).trim();
+        return normalized.replaceAll("\\s+", " ");
+    }
+
+    private void register(Book book, boolean maintainTops) {
+        List<Entry> registered = new ArrayList<>(2);
+        addEntry(book, Suggestion.TYPE_TITLE, book.getTitle(), registered, maintainTops);
+        addEntry(book, Suggestion.TYPE_AUTHOR, book.getAuthor(), registered, maintainTops);
+        bookEntries.put(book.getId(), registered);
+    }
+
+    private void addEntry(Book book, String type, String text, List<Entry> registered, boolean maintainTops) {
+        String key = normalize(text);
+        if (key.isEmpty()) {
+            return;
+        }
+
+        Entry entry = entries.get(type + '\u0000' + key);
+        if (entry == null) {
+            entry = new Entry(key, text.trim(), type);
+            entry.node = insert(key);
+            entry.node.entries.add(entry);
+            entries.put(type + '\u0000' + key, entry);
+        }
+        if (entry.bookIds.add(book.getId())) {
+            entry.weight += borrowCounts.getOrDefault(book.getId(), 0L);
+        }
+        registered.add(entry);
+
+        if (maintainTops) {
+            promote(entry.node, entry);
+        }
+    }
+
+    private void unregister(String bookId) {
+        List<Entry> registered = bookEntries.remove(bookId);
+        if (registered == null) {
+            return;
+        }
+
+        long count = borrowCounts.getOrDefault(bookId, 0L);
+        for (Entry entry : registered) {
+            if (!entry.bookIds.remove(bookId)) {
+                continue;
+            }
+            entry.weight -= count;
+
+            Node node = entry.node;
+            if (entry.bookIds.isEmpty()) {
+                entries.remove(entry.type + '\u0000' + entry.key);
+                node.entries.remove(entry);
+                node = prune(node);
+            }
+            recompute(node);
+        }
+    }
+
+    private boolean sameKeys(List<Entry> current, Book book) {
+        Set<String> oldKeys = new HashSet<>();
+        for (Entry entry : current) {
+            oldKeys.add(entry.type + '\u0000' + entry.key);
+        }
+        Set<String> newKeys = new HashSet<>();
+        String title = normalize(book.getTitle());
+        String author = normalize(book.getAuthor());
+        if (!title.isEmpty()) {
+            newKeys.add(Suggestion.TYPE_TITLE + '\u0000' + title);
+        }
+        if (!author.isEmpty()) {
+            newKeys.add(Suggestion.TYPE_AUTHOR + '\u0000' + author);
+        }
+        return oldKeys.equals(newKeys);
+    }
+
+    /**
+     * 插入键并返回对应节点，必要时拆分边
+     */
+    private Node insert(String key) {
+        Node node = root;
+        int i = 0;
+        while (i < key.length()) {
+            char c = key.charAt(i);
+            Node child = node.children.get(c);
+            if (child == null) {
+                child = new Node(key.substring(i), node);
+                node.children.put(c, child);
+                return child;
+            }
+
+            int common = commonPrefix(child.label, key, i);
+            if (common < child.label.length()) {
+                Node middle = new Node(child.label.substring(0, common), node);
+                middle.top = child.top;
+                node.children.put(c, middle);
+                child.label = child.label.substring(common);
+                child.parent = middle;
+                middle.children.put(child.label.charAt(0), child);
+                child = middle;
+            }
+            i += common;
+            node = child;
+        }
+        return node;
+    }
+
+    /**
+     * 查找前缀对应的节点，前缀可以停在边的中间
+     */
+    private Node find(String prefix) {
+        Node node = root;
+        int i = 0;
+        while (i < prefix.length()) {
+            Node child = node.children.get(prefix.charAt(i));
+            if (child == null) {
+                return null;
+            }
+            int common = commonPrefix(child.label, prefix, i);
+            if (i + common == prefix.length()) {
+                return child;
+            }
+            if (common < child.label.length()) {
+                return null;
+            }
+            i += common;
+            node = child;
+        }
+        return node;
+    }
+
+    /**
+     * 删除没有条目也没有子节点的节点，返回需要重新计算的最深节点
+     */
+    private Node prune(Node node) {
+        while (node != root && node.entries.isEmpty() && node.children.isEmpty()) {
+            Node parent = node.parent;
+            parent.children.remove(node.label.charAt(0));
+            node = parent;
+        }
+        return node;
+    }
+
+    /**
+     * 权重上升时沿路径向上调整；某一层未进入前K名时更上层也不会进入
+     */
+    private void promote(Node node, Entry entry) {
+        for (Node n = node; n != null; n = n.parent) {
+            int pos = indexOf(n.top, entry);
+            if (pos >= 0) {
+                Arrays.sort(n.top, ORDER);
+                continue;
+            }
+            if (n.top.length < MAX_SUGGESTIONS) {
+                Entry[] top = Arrays.copyOf(n.top, n.top.length + 1);
+                top[top.length - 1] = entry;
+                Arrays.sort(top, ORDER);
+                n.top = top;
+            } else if (ORDER.compare(entry, n.top[n.top.length - 1]) < 0) {
+                n.top[n.top.length - 1] = entry;
+                Arrays.sort(n.top, ORDER);
+            } else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 权重下降或条目删除时，从该节点到根重新计算前K名
+     */
+    private void recompute(Node node) {
+        for (Node n = node; n != null; n = n.parent) {
+            n.top = selectTop(n);
+        }
+    }
+
+    private void computeTops(Node node) {
+        for (Node child : node.children.values()) {
+            computeTops(child);
+        }
+        node.top = selectTop(node);
+    }
+
+    private Entry[] selectTop(Node node) {
+        List<Entry> candidates = new ArrayList<>(node.entries);
+        for (Node child : node.children.values()) {
+            candidates.addAll(Arrays.asList(child.top));
+        }
+        if (candidates.isEmpty()) {
+            return EMPTY;
+        }
+        candidates.sort(ORDER);
+        int size = Math.min(MAX_SUGGESTIONS, candidates.size());
+        return candidates.subList(0, size).toArray(new Entry[size]);
+    }
+
+    private static int indexOf(Entry[] top, Entry entry) {
+        for (int i = 0; i < top.length; i++) {
+            if (top[i] == entry) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int commonPrefix(String label, String key, int offset) {
+        int max = Math.min(label.length(), key.length() - offset);
+        int i = 0;
+        while (i < max && label.charAt(i) == key.charAt(offset + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static final class Node {
+        private String label;
+        private Node parent;
+        private final TreeMap<Character, Node> children = new TreeMap<>();
+        private final List<Entry> entries = new ArrayList<>(1);
+        private Entry[] top = EMPTY;
+
+        private Node(String label, Node parent) {
+            this.label = label;
+            this.parent = parent;
+        }
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final String text;
+        private final String type;
+        private final Set<String> bookIds = new HashSet<>(2);
+        private long weight;
+        private Node node;
+
+        private Entry(String key, String text, String type) {
+            this.key = key;
+            this.text = text;
+            this.type = type;
+        }
+    }
+}
@@ -1,14 +1,54 @@
 package com.library.librarysystem.service;
 
+import com.library.librarysystem.cache.EntityCache;
+import com.library.librarysystem.cache.EntityCaches;
+import com.library.librarysystem.cache.SearchResultCache;
 import com.library.librarysystem.entity.Book;
+import com.library.librarysystem.entity.BookCopy;
+import com.library.librarysystem.repository.BookBorrowCount;
 import com.library.librarysystem.repository.BookRepository;
+import com.library.librarysystem.repository.BorrowRecordRepository;
+import com.library.librarysystem.search.BookCursor;
+import com.library.librarysystem.search.BookSearchIndex;
+import com.library.librarysystem.search.CursorPage;
+import com.library.librarysystem.search.FacetCount;
+import com.library.librarysystem.search.FacetFilter;
+import com.library.librarysystem.search.FacetedPage;
+import com.library.librarysystem.search.SearchPage;
+import com.library.librarysystem.search.Suggestion;
+import com.library.librarysystem.search.SuggestionIndex;
+import com.mongodb.client.model.CountOptions;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 @Service
 public class BookService {
@@ -16,39 +56,151 @@ public class BookService {
     @Autowired
     private BookRepository bookRepository;
     
+    @Autowired
+    private BorrowRecordRepository borrowRecordRepository;
+    
+    @Autowired
+    private BookSearchIndex bookSearchIndex;
+    
+    @Autowired
+    private SuggestionIndex suggestionIndex;
+    
+    @Autowired
+    private SearchResultCache searchResultCache;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private EntityCaches entityCaches;
+    
+    @Autowired
+    private StockAdmissionGate stockAdmissionGate;
+    
+    @Autowired
+    private CirculationEventLog circulationEventLog;
+    
+    @Autowired
+    private CopyIndex copyIndex;
+    
+    @Autowired
+    private TrendingService trendingService;
+    
+    @Value("${library.search.index.enabled:true}")
+    private boolean searchIndexEnabled;
+    
+    @Value("${library.search.count-cap:1000}")
+    private int countCap;
+    
     /**
      * 添加图书
      */
     public Book addBook(Book book) {
-        return bookRepository.save(book);
+        Book savedBook = bookRepository.save(book);
+        evictBook(null, savedBook);
+        circulationEventLog.stockChanged(savedBook);
+        bookSearchIndex.index(savedBook);
+        suggestionIndex.index(savedBook);
+        invalidateSearchResults(null, savedBook);
+        return savedBook;
     }
     
     /**
      * 更新图书信息
+     * 只覆盖书目字段；总数量变化时可借数量按差值原子增减，不会覆盖期间发生的借还。
+     * 以读取时的总数量作为条件，期间总数量被他人修改则重新读取后再试
      */
     public Book updateBook(Book book) {
-        return bookRepository.save(book);
+        Book previous = book.getId() != null ? bookRepository.findById(book.getId()).orElse(null) : null;
+        if (previous == null) {
+            Book savedBook = bookRepository.save(book);
+            evictBook(null, savedBook);
+            circulationEventLog.stockChanged(savedBook);
+            bookSearchIndex.index(savedBook);
+            suggestionIndex.index(savedBook);
+            invalidateSearchResults(null, savedBook);
+            return savedBook;
+        }
+        
+        Book savedBook = null;
+        Book original = previous;
+        for (int attempt = 0; attempt < 3 && savedBook == null; attempt++) {
+            int oldTotal = previous.getTotalCopies() != null ? previous.getTotalCopies() : 0;
+            int newTotal = book.getTotalCopies() != null ? book.getTotalCopies() : oldTotal;
+            int delta = newTotal - oldTotal;
+            if (previous.getCopyCount() != null && newTotal < previous.getCopyCount()) {
+                throw new RuntimeException("总数量不能少于已登记条码的副本数（" + previous.getCopyCount() + "）");
+            }
+            
+            Criteria criteria = Criteria.where("id").is(book.getId()).and("totalCopies").is(previous.getTotalCopies());
+            if (delta < 0) {
+                // 减少总数量时在借的副本不能被减掉
+                criteria.and("availableCopies").gte(-delta);
+            }
+            Update update = new Update()
+                    .set("title", book.getTitle())
+                    .set("author", book.getAuthor())
+                    .set("isbn", book.getIsbn())
+                    .set("publisher", book.getPublisher())
+                    .set("totalCopies", newTotal)
+                    .set("updateTime", LocalDateTime.now())
+                    .inc("availableCopies", delta)
+                    .inc("stockVersion", 1L);
+            savedBook = mongoTemplate.findAndModify(new Query(criteria), update,
+                    FindAndModifyOptions.options().returnNew(true), Book.class);
+            
+            if (savedBook == null) {
+                previous = bookRepository.findById(book.getId())
+                        .orElseThrow(() -> new RuntimeException("图书不存在"));
+                if (delta < 0 && Objects.equals(previous.getTotalCopies(), original.getTotalCopies())
+                        && previous.getAvailableCopies() < -delta) {
+                    throw new RuntimeException("在借数量超过新的总数量，无法减少总数量");
+                }
+            }
+        }
+        if (savedBook == null) {
+            throw new RuntimeException("图书信息已被修改，请重试");
+        }
+        
+        evictBook(original, savedBook);
+        circulationEventLog.stockChanged(savedBook);
+        if (savedBook.getAvailableCopies() != null && savedBook.getAvailableCopies() > 0) {
+            stockAdmissionGate.onStockAvailable(savedBook.getId());
+        }
+        bookSearchIndex.index(savedBook);
+        suggestionIndex.index(savedBook);
+        invalidateSearchResults(original, savedBook);
+        return savedBook;
     }
     
     /**
-     * 根据ID获取图书
+     * 根据ID获取图书（优先读近端缓存）
      */
     public Book getBookById(String id) {
-        return bookRepository.findById(id).orElse(null);
+        return entityCaches.books().get(id, () -> bookRepository.findById(id).orElse(null));
     }
     
     /**
-     * 根据ISBN获取图书
+     * 根据ISBN获取图书（优先读近端缓存）
      */
     public Book getBookByIsbn(String isbn) {
-        return bookRepository.findByIsbn(isbn);
+        return entityCaches.books().getByAlias(isbn, () -> bookRepository.findByIsbn(isbn));
     }
     
     /**
      * 删除图书
      */
     public void deleteBook(String id) {
+        Book previous = bookRepository.findById(id).orElse(null);
         bookRepository.deleteById(id);
+        mongoTemplate.remove(new Query(Criteria.where("bookId").is(id)), BookCopy.class);
+        copyIndex.removeBook(id);
+        evictBook(previous, null);
+        entityCaches.books().invalidate(id);
+        circulationEventLog.bookRemoved(id);
+        bookSearchIndex.remove(id);
+        suggestionIndex.remove(id);
+        invalidateSearchResults(previous, null);
     }
     
     /**
@@ -62,17 +214,246 @@ public class BookService {
      * 搜索图书（分页）
      */
     public Page<Book> searchBooks(String keyword, int page, int size) {
+        return searchBooks(keyword, page, size, true);
+    }
+    
+    /**
+     * 搜索图书（分页），exactTotal为false时返回估算总数，避免精确count
+     */
+    public Page<Book> searchBooks(String keyword, int page, int size, boolean exactTotal) {
+        return searchBooks(keyword, page, size, exactTotal, 0);
+    }
+    
+    /**
+     * 搜索图书（分页），fuzzy为允许的最大编辑距离（0~2），容忍书名、作者的拼写错误。
+     * 模糊检索依赖内存索引，索引不可用时按普通检索处理
+     */
+    public Page<Book> searchBooks(String keyword, int page, int size, boolean exactTotal, int fuzzy) {
+        // 只统计第一页，翻页不算新的搜索
+        if (page == 0) {
+            trendingService.recordSearch(keyword);
+        }
+        int maxEdits = Math.max(0, Math.min(fuzzy, 2));
+        if (maxEdits > 0 && searchIndexEnabled && bookSearchIndex.isReady()) {
+            // 模糊查询多为拼写纠错后的一次性查询，不进入结果缓存
+            return bookSearchIndex.search(keyword, maxEdits, PageRequest.of(page, size));
+        }
+        
+        Page<Book> cached = searchResultCache.get(keyword, page, size, exactTotal);
+        if (cached != null) {
+            return cached;
+        }
+        
+        long generation = searchResultCache.generation();
+        Page<Book> result = searchBooksUncached(keyword, page, size, exactTotal);
+        searchResultCache.put(keyword, page, size, exactTotal, result, generation);
+        return result;
+    }
+    
+    private Page<Book> searchBooksUncached(String keyword, int page, int size, boolean exactTotal) {
+        Pageable pageable = PageRequest.of(page, size);
+        
+        // 内存索引就绪时直接检索，不访问数据库
+        if (searchIndexEnabled && bookSearchIndex.isReady()) {
+            return bookSearchIndex.search(keyword, pageable);
+        }
+        
+        boolean noKeyword = keyword == null || keyword.trim().isEmpty();
+        if (exactTotal) {
+            // 数据库端分页，只解码当前页
+            if (noKeyword) {
+                return bookRepository.findAll(pageable);
+            }
+            return bookRepository.searchByKeyword(keyword, pageable);
+        }
+        
+        Query query = noKeyword ? new Query() : keywordQuery(keyword);
+        List<Book> books = mongoTemplate.find(Query.of(query).with(pageable), Book.class);
+        
+        if (noKeyword) {
+            // 无条件时使用集合元数据中的文档数
+            long estimated = mongoTemplate.estimatedCount(Book.class);
+            return new SearchPage<>(books, pageable, estimated, true);
+        }
+        
+        // 有条件时最多数到countCap条，超过后只保证能翻到下一页
+        long capped = mongoTemplate.count(Query.of(query).limit(countCap), Book.class);
+        if (capped < countCap) {
+            return new SearchPage<>(books, pageable, capped, false);
+        }
+        long seen = pageable.getOffset() + books.size() + (books.size() == size ? 1 : 0);
+        return new SearchPage<>(books, pageable, Math.max(capped, seen), true);
+    }
+    
+    /**
+     * 分面检索：返回结果页以及作者、出版社、借阅状态、上架时间的分面计数。
+     * 内存索引就绪时一次遍历命中集合完成；否则使用一条$facet聚合，由数据库一次完成分页和全部计数
+     */
+    public FacetedPage<Book> searchBooksFaceted(String keyword, FacetFilter filter, int page, int size, int fuzzy) {
+        if (page == 0) {
+            trendingService.recordSearch(keyword);
+        }
         Pageable pageable = PageRequest.of(page, size);
+        if (searchIndexEnabled && bookSearchIndex.isReady()) {
+            return bookSearchIndex.searchFaceted(keyword, Math.max(0, Math.min(fuzzy, 2)), filter, pageable);
+        }
+        return searchFacetedInDatabase(keyword, filter, pageable);
+    }
+    
+    private FacetedPage<Book> searchFacetedInDatabase(String keyword, FacetFilter filter, Pageable pageable) {
+        LocalDateTime now = LocalDateTime.now();
+        boolean noKeyword = keyword == null || keyword.trim().isEmpty();
+        Document keywordMatch = noKeyword ? new Document() : keywordCriteria(keyword).getCriteriaObject();
+        
+        // 每个分面只应用其他分面的筛选条件
+        Document facets = new Document();
+        facets.put("results", List.of(
+                match(facetCriteria(filter, null, now)),
+                new Document("$skip", pageable.getOffset()),
+                new Document("$limit", pageable.getPageSize())));
+        facets.put("total", List.of(
+                match(facetCriteria(filter, null, now)),
+                new Document("$count", "count")));
+        facets.put(FacetFilter.AUTHOR, valueFacet(filter, FacetFilter.AUTHOR, now));
+        facets.put(FacetFilter.PUBLISHER, valueFacet(filter, FacetFilter.PUBLISHER, now));
+        facets.put(FacetFilter.AVAILABILITY, List.of(
+                match(facetCriteria(filter, FacetFilter.AVAILABILITY, now)),
+                new Document("$group", new Document("_id", 
+                        new Document("$gt", List.of("$availableCopies", 0)))
+                        .append("count", new Document("$sum", 1)))));
+        Document arrivalGroup = new Document("_id", null);
+        for (int days : FacetFilter.ARRIVAL_DAYS) {
+            arrivalGroup.append(FacetFilter.arrivalKey(days), new Document("$sum", new Document("$cond", List.of(
+                    new Document("$gte", List.of("$createTime", toDate(now.minusDays(days)))), 1, 0))));
+        }
+        facets.put(FacetFilter.ARRIVAL, List.of(
+                match(facetCriteria(filter, FacetFilter.ARRIVAL, now)),
+                new Document("$group", arrivalGroup)));
+        
+        Aggregation aggregation = Aggregation.newAggregation(
+                context -> new Document("$match", keywordMatch),
+                context -> new Document("$facet", facets));
+        Document result = mongoTemplate.aggregate(aggregation, "books", Document.class).getUniqueMappedResult();
+        
+        List<Book> books = new ArrayList<>();
+        for (Document doc : result.getList("results", Document.class)) {
+            books.add(mongoTemplate.getConverter().read(Book.class, doc));
+        }
+        List<Document> totals = result.getList("total", Document.class);
+        long total = totals.isEmpty() ? 0 : ((Number) totals.get(0).get("count")).longValue();
+        
+        Map<String, List<FacetCount>> counts = new LinkedHashMap<>();
+        counts.put(FacetFilter.AUTHOR, valueCounts(result.getList(FacetFilter.AUTHOR, Document.class)));
+        counts.put(FacetFilter.PUBLISHER, valueCounts(result.getList(FacetFilter.PUBLISHER, Document.class)));
+        
+        long available = 0;
+        long unavailable = 0;
+        for (Document doc : result.getList(FacetFilter.AVAILABILITY, Document.class)) {
+            long count = ((Number) doc.get("count")).longValue();
+            if (Boolean.TRUE.equals(doc.get("_id"))) {
+                available += count;
+            } else {
+                unavailable += count;
+            }
+        }
+        counts.put(FacetFilter.AVAILABILITY, List.of(
+                new FacetCount(FacetFilter.AVAILABLE, available),
+                new FacetCount(FacetFilter.UNAVAILABLE, unavailable)));
+        
+        List<Document> arrivalDocs = result.getList(FacetFilter.ARRIVAL, Document.class);
+        List<FacetCount> arrivals = new ArrayList<>();
+        for (int days : FacetFilter.ARRIVAL_DAYS) {
+            String key = FacetFilter.arrivalKey(days);
+            Number count = arrivalDocs.isEmpty() ? null : (Number) arrivalDocs.get(0).get(key);
+            arrivals.add(new FacetCount(key, count == null ? 0 : count.longValue()));
+        }
+        counts.put(FacetFilter.ARRIVAL, arrivals);
+        
+        return new FacetedPage<>(books, pageable, total, counts);
+    }
+    
+    /**
+     * 作者/出版社分面：按取值分组计数，取数量最多的若干项
+     */
+    private List<Document> valueFacet(FacetFilter filter, String field, LocalDateTime now) {
+        return List.of(
+                match(facetCriteria(filter, field, now)),
+                new Document("$match", new Document(field, new Document("$nin", Arrays.asList(null, "")))),
+                new Document("$group", new Document("_id", "$" + field).append("count", new Document("$sum", 1))),
+                new Document("$sort", new Document("count", -1).append("_id", 1)),
+                new Document("$limit", FacetFilter.MAX_VALUES));
+    }
+    
+    private static List<FacetCount> valueCounts(List<Document> docs) {
+        List<FacetCount> counts = new ArrayList<>(docs.size());
+        for (Document doc : docs) {
+            counts.add(new FacetCount(String.valueOf(doc.get("_id")), ((Number) doc.get("count")).longValue()));
+        }
+        return counts;
+    }
+    
+    /**
+     * 分面筛选条件，excluded指定的分面不参与筛选
+     */
+    private Document facetCriteria(FacetFilter filter, String excluded, LocalDateTime now) {
+        List<Criteria> criteria = new ArrayList<>();
+        if (filter.getAuthor() != null && !FacetFilter.AUTHOR.equals(excluded)) {
+            criteria.add(Criteria.where("author").is(filter.getAuthor()));
+        }
+        if (filter.getPublisher() != null && !FacetFilter.PUBLISHER.equals(excluded)) {
+            criteria.add(Criteria.where("publisher").is(filter.getPublisher()));
+        }
+        if (filter.getAvailability() != null && !FacetFilter.AVAILABILITY.equals(excluded)) {
+            criteria.add(FacetFilter.AVAILABLE.equals(filter.getAvailability())
+                    ? Criteria.where("availableCopies").gt(0)
+                    : Criteria.where("availableCopies").not().gt(0));
+        }
+        if (filter.getArrival() != null && !FacetFilter.ARRIVAL.equals(excluded)) {
+            LocalDateTime since = now.minusDays(FacetFilter.arrivalDays(filter.getArrival()));
+            criteria.add(Criteria.where("createTime").gte(toDate(since)));
+        }
+        if (criteria.isEmpty()) {
+            return new Document();
+        }
+        return new Criteria().andOperator(criteria).getCriteriaObject();
+    }
+    
+    private static Document match(Document criteria) {
+        return new Document("$match", criteria);
+    }
+    
+    private static Date toDate(LocalDateTime time) {
+        return Date.from(time.atZone(ZoneId.systemDefault()).toInstant());
+    }
+    
+    /**
+     * 游标分页浏览图书，按(title, _id)升序定位，深度翻页开销不随页数增长
+     */
+    public CursorPage<Book> scrollBooks(String keyword, String cursor, int size) {
+        boolean noKeyword = keyword == null || keyword.trim().isEmpty();
+        boolean hasCursor = cursor != null && !cursor.isEmpty();
         
-        if (keyword == null || keyword.trim().isEmpty()) {
-            // 如果没有关键词，返回所有图书
-            List<Book> allBooks = bookRepository.findAll();
-            return getPageFromList(allBooks, pageable);
-        } else {
-            // 使用自定义查询搜索
-            List<Book> books = bookRepository.searchByKeyword(keyword);
-            return getPageFromList(books, pageable);
+        Query query = new Query();
+        if (!noKeyword && hasCursor) {
+            query.addCriteria(new Criteria().andOperator(
+                    keywordCriteria(keyword), afterCursor(BookCursor.decode(cursor))));
+        } else if (!noKeyword) {
+            query.addCriteria(keywordCriteria(keyword));
+        } else if (hasCursor) {
+            query.addCriteria(afterCursor(BookCursor.decode(cursor)));
         }
+        query.with(Sort.by(Sort.Order.asc("title"), Sort.Order.asc("id")));
+        // 多取一条用于判断是否还有下一页
+        query.limit(size + 1);
+        
+        List<Book> books = mongoTemplate.find(query, Book.class);
+        if (books.size() <= size) {
+            return new CursorPage<>(books, null);
+        }
+        
+        List<Book> content = books.subList(0, size);
+        Book last = content.get(size - 1);
+        return new CursorPage<>(content, new BookCursor(last.getTitle(), last.getId()).encode());
     }
     
     /**
@@ -82,6 +463,16 @@ public class BookService {
         return bookRepository.findAvailableBooks();
     }
     
+    /**
+     * 统计图书数（只计数，不加载图书），availableOnly为true时只统计可借阅（库存大于0）的图书。
+     * maxTimeMillis为数据库端的最长执行时间，超过时数据库终止查询并抛出异常
+     */
+    public long countBooks(boolean availableOnly, long maxTimeMillis) {
+        Query query = availableOnly ? new Query(Criteria.where("availableCopies").gt(0)) : new Query();
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(Book.class))
+                .countDocuments(query.getQueryObject(), new CountOptions().maxTime(maxTimeMillis, TimeUnit.MILLISECONDS));
+    }
+    
     /**
      * 根据标题搜索
      */
@@ -100,43 +491,279 @@ public class BookService {
      * 减少图书库存
      */
     public boolean decreaseStock(String bookId, int quantity) {
-        Book book = getBookById(bookId);
-        if (book != null && book.getAvailableCopies() >= quantity) {
-            book.setAvailableCopies(book.getAvailableCopies() - quantity);
-            bookRepository.save(book);
-            return true;
-        }
-        return false;
+        return reserveCopies(bookId, quantity) != null;
     }
     
     /**
-     * 增加图书库存
+     * 增加图书库存（不超过总数量）
      */
     public boolean increaseStock(String bookId, int quantity) {
-        Book book = getBookById(bookId);
-        if (book != null) {
-            book.setAvailableCopies(book.getAvailableCopies() + quantity);
-            // 确保不超过总数量
-            if (book.getAvailableCopies() > book.getTotalCopies()) {
-                book.setAvailableCopies(book.getTotalCopies());
-            }
-            bookRepository.save(book);
-            return true;
+        return releaseCopies(bookId, quantity) != null;
+    }
+    
+    /**
+     * 原子地扣减可借数量：一条findAndModify，以可借数量足够为条件执行$inc，
+     * 并发借阅同一本书时不会超借。返回扣减后的图书，库存不足或图书不存在时返回null
+     */
+    public Book reserveCopies(String bookId, int quantity) {
+        Query query = new Query(Criteria.where("id").is(bookId).and("availableCopies").gte(quantity));
+        Update update = new Update().inc("availableCopies", -quantity).inc("stockVersion", 1L)
+                .set("updateTime", LocalDateTime.now());
+        Book updated = mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), Book.class);
+        if (updated != null) {
+            onStockChanged(updated);
+        }
+        return updated;
+    }
+    
+    /**
+     * 借阅准入：同一本书的并发借阅合并为一次条件扣减，已知售罄时直接失败
+     */
+    public boolean admitBorrow(String bookId) {
+        return stockAdmissionGate.admit(bookId, quantity -> reserveUpTo(bookId, quantity));
+    }
+    
+    /**
+     * 异步借阅准入，一次借多本时各书的扣减并行进行
+     */
+    public CompletableFuture<Boolean> admitBorrowAsync(String bookId) {
+        return stockAdmissionGate.admitAsync(bookId, quantity -> reserveUpTo(bookId, quantity));
+    }
+    
+    /**
+     * 该书是否已知售罄（只查内存中的标记，不访问数据库）
+     */
+    public boolean isSoldOut(String bookId) {
+        return stockAdmissionGate.isExhausted(bookId);
+    }
+    
+    /**
+     * 原子地扣减至多quantity本：可借数量减去quantity后不低于0，返回实际扣减的数量
+     */
+    private int reserveUpTo(String bookId, int quantity) {
+        Query query = new Query(Criteria.where("id").is(bookId).and("availableCopies").gt(0));
+        Document available = new Document("$max", List.of(
+                new Document("$subtract", List.of("$availableCopies", quantity)), 0));
+        AggregationUpdate update = stockUpdate(available);
+        // 返回更新前的文档，据此算出实际扣减数量
+        Book before = mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(false), Book.class);
+        if (before == null) {
+            return 0;
+        }
+        int granted = Math.min(quantity, before.getAvailableCopies());
+        before.setAvailableCopies(before.getAvailableCopies() - granted);
+        before.setStockVersion(nextVersion(before.getStockVersion()));
+        onStockChanged(before);
+        return granted;
+    }
+    
+    /**
+     * 原子地归还可借数量，结果不超过总数量（聚合管道更新中取$min）。
+     * 返回更新后的图书，图书不存在时返回null
+     */
+    public Book releaseCopies(String bookId, int quantity) {
+        Document available = new Document("$min", List.of(
+                new Document("$add", List.of("$availableCopies", quantity)), "$totalCopies"));
+        AggregationUpdate update = stockUpdate(available);
+        Book updated = mongoTemplate.findAndModify(new Query(Criteria.where("id").is(bookId)), update,
+                FindAndModifyOptions.options().returnNew(true), Book.class);
+        if (updated != null) {
+            onStockChanged(updated);
         }
-        return false;
+        return updated;
     }
     
     /**
-     * 从List创建Page对象
+     * 批量归还库存：每本书一条更新（不超过总数量），通过一次无序批量写入执行，
+     * 再一次查询取回更新后的图书同步缓存和索引
      */
-    private Page<Book> getPageFromList(List<Book> books, Pageable pageable) {
-        int start = (int) pageable.getOffset();
-        int end = Math.min((start + pageable.getPageSize()), books.size());
+    public void releaseCopies(Map<String, Integer> quantities) {
+        if (quantities.isEmpty()) {
+            return;
+        }
         
-        if (start > books.size()) {
-            return Page.empty(pageable);
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Book.class);
+        for (Map.Entry<String, Integer> entry : quantities.entrySet()) {
+            Document available = new Document("$min", List.of(
+                    new Document("$add", List.of("$availableCopies", entry.getValue())), "$totalCopies"));
+            bulk.updateOne(new Query(Criteria.where("id").is(entry.getKey())), stockUpdate(available));
         }
+        bulk.execute();
         
-        return new PageImpl<>(books.subList(start, end), pageable, books.size());
+        List<Book> updated = mongoTemplate.find(
+                new Query(Criteria.where("id").in(quantities.keySet())), Book.class);
+        for (Book book : updated) {
+            onStockChanged(book);
+        }
+    }
+    
+    /**
+     * 设置可借数量并把库存版本号加一的管道更新
+     */
+    private static AggregationUpdate stockUpdate(Document available) {
+        Document version = new Document("$add", List.of(new Document("$ifNull", List.of("$stockVersion", 0L)), 1L));
+        return AggregationUpdate.from(List.of(context -> new Document("$set", new Document("availableCopies", available)
+                .append("stockVersion", version)
+                .append("updateTime", toDate(LocalDateTime.now())))));
+    }
+    
+    private static long nextVersion(Long version) {
+        return (version != null ? version : 0L) + 1;
+    }
+    
+    /**
+     * 按ID批量获取图书（一次查询）
+     */
+    public Map<String, Book> getBooksByIds(Collection<String> ids) {
+        Map<String, Book> books = new HashMap<>();
+        for (Book book : bookRepository.findAllById(ids)) {
+            books.put(book.getId(), book);
+        }
+        return books;
+    }
+    
+    /**
+     * 图书库存在其他服务中变更后，同步内存索引中的快照并记录库存事件
+     */
+    public void onStockChanged(Book book) {
+        entityCaches.books().invalidate(book.getId());
+        circulationEventLog.stockChanged(book);
+        copyIndex.updateShelf(book.getId(), book.getCopyWords());
+        if (book.getAvailableCopies() != null && book.getAvailableCopies() > 0) {
+            stockAdmissionGate.onStockAvailable(book.getId());
+        }
+        bookSearchIndex.index(book);
+        searchResultCache.invalidateBook(book.getId());
+    }
+    
+    /**
+     * 检索结果缓存统计
+     */
+    public Map<String, Object> getSearchCacheStats() {
+        return searchResultCache.stats();
+    }
+    
+    /**
+     * 借阅准入统计
+     */
+    public Map<String, Object> getAdmissionStats() {
+        return stockAdmissionGate.stats();
+    }
+    
+    /**
+     * 实体近端缓存统计
+     */
+    public Map<String, Object> getEntityCacheStats() {
+        return entityCaches.stats();
+    }
+    
+    /**
+     * 记录一次借阅，用于搜索联想的排序权重
+     */
+    public void onBorrowed(String bookId) {
+        suggestionIndex.recordBorrow(bookId);
+    }
+    
+    /**
+     * 书名/作者前缀联想
+     */
+    public List<Suggestion> suggest(String prefix, int limit) {
+        return suggestionIndex.suggest(prefix, Math.min(limit, SuggestionIndex.MAX_SUGGESTIONS));
+    }
+    
+    /**
+     * 从数据库加载全部图书并重建内存索引和联想索引
+     */
+    public void rebuildSearchIndex() {
+        List<Book> books = bookRepository.findAll();
+        
+        if (searchIndexEnabled) {
+            bookSearchIndex.rebuild(books);
+        }
+        
+        Map<String, Long> borrowCounts = new HashMap<>();
+        for (BookBorrowCount count : borrowRecordRepository.countBorrowsByBook()) {
+            borrowCounts.put(count.getId(), count.getCount());
+        }
+        suggestionIndex.rebuild(books, borrowCounts);
+    }
+    
+    /**
+     * 图书增删改后，失效近端缓存中该书按ID和新旧ISBN的条目
+     */
+    private void evictBook(Book previous, Book current) {
+        EntityCache<Book> books = entityCaches.books();
+        if (previous != null) {
+            books.invalidate(previous.getId());
+            books.invalidateAlias(previous.getIsbn());
+        }
+        if (current != null) {
+            books.invalidate(current.getId());
+            books.invalidateAlias(current.getIsbn());
+        }
+    }
+    
+    /**
+     * 图书增删改后，失效新旧版本可能命中的关键词下的全部结果页
+     */
+    private void invalidateSearchResults(Book previous, Book current) {
+        searchResultCache.invalidateKeywords(keyword -> 
+                mayMatch(keyword, previous) || mayMatch(keyword, current));
+        if (previous != null) {
+            searchResultCache.invalidateBook(previous.getId());
+        }
+    }
+    
+    /**
+     * 关键词是否可能命中该图书（同时考虑内存索引和数据库正则两种检索方式）
+     */
+    private boolean mayMatch(String keyword, Book book) {
+        if (book == null) {
+            return false;
+        }
+        if (keyword.isEmpty() || bookSearchIndex.matches(keyword, book)) {
+            return true;
+        }
+        try {
+            Pattern pattern = Pattern.compile(keyword, Pattern.CASE_INSENSITIVE);
+            return (book.getTitle() != null && pattern.matcher(book.getTitle()).find())
+                    || (book.getAuthor() != null && pattern.matcher(book.getAuthor()).find());
+        } catch (PatternSyntaxException e) {
+            return true;
+        }
+    }
+    
+    /**
+     * 排在游标之后的记录：title更大，或title相同且_id更大
+     * 缺少标题的记录按null排在最前
+     */
+    private Criteria afterCursor(BookCursor cursor) {
+        if (cursor.getTitle() == null) {
+            return new Criteria().orOperator(
+                    Criteria.where("title").ne(null),
+                    new Criteria().andOperator(
+                            Criteria.where("title").is(null),
+                            Criteria.where("id").gt(cursor.getId())));
+        }
+        return new Criteria().orOperator(
+                Criteria.where("title").gt(cursor.getTitle()),
+                new Criteria().andOperator(
+                        Criteria.where("title").is(cursor.getTitle()),
+                        Criteria.where("id").gt(cursor.getId())));
+    }
+    
+    /**
+     * 标题或作者模糊匹配的查询条件，与searchByKeyword一致
+     */
+    private Query keywordQuery(String keyword) {
+        return new Query(keywordCriteria(keyword));
+    }
+    
+    private Criteria keywordCriteria(String keyword) {
+        return new Criteria().orOperator(
+                Criteria.where("title").regex(keyword, "i"),
+                Criteria.where("author").regex(keyword, "i"));
     }
 }
\ No newline at end of file
@@ -2,63 +2,101 @@ package com.library.librarysystem.service;
 
 import com.library.librarysystem.entity.Book;
 import com.library.librarysystem.entity.BorrowRecord;
+import com.library.librarysystem.entity.Hold;
 import com.library.librarysystem.entity.User;
-import com.library.librarysystem.repository.BookRepository;
 import com.library.librarysystem.repository.BorrowRecordRepository;
-import com.library.librarysystem.repository.UserRepository;
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Service
 public class BorrowService {
     
+    // 批量借阅/归还单次最多处理的条数
+    public static final int MAX_BATCH_ITEMS = 50;
+    
+    // 未归还的借阅状态（逾期的仍可归还、续借，也占用借阅名额）
+    public static final List<String> ACTIVE_STATUSES = List.of("BORROWED", "OVERDUE");
+    
     @Autowired
     private BorrowRecordRepository borrowRecordRepository;
     
     @Autowired
-    private BookRepository bookRepository;
+    private BookService bookService;
+    
+    @Autowired
+    private UserService userService;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private HoldService holdService;
+    
+    @Autowired
+    private CirculationEventLog circulationEventLog;
+    
+    @Autowired
+    private CopyService copyService;
+    
+    @Autowired
+    private CirculationStatsService circulationStatsService;
     
     @Autowired
-    private UserRepository userRepository;
+    private CirculationRollupService circulationRollupService;
+    
+    @Autowired
+    private TrendingService trendingService;
     
     /**
      * 借阅图书
      */
-    @Transactional
     public BorrowRecord borrowBook(String userId, String bookId) {
-        // 获取用户
-        User user = userRepository.findById(userId)
-            .orElseThrow(() -> new RuntimeException("用户不存在"));
-        
-        // 获取图书
-        Book book = bookRepository.findById(bookId)
-            .orElseThrow(() -> new RuntimeException("图书不存在"));
-        
-        // 检查库存
-        if (book.getAvailableCopies() <= 0) {
+        // 已知售罄的图书直接拒绝，不访问数据库
+        if (bookService.isSoldOut(bookId)) {
             throw new RuntimeException("图书库存不足");
         }
         
-        // 检查用户借阅数量
-        List<BorrowRecord> currentBorrows = borrowRecordRepository
-            .findByUserIdAndStatus(userId, "BORROWED");
-        if (currentBorrows.size() >= user.getMaxBorrow()) {
-            throw new RuntimeException("借阅数量已达上限");
+        // 获取用户
+        User user = userService.getUserById(userId);
+        if (user == null) {
+            throw new RuntimeException("用户不存在");
         }
         
-        // 检查是否已借阅同一本书
-        boolean alreadyBorrowed = currentBorrows.stream()
-            .anyMatch(record -> record.getBookId().equals(bookId));
-        if (alreadyBorrowed) {
-            throw new RuntimeException("您已借阅此书");
+        // 获取图书
+        Book book = bookService.getBookById(bookId);
+        if (book == null) {
+            throw new RuntimeException("图书不存在");
         }
         
+        // 检查借阅数量上限和是否已借阅同一本书：一次条件更新占用借阅名额
+        userService.reserveLoan(userId, bookId);
+        
         // 创建借阅记录
         BorrowRecord record = new BorrowRecord();
         record.setUserId(userId);
@@ -69,55 +107,478 @@ public class BorrowService {
         record.setDueDate(LocalDateTime.now().plusDays(30)); // 30天后应还
         record.setStatus("BORROWED");
         
-        // 减少图书库存
-        book.setAvailableCopies(book.getAvailableCopies() - 1);
-        bookRepository.save(book);
+        // 原子扣减库存：同一本书的并发请求合并为一次条件扣减，不会超借
+        boolean admitted;
+        try {
+            admitted = bookService.admitBorrow(bookId);
+        } catch (RuntimeException e) {
+            userService.releaseLoan(userId, bookId);
+            throw e;
+        }
+        if (!admitted) {
+            userService.releaseLoan(userId, bookId);
+            throw new RuntimeException("图书库存不足");
+        }
         
-        return borrowRecordRepository.save(record);
+        BorrowRecord savedRecord;
+        try {
+            savedRecord = borrowRecordRepository.save(record);
+        } catch (RuntimeException e) {
+            // 没有事务，记录写入失败时补偿归还库存和借阅名额
+            holdService.releaseCopies(bookId, 1);
+            userService.releaseLoan(userId, bookId);
+            throw e;
+        }
+        circulationEventLog.borrowed(savedRecord);
+        circulationStatsService.borrowed(1);
+        circulationRollupService.borrowed(List.of(savedRecord));
+        bookService.onBorrowed(bookId);
+        trendingService.recordBorrow(bookId, book.getTitle());
+        return savedRecord;
     }
     
     /**
      * 归还图书
+     * 以状态为借阅中或逾期为条件原子地改为RETURNED，重复提交的归还只有一次成功，库存不会被多加
      */
-    @Transactional
     public BorrowRecord returnBook(String borrowRecordId) {
-        BorrowRecord record = borrowRecordRepository.findById(borrowRecordId)
-            .orElseThrow(() -> new RuntimeException("借阅记录不存在"));
+        Query query = new Query(Criteria.where("id").is(borrowRecordId).and("status").in(ACTIVE_STATUSES));
+        BorrowRecord record = markReturned(query);
         
-        if (!"BORROWED".equals(record.getStatus())) {
+        if (record == null) {
+            if (!borrowRecordRepository.existsById(borrowRecordId)) {
+                throw new RuntimeException("借阅记录不存在");
+            }
             throw new RuntimeException("图书已归还或状态异常");
         }
         
-        // 更新借阅记录
-        record.setReturnDate(LocalDateTime.now());
+        // 有人预约时副本分配给排队的读者，否则增加图书库存（不超过总数量）
+        releaseStock(record);
+        userService.releaseLoan(record.getUserId(), record.getBookId());
+        circulationEventLog.returned(record);
+        
+        return record;
+    }
+    
+    /**
+     * 把一条未归还的借阅记录原子地改为RETURNED并累加借阅统计。
+     * 取回修改前的记录以区分归还的是否为逾期记录，返回前改为归还后的状态；没有符合条件的记录时返回null
+     */
+    private BorrowRecord markReturned(Query query) {
+        // 数据库中日期精度为毫秒
+        LocalDateTime returnDate = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        Update update = new Update().set("status", "RETURNED").set("returnDate", returnDate);
+        BorrowRecord record = mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(false), BorrowRecord.class);
+        if (record == null) {
+            return null;
+        }
+        circulationStatsService.returned(1, "OVERDUE".equals(record.getStatus()) ? 1 : 0);
         record.setStatus("RETURNED");
+        record.setReturnDate(returnDate);
+        circulationRollupService.returned(List.of(record));
+        return record;
+    }
+    
+    /**
+     * 服务台按条码借出：条码定位到副本后，一条条件更新同时把副本标记为借出并扣减可借数量
+     */
+    public BorrowRecord borrowByBarcode(String userId, String barcode) {
+        CopyIndex.CopyRef copy = copyService.findCopy(barcode);
+        if (copy == null) {
+            throw new RuntimeException("条码未登记");
+        }
         
-        // 增加图书库存
-        Book book = bookRepository.findById(record.getBookId()).orElse(null);
-        if (book != null) {
-            book.setAvailableCopies(book.getAvailableCopies() + 1);
-            bookRepository.save(book);
+        User user = userService.getUserById(userId);
+        if (user == null) {
+            throw new RuntimeException("用户不存在");
+        }
+        Book book = bookService.getBookById(copy.getBookId());
+        if (book == null) {
+            throw new RuntimeException("图书不存在");
         }
         
-        return borrowRecordRepository.save(record);
+        userService.reserveLoan(userId, copy.getBookId());
+        try {
+            if (copyService.checkOut(copy) == null) {
+                throw copyService.checkOutRejection(copy);
+            }
+        } catch (RuntimeException e) {
+            userService.releaseLoan(userId, copy.getBookId());
+            throw e;
+        }
+        
+        BorrowRecord record = new BorrowRecord();
+        record.setUserId(userId);
+        record.setUsername(user.getUsername());
+        record.setBookId(copy.getBookId());
+        record.setBookTitle(book.getTitle());
+        record.setBarcode(copy.getBarcode());
+        record.setBorrowDate(LocalDateTime.now());
+        record.setDueDate(LocalDateTime.now().plusDays(30)); // 30天后应还
+        record.setStatus("BORROWED");
+        
+        BorrowRecord savedRecord;
+        try {
+            savedRecord = borrowRecordRepository.save(record);
+        } catch (RuntimeException e) {
+            // 没有事务，记录写入失败时补偿归还副本和借阅名额
+            holdService.releaseCopy(copy);
+            userService.releaseLoan(userId, copy.getBookId());
+            throw e;
+        }
+        circulationEventLog.borrowed(savedRecord);
+        circulationStatsService.borrowed(1);
+        circulationRollupService.borrowed(List.of(savedRecord));
+        bookService.onBorrowed(copy.getBookId());
+        trendingService.recordBorrow(copy.getBookId(), book.getTitle());
+        return savedRecord;
+    }
+    
+    /**
+     * 服务台按条码归还：以该条码未归还的借阅记录为条件原子地改为RETURNED
+     */
+    public BorrowRecord returnByBarcode(String barcode) {
+        CopyIndex.CopyRef copy = copyService.findCopy(barcode);
+        if (copy == null) {
+            throw new RuntimeException("条码未登记");
+        }
+        
+        Query query = new Query(Criteria.where("barcode").is(copy.getBarcode()).and("status").in(ACTIVE_STATUSES));
+        BorrowRecord record = markReturned(query);
+        if (record == null) {
+            throw new RuntimeException("该副本没有未归还的借阅记录");
+        }
+        
+        holdService.releaseCopy(copy);
+        userService.releaseLoan(record.getUserId(), record.getBookId());
+        circulationEventLog.returned(record);
+        return record;
+    }
+    
+    /**
+     * 归还后释放副本：按条码借出的副本标记为在馆，其余按数量归还；都会先分配给排队的预约读者
+     */
+    private void releaseStock(BorrowRecord record) {
+        CopyIndex.CopyRef copy = record.getBarcode() != null ? copyService.findCopy(record.getBarcode()) : null;
+        if (copy != null) {
+            holdService.releaseCopy(copy);
+        } else {
+            holdService.releaseCopies(record.getBookId(), 1);
+        }
+    }
+    
+    /**
+     * 预约到书后取书：副本在归还时已为该读者保留，不再扣减库存
+     */
+    public BorrowRecord pickUpHold(String userId, String holdId) {
+        User user = userService.getUserById(userId);
+        if (user == null) {
+            throw new RuntimeException("用户不存在");
+        }
+        
+        Hold hold = holdService.claimReady(holdId, userId);
+        if (hold == null) {
+            throw new RuntimeException("预约不存在、未到书或已过期");
+        }
+        
+        try {
+            userService.reserveLoan(userId, hold.getBookId());
+        } catch (RuntimeException e) {
+            holdService.restoreReady(hold);
+            throw e;
+        }
+        
+        BorrowRecord record = new BorrowRecord();
+        record.setUserId(userId);
+        record.setUsername(user.getUsername());
+        record.setBookId(hold.getBookId());
+        record.setBookTitle(hold.getBookTitle());
+        record.setBorrowDate(LocalDateTime.now());
+        record.setDueDate(LocalDateTime.now().plusDays(30)); // 30天后应还
+        record.setStatus("BORROWED");
+        
+        BorrowRecord savedRecord;
+        try {
+            savedRecord = borrowRecordRepository.save(record);
+        } catch (RuntimeException e) {
+            userService.releaseLoan(userId, hold.getBookId());
+            holdService.restoreReady(hold);
+            throw e;
+        }
+        circulationEventLog.borrowed(savedRecord);
+        circulationStatsService.borrowed(1);
+        circulationRollupService.borrowed(List.of(savedRecord));
+        bookService.onBorrowed(hold.getBookId());
+        trendingService.recordBorrow(hold.getBookId(), hold.getBookTitle());
+        return savedRecord;
+    }
+    
+    /**
+     * 批量借阅
+     * 图书一次查询后逐项校验，借阅名额一次条件更新占用；各书的库存扣减并行提交给借阅准入（同一本书的并发请求仍合并扣减），
+     * 借阅记录通过一次无序批量写入插入，写入失败的条目补偿归还库存。返回与请求顺序一致的逐项结果
+     */
+    public List<Map<String, Object>> borrowBooks(String userId, List<String> bookIds) {
+        List<String> ids = distinctItems(bookIds);
+        
+        User user = userService.getUserById(userId);
+        if (user == null) {
+            throw new RuntimeException("用户不存在");
+        }
+        
+        Map<String, Book> books = bookService.getBooksByIds(ids);
+        
+        // 逐项校验，通过的占用借阅名额（按请求顺序，直到名额用完）
+        Map<String, Map<String, Object>> results = new LinkedHashMap<>();
+        List<String> candidates = new ArrayList<>();
+        for (String bookId : ids) {
+            Map<String, Object> result = itemResult("bookId", bookId);
+            results.put(bookId, result);
+            
+            if (!books.containsKey(bookId)) {
+                fail(result, "图书不存在");
+            } else if (bookService.isSoldOut(bookId)) {
+                fail(result, "图书库存不足");
+            } else {
+                candidates.add(bookId);
+            }
+        }
+        Map<String, String> rejected = userService.reserveLoans(userId, candidates);
+        
+        // 占到名额的提交库存扣减
+        Map<String, CompletableFuture<Boolean>> tickets = new LinkedHashMap<>();
+        for (String bookId : candidates) {
+            if (rejected.containsKey(bookId)) {
+                fail(results.get(bookId), rejected.get(bookId));
+            } else {
+                tickets.put(bookId, bookService.admitBorrowAsync(bookId));
+            }
+        }
+        
+        // 扣减成功的生成借阅记录，ID在本地生成以便批量写入后对应到各项结果
+        LocalDateTime now = LocalDateTime.now();
+        List<BorrowRecord> records = new ArrayList<>();
+        List<String> unused = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<Boolean>> ticket : tickets.entrySet()) {
+            String bookId = ticket.getKey();
+            boolean admitted;
+            try {
+                admitted = ticket.getValue().join();
+            } catch (CompletionException e) {
+                fail(results.get(bookId), "库存扣减失败：" + e.getCause().getMessage());
+                unused.add(bookId);
+                continue;
+            }
+            if (!admitted) {
+                fail(results.get(bookId), "图书库存不足");
+                unused.add(bookId);
+                continue;
+            }
+            
+            Book book = books.get(bookId);
+            BorrowRecord record = new BorrowRecord();
+            record.setId(new ObjectId().toHexString());
+            record.setUserId(userId);
+            record.setUsername(user.getUsername());
+            record.setBookId(bookId);
+            record.setBookTitle(book.getTitle());
+            record.setBorrowDate(now);
+            record.setDueDate(now.plusDays(30)); // 30天后应还
+            record.setStatus("BORROWED");
+            records.add(record);
+        }
+        
+        if (!records.isEmpty()) {
+            Set<Integer> failedIndexes = new HashSet<>();
+            String failure = null;
+            try {
+                BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BorrowRecord.class);
+                bulk.insert(records);
+                bulk.execute();
+            } catch (BulkOperationException e) {
+                for (BulkWriteError error : e.getErrors()) {
+                    failedIndexes.add(error.getIndex());
+                }
+                failure = "借阅记录保存失败";
+            } catch (RuntimeException e) {
+                for (int i = 0; i < records.size(); i++) {
+                    failedIndexes.add(i);
+                }
+                failure = "借阅记录保存失败：" + e.getMessage();
+            }
+            
+            // 没有事务，记录写入失败的条目补偿归还库存和借阅名额
+            Map<String, Integer> released = new HashMap<>();
+            List<BorrowRecord> borrowed = new ArrayList<>();
+            for (int i = 0; i < records.size(); i++) {
+                BorrowRecord record = records.get(i);
+                Map<String, Object> result = results.get(record.getBookId());
+                if (failedIndexes.contains(i)) {
+                    released.merge(record.getBookId(), 1, Integer::sum);
+                    unused.add(record.getBookId());
+                    fail(result, failure);
+                } else {
+                    result.put("success", true);
+                    result.put("message", "借书成功");
+                    result.put("borrowId", record.getId());
+                    result.put("dueDate", record.getDueDate());
+                    circulationEventLog.borrowed(record);
+                    bookService.onBorrowed(record.getBookId());
+                    trendingService.recordBorrow(record.getBookId(), record.getBookTitle());
+                    borrowed.add(record);
+                }
+            }
+            circulationStatsService.borrowed(borrowed.size());
+            circulationRollupService.borrowed(borrowed);
+            holdService.releaseCopies(released);
+        }
+        
+        // 未借成的条目归还占用的借阅名额
+        if (!unused.isEmpty()) {
+            userService.releaseLoans(Map.of(userId, unused));
+        }
+        
+        return new ArrayList<>(results.values());
+    }
+    
+    /**
+     * 批量归还
+     * 一次查询取出全部借阅记录校验后，以读到的状态（借阅中或逾期）为条件通过一次无序批量写入改为RETURNED，
+     * 再按图书汇总归还数量，每本书一条库存更新批量执行，借阅名额同样批量归还。重复或并发提交的归还只有一次成功；
+     * 读取后状态被并发修改（如被标记为逾期）的条目按单条归还重试
+     */
+    public List<Map<String, Object>> returnBooks(List<String> borrowRecordIds) {
+        List<String> ids = distinctItems(borrowRecordIds);
+        
+        Map<String, BorrowRecord> records = new HashMap<>();
+        for (BorrowRecord record : borrowRecordRepository.findAllById(ids)) {
+            records.put(record.getId(), record);
+        }
+        
+        Map<String, Map<String, Object>> results = new LinkedHashMap<>();
+        List<String> eligible = new ArrayList<>();
+        for (String id : ids) {
+            Map<String, Object> result = itemResult("borrowId", id);
+            results.put(id, result);
+            
+            BorrowRecord record = records.get(id);
+            if (record == null) {
+                fail(result, "借阅记录不存在");
+                continue;
+            }
+            result.put("bookId", record.getBookId());
+            if (!ACTIVE_STATUSES.contains(record.getStatus())) {
+                fail(result, "图书已归还或状态异常");
+            } else {
+                eligible.add(id);
+            }
+        }
+        if (eligible.isEmpty()) {
+            return new ArrayList<>(results.values());
+        }
+        
+        // 每批写入唯一的批次标记：同一毫秒内的单条归还或重叠的批量归还不会被误认为本批归还的
+        LocalDateTime returnDate = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        String batchId = new ObjectId().toHexString();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BorrowRecord.class);
+        for (String id : eligible) {
+            // 以读到的状态为条件，才能按归还前的状态累加逾期统计
+            bulk.updateOne(new Query(Criteria.where("id").is(id).and("status").is(records.get(id).getStatus())),
+                    new Update().set("status", "RETURNED").set("returnDate", returnDate).set("returnBatchId", batchId));
+        }
+        long modified;
+        try {
+            modified = bulk.execute().getModifiedCount();
+        } catch (BulkOperationException e) {
+            modified = e.getResult().getModifiedCount();
+        }
+        
+        // 有条目未被修改（被并发归还或写入失败）时，重新查询确认哪些是本批归还的
+        Set<String> returned = new HashSet<>(eligible);
+        if (modified < eligible.size()) {
+            returned.clear();
+            Query query = new Query(Criteria.where("id").in(eligible).and("returnBatchId").is(batchId));
+            query.fields().include("id");
+            for (BorrowRecord record : mongoTemplate.find(query, BorrowRecord.class)) {
+                returned.add(record.getId());
+            }
+        }
+        
+        Map<String, Integer> quantities = new HashMap<>();
+        Map<String, List<String>> loans = new HashMap<>();
+        List<BorrowRecord> copies = new ArrayList<>();
+        int overdueReturned = 0;
+        List<BorrowRecord> returnedRecords = new ArrayList<>();
+        for (String id : eligible) {
+            Map<String, Object> result = results.get(id);
+            if (returned.contains(id)) {
+                BorrowRecord record = records.get(id);
+                if ("OVERDUE".equals(record.getStatus())) {
+                    overdueReturned++;
+                }
+                record.setReturnDate(returnDate);
+                returnedRecords.add(record);
+                if (record.getBarcode() != null) {
+                    copies.add(record);
+                } else {
+                    quantities.merge(record.getBookId(), 1, Integer::sum);
+                }
+                loans.computeIfAbsent(record.getUserId(), userId -> new ArrayList<>()).add(record.getBookId());
+                circulationEventLog.returned(record);
+                result.put("success", true);
+                result.put("message", "还书成功");
+            } else {
+                try {
+                    returnBook(id);
+                    result.put("success", true);
+                    result.put("message", "还书成功");
+                } catch (RuntimeException e) {
+                    fail(result, e.getMessage());
+                }
+            }
+        }
+        circulationStatsService.returned(returned.size(), overdueReturned);
+        circulationRollupService.returned(returnedRecords);
+        
+        // 有人预约时副本分配给排队的读者，否则增加图书库存（不超过总数量）
+        holdService.releaseCopies(quantities);
+        for (BorrowRecord record : copies) {
+            releaseStock(record);
+        }
+        userService.releaseLoans(loans);
+        
+        return new ArrayList<>(results.values());
     }
     
     /**
      * 续借图书
+     * 逾期的也可续借，从今天起算；以读到的状态和应还日期为条件更新，不会覆盖并发的归还
      */
-    @Transactional
     public BorrowRecord renewBook(String borrowRecordId) {
         BorrowRecord record = borrowRecordRepository.findById(borrowRecordId)
             .orElseThrow(() -> new RuntimeException("借阅记录不存在"));
         
-        if (!"BORROWED".equals(record.getStatus())) {
-            throw new RuntimeException("只能续借已借阅的图书");
+        if (!ACTIVE_STATUSES.contains(record.getStatus())) {
+            throw new RuntimeException("只能续借未归还的图书");
         }
         
         // 延长应还日期（再延长30天）
-        record.setDueDate(record.getDueDate().plusDays(30));
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime from = record.getDueDate().isAfter(now) ? record.getDueDate() : now;
         
-        return borrowRecordRepository.save(record);
+        Query query = new Query(Criteria.where("id").is(borrowRecordId)
+                .and("status").is(record.getStatus()).and("dueDate").is(record.getDueDate()));
+        Update update = new Update().set("dueDate", from.plusDays(30)).set("status", "BORROWED");
+        BorrowRecord renewed = mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), BorrowRecord.class);
+        if (renewed == null) {
+            throw new RuntimeException("借阅记录已变更，请刷新后重试");
+        }
+        circulationEventLog.renewed(renewed);
+        circulationStatsService.renewed("OVERDUE".equals(record.getStatus()));
+        circulationRollupService.renewed(renewed);
+        return renewed;
     }
     
     /**
@@ -128,10 +589,10 @@ public class BorrowService {
     }
     
     /**
-     * 获取用户当前的借阅（未归还）
+     * 获取用户当前的借阅（未归还，含逾期）
      */
     public List<BorrowRecord> getUserCurrentBorrows(String userId) {
-        return borrowRecordRepository.findByUserIdAndStatus(userId, "BORROWED");
+        return borrowRecordRepository.findByUserIdAndStatusIn(userId, ACTIVE_STATUSES);
     }
     
     /**
@@ -142,33 +603,15 @@ public class BorrowService {
     }
     
     /**
-     * 统计借阅数量
+     * 借阅统计：读取借还时以$inc维护的统计文档，不访问借阅记录
      */
     public Map<String, Object> getBorrowStatistics() {
-        Map<String, Object> stats = new HashMap<>();
         try {
-            // 总借阅次数
-            long totalBorrows = borrowRecordRepository.count();
-            stats.put("totalBorrows", totalBorrows);
-            
-            // 当前借出数量
-            List<BorrowRecord> borrowedRecords = borrowRecordRepository.findByStatus("BORROWED");
-            stats.put("currentBorrows", borrowedRecords.size());
-            
-            // 逾期数量
-            List<BorrowRecord> overdueRecords = getOverdueRecords();
-            stats.put("overdueBorrows", overdueRecords.size());
-            
-            // 归还数量
-            List<BorrowRecord> returnedRecords = borrowRecordRepository.findByStatus("RETURNED");
-            stats.put("returnedBorrows", returnedRecords.size());
-            
-            System.out.println("借阅统计完成: " + stats);
-            
-            return stats;
+            return circulationStatsService.getStatistics();
         } catch (Exception e) {
             System.err.println("获取借阅统计失败: " + e.getMessage());
             // 返回默认值
+            Map<String, Object> stats = new HashMap<>();
             stats.put("totalBorrows", 0);
             stats.put("currentBorrows", 0);
             stats.put("overdueBorrows", 0);
@@ -178,29 +621,50 @@ public class BorrowService {
     }
 
     /**
-     * 获取逾期记录
+     * 获取逾期记录（只读查询，按应还日期排序）
      */
     public List<BorrowRecord> getOverdueRecords() {
         try {
-            LocalDateTime now = LocalDateTime.now();
-            List<BorrowRecord> borrowedRecords = borrowRecordRepository.findByStatus("BORROWED");
-            
-            return borrowedRecords.stream()
-                .filter(record -> record.getDueDate().isBefore(now))
-                .peek(record -> {
-                    // 更新状态为逾期
-                    if (!"OVERDUE".equals(record.getStatus())) {
-                        record.setStatus("OVERDUE");
-                        borrowRecordRepository.save(record);
-                    }
-                })
-                .toList();
+            Query query = overdueQuery(LocalDateTime.now()).with(Sort.by(Sort.Direction.ASC, "dueDate"));
+            return mongoTemplate.find(query, BorrowRecord.class);
         } catch (Exception e) {
             System.err.println("获取逾期记录失败: " + e.getMessage());
             return java.util.Collections.emptyList();
         }
     }
     
+    /**
+     * 定时把已过应还日期的借阅中记录批量改为逾期（一次updateMany，走状态+应还日期索引）。
+     * 本次标记的记录写入相同的overdueAt，趋势汇总据此按图书和读者分组计数
+     */
+    @Scheduled(fixedDelayString = "${library.borrow.overdue-sweep-interval-ms:300000}", initialDelay = 30000)
+    public void markOverdue() {
+        try {
+            // 数据库中日期精度为毫秒，截断后才能按overdueAt识别本次标记的记录
+            LocalDateTime cutoff = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+            Query query = new Query(Criteria.where("status").is("BORROWED").and("dueDate").lt(cutoff));
+            Update update = new Update().set("status", "OVERDUE").set("overdueAt", cutoff);
+            long modified = mongoTemplate.updateMulti(query, update, BorrowRecord.class).getModifiedCount();
+            if (modified > 0) {
+                circulationEventLog.overdue(cutoff);
+                circulationStatsService.overdue(modified);
+                circulationRollupService.overdue(cutoff);
+                System.out.println("逾期状态更新完成，新增逾期：" + modified);
+            }
+        } catch (Exception e) {
+            System.err.println("逾期状态更新失败: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 逾期条件：已标记逾期，或仍为借阅中但已过应还日期（两次定时任务之间到期的）
+     */
+    private static Query overdueQuery(LocalDateTime now) {
+        return new Query(new Criteria().orOperator(
+                Criteria.where("status").is("OVERDUE"),
+                Criteria.where("status").is("BORROWED").and("dueDate").lt(now)));
+    }
+    
     /**
      * 获取图书的借阅记录
      */
@@ -210,37 +674,39 @@ public class BorrowService {
     
     /**
      * 获取用户的借阅统计详情
+     * 按userId（走userId_status索引）一次$group在数据库端求出各状态数量、已归还记录的借阅天数之和、
+     * 首次和最近借阅日期，不加载借阅记录
      */
     public Map<String, Object> getUserBorrowStatistics(String userId) {
         Map<String, Object> stats = new HashMap<>();
         
         try {
-            // 获取用户的所有借阅记录
-            List<BorrowRecord> records = borrowRecordRepository.findByUserId(userId);
-            
-            // 当前借阅数量
-            long currentBorrows = records.stream()
-                .filter(r -> "BORROWED".equals(r.getStatus()))
-                .count();
-            
-            // 逾期数量
-            long overdueCount = records.stream()
-                .filter(r -> "OVERDUE".equals(r.getStatus()))
-                .count();
+            Document group = new Document("_id", null)
+                    .append("totalBorrows", new Document("$sum", 1))
+                    .append("currentBorrows", countIf("BORROWED"))
+                    .append("overdueCount", countIf("OVERDUE"))
+                    .append("returnedCount", countIf("RETURNED"))
+                    // 借阅天数按整天计（不足一天的部分舍去），只计有归还日期的记录
+                    .append("totalBorrowDays", new Document("$sum", new Document("$cond", List.of(
+                            new Document("$and", List.of(
+                                    new Document("$eq", List.of(new Document("$type", "$borrowDate"), "date")),
+                                    new Document("$eq", List.of(new Document("$type", "$returnDate"), "date")))),
+                            new Document("$floor", new Document("$divide", List.of(
+                                    new Document("$subtract", List.of("$returnDate", "$borrowDate")), 86400000))),
+                            0))))
+                    .append("firstBorrowDate", new Document("$min", "$borrowDate"))
+                    .append("lastBorrowDate", new Document("$max", "$borrowDate"));
+            Aggregation aggregation = Aggregation.newAggregation(
+                    Aggregation.match(Criteria.where("userId").is(userId)),
+                    context -> new Document("$group", group));
+            Document result = mongoTemplate.aggregate(aggregation, BorrowRecord.class, Document.class)
+                    .getUniqueMappedResult();
             
-            // 总借阅次数
-            long totalBorrows = records.size();
-            
-            // 已归还数量
-            long returnedCount = records.stream()
-                .filter(r -> "RETURNED".equals(r.getStatus()))
-                .count();
-            
-            // 计算平均借阅天数
-            long totalBorrowDays = records.stream()
-                .filter(r -> r.getReturnDate() != null)
-                .mapToLong(r -> java.time.Duration.between(r.getBorrowDate(), r.getReturnDate()).toDays())
-                .sum();
+            long totalBorrows = result != null ? result.get("totalBorrows", Number.class).longValue() : 0;
+            long currentBorrows = result != null ? result.get("currentBorrows", Number.class).longValue() : 0;
+            long overdueCount = result != null ? result.get("overdueCount", Number.class).longValue() : 0;
+            long returnedCount = result != null ? result.get("returnedCount", Number.class).longValue() : 0;
+            long totalBorrowDays = result != null ? result.get("totalBorrowDays", Number.class).longValue() : 0;
             
             long avgBorrowDays = returnedCount > 0 ? totalBorrowDays / returnedCount : 30;
             
@@ -253,8 +719,8 @@ public class BorrowService {
             stats.put("returnedCount", returnedCount);
             stats.put("avgBorrowDays", avgBorrowDays);
             stats.put("favoriteCategory", favoriteCategory);
-            stats.put("lastBorrowDate", getLastBorrowDate(records));
-            stats.put("firstBorrowDate", getFirstBorrowDate(records));
+            stats.put("lastBorrowDate", formatBorrowDate(result, "lastBorrowDate"));
+            stats.put("firstBorrowDate", formatBorrowDate(result, "firstBorrowDate"));
             
         } catch (Exception e) {
             System.err.println("获取用户借阅统计详情失败: " + e.getMessage());
@@ -268,35 +734,62 @@ public class BorrowService {
         
         return stats;
     }
+    
+    /**
+     * $group中按状态计数
+     */
+    private static Document countIf(String status) {
+        return new Document("$sum", new Document("$cond",
+                List.of(new Document("$eq", List.of("$status", status)), 1, 0)));
+    }
 
     /**
-     * 获取最后一次借阅时间
+     * 批量请求的条目去重（保持顺序）并检查数量
      */
-    private String getLastBorrowDate(List<BorrowRecord> records) {
-        if (records.isEmpty()) {
-            return "暂无借阅记录";
+    private List<String> distinctItems(List<String> items) {
+        Set<String> distinct = new LinkedHashSet<>();
+        if (items != null) {
+            for (String item : items) {
+                if (item != null && !item.isBlank()) {
+                    distinct.add(item);
+                }
+            }
         }
-        
-        return records.stream()
-            .map(BorrowRecord::getBorrowDate)
-            .max(java.time.LocalDateTime::compareTo)
-            .map(date -> date.format(java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd")))
-            .orElse("暂无");
+        if (distinct.isEmpty()) {
+            throw new RuntimeException("请至少选择一项");
+        }
+        if (distinct.size() > MAX_BATCH_ITEMS) {
+            throw new RuntimeException("单次最多处理" + MAX_BATCH_ITEMS + "项");
+        }
+        return new ArrayList<>(distinct);
+    }
+    
+    private static Map<String, Object> itemResult(String key, String id) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put(key, id);
+        result.put("success", false);
+        return result;
+    }
+    
+    private static void fail(Map<String, Object> result, String message) {
+        result.put("success", false);
+        result.put("message", message);
     }
 
     /**
-     * 获取第一次借阅时间
+     * 格式化聚合结果中的首次或最近借阅日期
      */
-    private String getFirstBorrowDate(List<BorrowRecord> records) {
-        if (records.isEmpty()) {
+    private String formatBorrowDate(Document result, String field) {
+        if (result == null) {
             return "暂无借阅记录";
         }
         
-        return records.stream()
-            .map(BorrowRecord::getBorrowDate)
-            .min(java.time.LocalDateTime::compareTo)
-            .map(date -> date.format(java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd")))
-            .orElse("暂无");
+        java.util.Date date = result.getDate(field);
+        if (date == null) {
+            return "暂无";
+        }
+        return LocalDateTime.ofInstant(date.toInstant(), java.time.ZoneId.systemDefault())
+            .format(java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd"));
     }
    
 }
\ No newline at end of file
@@ -0,0 +1,312 @@
+package com.library.librarysystem.service;
+
+import com.library.librarysystem.entity.Book;
+import com.library.librarysystem.entity.BorrowRecord;
+import com.library.librarysystem.entity.CirculationEvent;
+import com.mongodb.bulk.BulkWriteError;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 只追加的流通事件日志
+ * 借出、归还、续借、逾期和库存变更各记一条事件，按全局序号排列。事件先放入内存缓冲，
+ * 由后台线程每隔一段时间（或积累到一批时）一次insertMany写入固定大小集合（capped），
+ * 业务线程不等待日志写入；旧事件由集合自动覆盖，定期快照保证重放只需要快照之后的事件
+ */
+@Component
+public class CirculationEventLog {
+
+    public static final String BORROWED = "BORROWED";
+    public static final String RETURNED = "RETURNED";
+    public static final String RENEWED = "RENEWED";
+    public static final String OVERDUE = "OVERDUE";
+    public static final String STOCK_ADJUSTED = "STOCK_ADJUSTED";
+    public static final String BOOK_REMOVED = "BOOK_REMOVED";
+
+    // 单次写入的最大事件数，缓冲达到此数量时立即写入
+    private static final int MAX_BATCH = 500;
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    // 数据库不可用时内存中最多保留的事件数，超出后丢弃最旧的
+    private static final int MAX_PENDING = 100_000;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${library.circulation.capped-size-mb:256}")
+    private long cappedSizeMb;
+
+    private final Object appendLock = new Object();
+    private final Object flushLock = new Object();
+
+    private List<CirculationEvent> pending = new ArrayList<>();
+    private long nextSeq = -1;
+    private volatile boolean collectionReady;
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "circulation-event-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+
+    public CirculationEventLog(@Value("${library.circulation.flush-interval-ms:200}") long flushIntervalMs) {
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 启动时先创建固定大小集合，避免建索引时自动创建成普通集合
+     */
+    @PostConstruct
+    public void init() {
+        try {
+            ensureCollection();
+        } catch (RuntimeException e) {
+            System.err.println("创建流通事件集合失败，首次写入时重试: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 库存变更，记录变更后的数量和版本号
+     */
+    public void stockChanged(Book book) {
+        CirculationEvent event = new CirculationEvent(STOCK_ADJUSTED);
+        event.setBookId(book.getId());
+        event.setAvailableCopies(book.getAvailableCopies());
+        event.setTotalCopies(book.getTotalCopies());
+        event.setStockVersion(book.getStockVersion() != null ? book.getStockVersion() : 0L);
+        append(event);
+    }
+
+    /**
+     * 图书删除
+     */
+    public void bookRemoved(String bookId) {
+        CirculationEvent event = new CirculationEvent(BOOK_REMOVED);
+        event.setBookId(bookId);
+        append(event);
+    }
+
+    public void borrowed(BorrowRecord record) {
+        append(loanEvent(BORROWED, record));
+    }
+
+    public void returned(BorrowRecord record) {
+        append(loanEvent(RETURNED, record));
+    }
+
+    public void renewed(BorrowRecord record) {
+        append(loanEvent(RENEWED, record));
+    }
+
+    /**
+     * 逾期批量标记：应还日期早于cutoff的借出记录全部转为逾期，只记一条事件
+     */
+    public void overdue(LocalDateTime cutoff) {
+        CirculationEvent event = new CirculationEvent(OVERDUE);
+        event.setDueDate(cutoff);
+        append(event);
+    }
+
+    private static CirculationEvent loanEvent(String type, BorrowRecord record) {
+        CirculationEvent event = new CirculationEvent(type);
+        event.setBorrowId(record.getId());
+        event.setUserId(record.getUserId());
+        event.setBookId(record.getBookId());
+        event.setDueDate(record.getDueDate());
+        return event;
+    }
+
+    /**
+     * 分配序号并放入缓冲
+     */
+    private void append(CirculationEvent event) {
+        boolean full;
+        synchronized (appendLock) {
+            if (nextSeq < 0) {
+                try {
+                    nextSeq = loadLastSeq() + 2;
+                } catch (RuntimeException e) {
+                    // 业务写入已经完成，日志不可用时不影响调用方
+                    dropped.incrementAndGet();
+                    System.err.println("读取流通事件序号失败，事件未记录: " + e.getMessage());
+                    return;
+                }
+            }
+            event.setId(new ObjectId().toHexString());
+            event.setSeq(nextSeq++);
+            pending.add(event);
+            full = pending.size() >= MAX_BATCH;
+        }
+        appended.incrementAndGet();
+        if (full) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * 已分配的最大序号（包括尚未写入的事件）
+     */
+    public long lastSeq() {
+        synchronized (appendLock) {
+            if (nextSeq < 0) {
+                nextSeq = loadLastSeq() + 2;
+            }
+            return nextSeq - 1;
+        }
+    }
+
+    /**
+     * 把缓冲中的事件全部写入数据库，返回后序号不大于调用时lastSeq()的事件都已落库。
+     * 写入失败时事件放回缓冲并抛出异常
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            while (true) {
+                List<CirculationEvent> batch;
+                synchronized (appendLock) {
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    if (pending.size() <= MAX_BATCH) {
+                        batch = pending;
+                        pending = new ArrayList<>();
+                    } else {
+                        batch = new ArrayList<>(pending.subList(0, MAX_BATCH));
+                        pending = new ArrayList<>(pending.subList(MAX_BATCH, pending.size()));
+                    }
+                }
+                try {
+                    ensureCollection();
+                    mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, CirculationEvent.class)
+                            .insert(batch)
+                            .execute();
+                    written.addAndGet(batch.size());
+                } catch (BulkOperationException e) {
+                    // 上次部分写入后重试时，已写入的事件（ID在追加时分配）报主键重复，不再放回
+                    List<CirculationEvent> failed = new ArrayList<>();
+                    for (BulkWriteError error : e.getErrors()) {
+                        if (error.getCode() != DUPLICATE_KEY) {
+                            failed.add(batch.get(error.getIndex()));
+                        }
+                    }
+                    written.addAndGet(batch.size() - failed.size());
+                    if (!failed.isEmpty()) {
+                        requeue(failed);
+                        throw e;
+                    }
+                } catch (RuntimeException e) {
+                    requeue(batch);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            failedFlushes.incrementAndGet();
+            System.err.println("流通事件写入失败，稍后重试: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 写入失败的事件放回缓冲最前面，保持序号顺序；超出上限时丢弃最旧的
+     */
+    private void requeue(List<CirculationEvent> batch) {
+        synchronized (appendLock) {
+            List<CirculationEvent> merged = new ArrayList<>(batch.size() + pending.size());
+            merged.addAll(batch);
+            merged.addAll(pending);
+            int overflow = merged.size() - MAX_PENDING;
+            if (overflow > 0) {
+                dropped.addAndGet(overflow);
+                merged = new ArrayList<>(merged.subList(overflow, merged.size()));
+            }
+            pending = merged;
+        }
+    }
+
+    /**
+     * 首次写入前创建固定大小集合；集合已存在（包括普通集合）时沿用
+     */
+    private void ensureCollection() {
+        if (collectionReady) {
+            return;
+        }
+        if (!mongoTemplate.collectionExists(CirculationEvent.class)) {
+            try {
+                mongoTemplate.createCollection(CirculationEvent.class,
+                        CollectionOptions.empty().capped().size(cappedSizeMb * 1024 * 1024));
+                System.out.println("已创建流通事件集合（固定大小 " + cappedSizeMb + "MB）");
+            } catch (RuntimeException e) {
+                // 其他实例已创建
+                if (!mongoTemplate.collectionExists(CirculationEvent.class)) {
+                    throw e;
+                }
+            }
+        }
+        collectionReady = true;
+    }
+
+    /**
+     * 进程启动后从已落库的最大序号之后空一位开始：上次退出前未写入的事件可能已丢失，
+     * 留下的缺口使基于旧快照的重放失败，下一次快照改为由当前数据生成
+     */
+    private long loadLastSeq() {
+        Query query = new Query().with(Sort.by(Sort.Direction.DESC, "seq")).limit(1);
+        query.fields().include("seq");
+        CirculationEvent last = mongoTemplate.findOne(query, CirculationEvent.class);
+        return last != null && last.getSeq() != null ? last.getSeq() : 0;
+    }
+
+    /**
+     * 事件日志统计
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        int pendingCount;
+        synchronized (appendLock) {
+            pendingCount = pending.size();
+        }
+        stats.put("appended", appended.get());
+        stats.put("written", written.get());
+        stats.put("pending", pendingCount);
+        stats.put("dropped", dropped.get());
+        stats.put("failedFlushes", failedFlushes.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        flushQuietly();
+    }
+}
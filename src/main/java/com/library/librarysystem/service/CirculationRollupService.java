@@ -0,0 +1,379 @@
+package com.library.librarysystem.service;
+
+import com.library.librarysystem.entity.BorrowRecord;
+import com.library.librarysystem.entity.CirculationRollup;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.MergeOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 流通趋势日汇总
+ * 每天一份计数文档，分全馆、按图书、按读者三种范围，记录借出、归还、新增逾期和续借次数。
+ * 借还成功后按记录所属日期以$inc累加（一次无序批量upsert），历史数据由回填任务在数据库端聚合后$merge写入；
+ * 趋势查询只读取汇总文档，按日、周、月合并，不访问借阅记录
+ */
+@Service
+public class CirculationRollupService {
+
+    public static final String SCOPE_GLOBAL = "GLOBAL";
+    public static final String SCOPE_BOOK = "BOOK";
+    public static final String SCOPE_USER = "USER";
+
+    public static final String GRANULARITY_DAY = "day";
+    public static final String GRANULARITY_WEEK = "week";
+    public static final String GRANULARITY_MONTH = "month";
+
+    private static final String[] METRICS = {"borrowed", "returned", "overdue", "renewed"};
+
+    // 单次趋势查询的最大天数
+    private static final int MAX_DAYS = 3660;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private volatile Map<String, Object> lastBackfill;
+
+    /**
+     * 应用就绪后汇总为空时在后台回填历史数据
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        try {
+            if (!mongoTemplate.exists(new Query(), CirculationRollup.class)) {
+                CompletableFuture.runAsync(() -> {
+                    try {
+                        backfill(null);
+                    } catch (Exception e) {
+                        System.err.println("回填流通趋势汇总失败: " + e.getMessage());
+                    }
+                });
+            }
+        } catch (Exception e) {
+            System.err.println("检查流通趋势汇总失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 借出，按借阅日期计入
+     */
+    public void borrowed(Collection<BorrowRecord> records) {
+        Increments increments = new Increments();
+        for (BorrowRecord record : records) {
+            increments.add(record.getBookId(), record.getUserId(), dayOf(record.getBorrowDate()), "borrowed", 1);
+        }
+        apply(increments);
+    }
+
+    /**
+     * 归还，按归还日期计入
+     */
+    public void returned(Collection<BorrowRecord> records) {
+        Increments increments = new Increments();
+        for (BorrowRecord record : records) {
+            increments.add(record.getBookId(), record.getUserId(), dayOf(record.getReturnDate()), "returned", 1);
+        }
+        apply(increments);
+    }
+
+    /**
+     * 续借，按续借当天计入
+     */
+    public void renewed(BorrowRecord record) {
+        Increments increments = new Increments();
+        increments.add(record.getBookId(), record.getUserId(), dayOf(LocalDateTime.now()), "renewed", 1);
+        apply(increments);
+    }
+
+    /**
+     * 逾期批量标记：本次标记的记录带有overdueAt=cutoff，一次聚合按图书和读者分组后计入标记当天
+     */
+    public void overdue(LocalDateTime cutoff) {
+        try {
+            Aggregation aggregation = Aggregation.newAggregation(
+                    Aggregation.match(Criteria.where("overdueAt").is(cutoff)),
+                    Aggregation.group("bookId", "userId").count().as("count"));
+            Increments increments = new Increments();
+            String day = dayOf(cutoff);
+            for (Document group : mongoTemplate.aggregate(aggregation, BorrowRecord.class, Document.class)) {
+                Document id = group.get("_id", Document.class);
+                increments.add(id.getString("bookId"), id.getString("userId"), day, "overdue",
+                        ((Number) group.get("count")).longValue());
+            }
+            apply(increments);
+        } catch (Exception e) {
+            System.err.println("累加逾期趋势汇总失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 回填：由借阅记录重新计算until（默认今天）之前各天的借出、归还和逾期数量，覆盖这些天的对应计数。
+     * 每种范围和指标一条聚合（分组后$merge写回汇总集合），全部在数据库端完成。
+     * 续借次数无法由借阅记录计算，保留原值；历史逾期按标记时间计入，没有标记时间的按应还日期计入
+     */
+    public synchronized Map<String, Object> backfill(LocalDate until) {
+        long startTime = System.currentTimeMillis();
+        LocalDate end = until != null ? until : LocalDate.now();
+        LocalDateTime cutoff = end.atStartOfDay();
+
+        Criteria borrowed = Criteria.where("borrowDate").lt(cutoff);
+        Criteria returned = Criteria.where("returnDate").lt(cutoff);
+        Criteria overdue = new Criteria().orOperator(
+                Criteria.where("overdueAt").lt(cutoff),
+                new Criteria().andOperator(
+                        Criteria.where("overdueAt").is(null),
+                        Criteria.where("dueDate").lt(cutoff),
+                        new Criteria().orOperator(
+                                Criteria.where("status").is("OVERDUE"),
+                                Criteria.expr(() -> new Document("$gt", List.of("$returnDate", "$dueDate"))))));
+
+        int pipelines = 0;
+        for (String scope : new String[]{SCOPE_GLOBAL, SCOPE_BOOK, SCOPE_USER}) {
+            rollUp(scope, "borrowed", borrowed, "$borrowDate");
+            rollUp(scope, "returned", returned, "$returnDate");
+            rollUp(scope, "overdue", overdue, new Document("$ifNull", List.of("$overdueAt", "$dueDate")));
+            pipelines += 3;
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("finishedAt", LocalDateTime.now());
+        report.put("until", end.toString());
+        report.put("pipelines", pipelines);
+        report.put("rollups", mongoTemplate.count(new Query(), CirculationRollup.class));
+        report.put("elapsedMs", System.currentTimeMillis() - startTime);
+        lastBackfill = report;
+        System.out.println("流通趋势汇总回填完成: " + report);
+        return report;
+    }
+
+    /**
+     * 最近一次回填结果
+     */
+    public Map<String, Object> getLastBackfill() {
+        return lastBackfill;
+    }
+
+    /**
+     * 趋势查询：某个范围（全馆、某本书或某位读者）在[from, to]内按日、周（周一开始）或月合并的计数，
+     * 没有汇总文档的周期计为0
+     */
+    public Map<String, Object> timeseries(String scope, String key, LocalDate from, LocalDate to, String granularity) {
+        String normalizedScope = scope != null ? scope.toUpperCase() : SCOPE_GLOBAL;
+        if (!SCOPE_GLOBAL.equals(normalizedScope) && !SCOPE_BOOK.equals(normalizedScope)
+                && !SCOPE_USER.equals(normalizedScope)) {
+            throw new RuntimeException("不支持的统计范围：" + scope);
+        }
+        if (!SCOPE_GLOBAL.equals(normalizedScope) && (key == null || key.isBlank())) {
+            throw new RuntimeException("按图书或读者统计时必须指定ID");
+        }
+        String unit = granularity != null ? granularity.toLowerCase() : GRANULARITY_DAY;
+        if (!GRANULARITY_DAY.equals(unit) && !GRANULARITY_WEEK.equals(unit) && !GRANULARITY_MONTH.equals(unit)) {
+            throw new RuntimeException("不支持的时间粒度：" + granularity);
+        }
+        LocalDate end = to != null ? to : LocalDate.now();
+        LocalDate start = from != null ? from : end.minusDays(29);
+        if (start.isAfter(end)) {
+            throw new RuntimeException("开始日期不能晚于结束日期");
+        }
+        if (ChronoUnit.DAYS.between(start, end) >= MAX_DAYS) {
+            throw new RuntimeException("查询范围不能超过" + MAX_DAYS + "天");
+        }
+        String scopeKey = SCOPE_GLOBAL.equals(normalizedScope) ? null : key;
+
+        // 先按周期排好全部桶，再把汇总文档累加进去
+        Map<LocalDate, long[]> buckets = new LinkedHashMap<>();
+        for (LocalDate period = periodOf(start, unit); !period.isAfter(end); period = nextPeriod(period, unit)) {
+            buckets.put(period, new long[METRICS.length]);
+        }
+        Query query = new Query(Criteria.where("scope").is(normalizedScope).and("key").is(scopeKey)
+                .and("day").gte(start.toString()).lte(end.toString()))
+                .with(Sort.by(Sort.Direction.ASC, "day"));
+        long[] totals = new long[METRICS.length];
+        for (CirculationRollup rollup : mongoTemplate.find(query, CirculationRollup.class)) {
+            long[] bucket = buckets.get(periodOf(LocalDate.parse(rollup.getDay()), unit));
+            long[] values = {valueOf(rollup.getBorrowed()), valueOf(rollup.getReturned()),
+                    valueOf(rollup.getOverdue()), valueOf(rollup.getRenewed())};
+            for (int i = 0; i < METRICS.length; i++) {
+                bucket[i] += values[i];
+                totals[i] += values[i];
+            }
+        }
+
+        List<Map<String, Object>> series = new ArrayList<>();
+        for (Map.Entry<LocalDate, long[]> bucket : buckets.entrySet()) {
+            Map<String, Object> point = new LinkedHashMap<>();
+            point.put("period", bucket.getKey().toString());
+            for (int i = 0; i < METRICS.length; i++) {
+                point.put(METRICS[i], bucket.getValue()[i]);
+            }
+            series.add(point);
+        }
+        Map<String, Object> total = new LinkedHashMap<>();
+        for (int i = 0; i < METRICS.length; i++) {
+            total.put(METRICS[i], totals[i]);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("scope", normalizedScope);
+        result.put("id", scopeKey);
+        result.put("granularity", unit);
+        result.put("from", start.toString());
+        result.put("to", end.toString());
+        result.put("series", series);
+        result.put("totals", total);
+        return result;
+    }
+
+    /**
+     * 一种范围、一个指标的回填聚合：按(日期, 图书或读者)分组计数，写回汇总文档的对应字段
+     */
+    private void rollUp(String scope, String metric, Criteria criteria, Object date) {
+        String keyField = SCOPE_BOOK.equals(scope) ? "$bookId" : SCOPE_USER.equals(scope) ? "$userId" : null;
+        Document day = new Document("$dateToString", new Document("format", "%Y-%m-%d")
+                .append("date", date).append("timezone", ZoneId.systemDefault().getId()));
+        Document groupId = new Document("day", day).append("key", keyField);
+        Document id = new Document("$concat", List.of(scope, ":", new Document("$ifNull", List.of("$_id.key", "")),
+                ":", "$_id.day"));
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                context -> new Document("$group", new Document("_id", groupId).append("count", new Document("$sum", 1))),
+                context -> new Document("$project", new Document("_id", id)
+                        .append("scope", scope)
+                        .append("key", "$_id.key")
+                        .append("day", "$_id.day")
+                        .append(metric, "$count")
+                        .append("updateTime", new Date())),
+                // 按_id合并：已有的汇总文档只覆盖该指标，其他指标（如续借）保留
+                Aggregation.merge().intoCollection(mongoTemplate.getCollectionName(CirculationRollup.class))
+                        .whenMatched(MergeOperation.WhenDocumentsMatch.mergeDocuments())
+                        .whenDocumentsDontMatch(MergeOperation.WhenDocumentsDontMatch.insertNewDocument())
+                        .build())
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        mongoTemplate.aggregate(aggregation, BorrowRecord.class, Document.class);
+    }
+
+    /**
+     * 一次无序批量upsert累加各汇总文档。借还已经完成，汇总更新失败只记录日志
+     */
+    private void apply(Increments increments) {
+        if (increments.buckets.isEmpty()) {
+            return;
+        }
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, CirculationRollup.class);
+            for (Map.Entry<String, Bucket> entry : increments.buckets.entrySet()) {
+                Bucket bucket = entry.getValue();
+                Update update = new Update()
+                        .setOnInsert("scope", bucket.scope)
+                        .setOnInsert("key", bucket.key)
+                        .setOnInsert("day", bucket.day)
+                        .set("updateTime", now);
+                for (Map.Entry<String, Long> count : bucket.counts.entrySet()) {
+                    update.inc(count.getKey(), count.getValue());
+                }
+                bulk.upsert(new Query(Criteria.where("id").is(entry.getKey())), update);
+            }
+            bulk.execute();
+        } catch (Exception e) {
+            System.err.println("更新流通趋势汇总失败: " + e.getMessage());
+        }
+    }
+
+    private static String dayOf(LocalDateTime time) {
+        return (time != null ? time : LocalDateTime.now()).toLocalDate().toString();
+    }
+
+    private static LocalDate periodOf(LocalDate day, String unit) {
+        switch (unit) {
+            case GRANULARITY_WEEK:
+                return day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case GRANULARITY_MONTH:
+                return day.withDayOfMonth(1);
+            default:
+                return day;
+        }
+    }
+
+    private static LocalDate nextPeriod(LocalDate period, String unit) {
+        switch (unit) {
+            case GRANULARITY_WEEK:
+                return period.plusWeeks(1);
+            case GRANULARITY_MONTH:
+                return period.plusMonths(1);
+            default:
+                return period.plusDays(1);
+        }
+    }
+
+    private static long valueOf(Long value) {
+        return value != null ? value : 0L;
+    }
+
+    /**
+     * 汇总文档ID：范围:键:日期，全馆的键为空
+     */
+    private static String rollupId(String scope, String key, String day) {
+        return scope + ":" + (key != null ? key : "") + ":" + day;
+    }
+
+    /**
+     * 一次操作要累加的计数，每条记录同时计入全馆、所属图书和所属读者三份汇总
+     */
+    private static final class Increments {
+        private final Map<String, Bucket> buckets = new LinkedHashMap<>();
+
+        private void add(String bookId, String userId, String day, String metric, long count) {
+            addScope(SCOPE_GLOBAL, null, day, metric, count);
+            if (bookId != null) {
+                addScope(SCOPE_BOOK, bookId, day, metric, count);
+            }
+            if (userId != null) {
+                addScope(SCOPE_USER, userId, day, metric, count);
+            }
+        }
+
+        private void addScope(String scope, String key, String day, String metric, long count) {
+            buckets.computeIfAbsent(rollupId(scope, key, day), id -> new Bucket(scope, key, day))
+                    .counts.merge(metric, count, Long::sum);
+        }
+    }
+
+    private static final class Bucket {
+        private final String scope;
+        private final String key;
+        private final String day;
+        private final Map<String, Long> counts = new LinkedHashMap<>();
+
+        private Bucket(String scope, String key, String day) {
+            this.scope = scope;
+            this.key = key;
+            this.day = day;
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package com.library.librarysystem.service;
+
+import com.library.librarysystem.entity.Book;
+import com.library.librarysystem.entity.BorrowRecord;
+import com.library.librarysystem.entity.CirculationEvent;
+import com.library.librarysystem.entity.CirculationSnapshot;
+import com.library.librarysystem.entity.CirculationSnapshotChunk;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * 流通事件快照与重放
+ * 定期把库存视图和在借视图写成快照（分块保存），快照记录其包含的最大事件序号。
+ * 重建时读取最近的快照，再按序号重放之后的事件即可得到当前视图，不需要扫描借阅记录全集。
+ * 没有可用快照（首次运行，或快照之后的事件已被固定大小集合覆盖）时由当前数据生成
+ */
+@Service
+public class CirculationSnapshotService {
+
+    private static final String STATUS_WRITING = "WRITING";
+    private static final String STATUS_COMPLETE = "COMPLETE";
+
+    private static final String SOURCE_LIVE = "LIVE";
+    private static final String SOURCE_REPLAY = "REPLAY";
+
+    // 保留的快照个数
+    private static final int KEEP_SNAPSHOTS = 2;
+
+    // 每次insertMany写入的块数
+    private static final int CHUNKS_PER_INSERT = 20;
+
+    // 核对报告中列出的差异条数上限
+    private static final int MAX_SAMPLES = 20;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private CirculationEventLog eventLog;
+
+    @Value("${library.circulation.snapshot-chunk-size:2000}")
+    private int chunkSize;
+
+    private volatile Map<String, Object> lastSnapshotReport;
+
+    /**
+     * 生成一个快照：由最近的快照重放得到当前视图，没有可用快照时由当前数据生成
+     */
+    public synchronized Map<String, Object> takeSnapshot() {
+        long startTime = System.currentTimeMillis();
+        CirculationSnapshot last = latestSnapshot();
+        Replay replay = last != null ? replayFrom(last) : null;
+
+        CirculationState state;
+        String source;
+        if (replay != null) {
+            state = replay.state;
+            source = SOURCE_REPLAY;
+        } else {
+            state = loadLive();
+            source = SOURCE_LIVE;
+        }
+
+        CirculationSnapshot snapshot = new CirculationSnapshot();
+        snapshot.setSeq(state.getSeq());
+        snapshot.setStatus(STATUS_WRITING);
+        snapshot.setSource(source);
+        snapshot.setBooks(state.getStock().size());
+        snapshot.setLoans(state.getLoans().size());
+        snapshot = mongoTemplate.insert(snapshot);
+
+        int chunks = writeChunks(snapshot.getId(), state);
+        long elapsed = System.currentTimeMillis() - startTime;
+        mongoTemplate.updateFirst(new Query(Criteria.where("id").is(snapshot.getId())),
+                new Update().set("status", STATUS_COMPLETE).set("chunks", chunks).set("elapsedMillis", elapsed),
+                CirculationSnapshot.class);
+        removeOldSnapshots(snapshot);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("snapshotId", snapshot.getId());
+        report.put("seq", state.getSeq());
+        report.put("source", source);
+        report.put("books", state.getStock().size());
+        report.put("loans", state.getLoans().size());
+        report.put("chunks", chunks);
+        if (replay != null) {
+            report.put("eventsReplayed", replay.events);
+        }
+        report.put("elapsedMs", elapsed);
+        lastSnapshotReport = report;
+        System.out.println("流通快照完成: " + report);
+        return report;
+    }
+
+    /**
+     * 定时快照
+     */
+    @Scheduled(cron = "${library.circulation.snapshot-cron:0 */15 * * * *}")
+    public void snapshotQuietly() {
+        try {
+            takeSnapshot();
+        } catch (Exception e) {
+            System.err.println("流通快照失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 由最近的快照和之后的事件重建当前视图，返回重建耗时和规模（不修改任何数据）
+     */
+    public Map<String, Object> rebuild() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        rebuildState(report);
+        return report;
+    }
+
+    /**
+     * 核对：把重建出的视图与图书和借阅记录的当前数据逐条比较。
+     * 核对期间仍有借还时可能出现少量暂时的差异，重新核对后消失
+     */
+    public Map<String, Object> verify() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        CirculationState state = rebuildState(report);
+        if (state == null) {
+            return report;
+        }
+        CirculationState live = loadLive();
+        List<String> samples = new ArrayList<>();
+
+        int stockMismatches = 0;
+        for (Map.Entry<String, CirculationState.Stock> entry : live.getStock().entrySet()) {
+            CirculationState.Stock expected = entry.getValue();
+            CirculationState.Stock replayed = state.getStock().get(entry.getKey());
+            if (replayed == null || replayed.getAvailable() != expected.getAvailable()
+                    || replayed.getTotal() != expected.getTotal()) {
+                stockMismatches++;
+                sample(samples, "图书 " + entry.getKey() + " 当前 " + describe(expected) + "，重建 " + describe(replayed));
+            }
+        }
+        for (String bookId : state.getStock().keySet()) {
+            if (!live.getStock().containsKey(bookId)) {
+                stockMismatches++;
+                sample(samples, "图书 " + bookId + " 已不存在，重建结果中仍有库存记录");
+            }
+        }
+
+        int loanMismatches = 0;
+        for (Map.Entry<String, CirculationState.Loan> entry : live.getLoans().entrySet()) {
+            CirculationState.Loan expected = entry.getValue();
+            CirculationState.Loan replayed = state.getLoans().get(entry.getKey());
+            if (replayed == null || !sameLoan(expected, replayed)) {
+                loanMismatches++;
+                sample(samples, "借阅 " + entry.getKey() + " 当前 " + describe(expected) + "，重建 " + describe(replayed));
+            }
+        }
+        for (String borrowId : state.getLoans().keySet()) {
+            if (!live.getLoans().containsKey(borrowId)) {
+                loanMismatches++;
+                sample(samples, "借阅 " + borrowId + " 已不在借，重建结果中仍在借");
+            }
+        }
+
+        report.put("stockChecked", live.getStock().size());
+        report.put("stockMismatches", stockMismatches);
+        report.put("loansChecked", live.getLoans().size());
+        report.put("loanMismatches", loanMismatches);
+        report.put("consistent", stockMismatches == 0 && loanMismatches == 0);
+        report.put("samples", samples);
+        return report;
+    }
+
+    /**
+     * 最近一次快照结果
+     */
+    public Map<String, Object> getLastSnapshotReport() {
+        return lastSnapshotReport;
+    }
+
+    /**
+     * 重建视图并把耗时写入报告；没有可用快照时返回null
+     */
+    private CirculationState rebuildState(Map<String, Object> report) {
+        long startTime = System.currentTimeMillis();
+        CirculationSnapshot last = latestSnapshot();
+        if (last == null) {
+            report.put("success", false);
+            report.put("message", "尚无流通快照，请先生成快照");
+            return null;
+        }
+        Replay replay = replayFrom(last);
+        if (replay == null) {
+            report.put("success", false);
+            report.put("message", "快照之后的部分事件已被覆盖，请重新生成快照");
+            return null;
+        }
+        report.put("success", true);
+        report.put("snapshotId", last.getId());
+        report.put("snapshotSeq", last.getSeq());
+        report.put("seq", replay.state.getSeq());
+        report.put("eventsReplayed", replay.events);
+        report.put("books", replay.state.getStock().size());
+        report.put("loans", replay.state.getLoans().size());
+        report.put("loadMs", replay.loadMillis);
+        report.put("replayMs", replay.replayMillis);
+        report.put("elapsedMs", System.currentTimeMillis() - startTime);
+        report.put("eventLog", eventLog.stats());
+        return replay.state;
+    }
+
+    /**
+     * 读取快照并重放其后的事件。事件序号不连续（已被覆盖或未能写入）时返回null
+     */
+    private Replay replayFrom(CirculationSnapshot snapshot) {
+        long loadStart = System.currentTimeMillis();
+        CirculationState state = loadSnapshot(snapshot);
+        long loadMillis = System.currentTimeMillis() - loadStart;
+
+        // 先取目标序号再写入缓冲，保证序号不大于目标的事件都已落库
+        long target = eventLog.lastSeq();
+        eventLog.flush();
+
+        long replayStart = System.currentTimeMillis();
+        Query query = new Query(Criteria.where("seq").gt(snapshot.getSeq()).lte(target))
+                .with(Sort.by(Sort.Direction.ASC, "seq"));
+        long expectedSeq = snapshot.getSeq() + 1;
+        int events = 0;
+        // 归还事件可能先于对应的借出事件分配到序号，本次重放中已归还的借阅不再借出
+        Set<String> closed = new HashSet<>();
+        try (Stream<CirculationEvent> stream = mongoTemplate.stream(query, CirculationEvent.class)) {
+            for (CirculationEvent event : (Iterable<CirculationEvent>) stream::iterator) {
+                if (event.getSeq() != expectedSeq) {
+                    System.err.println("流通事件不连续: 期望序号 " + expectedSeq + "，读到 " + event.getSeq());
+                    return null;
+                }
+                expectedSeq++;
+                if (CirculationEventLog.RETURNED.equals(event.getType())) {
+                    closed.add(event.getBorrowId());
+                } else if (CirculationEventLog.BORROWED.equals(event.getType()) && closed.contains(event.getBorrowId())) {
+                    state.setSeq(event.getSeq());
+                    events++;
+                    continue;
+                }
+                state.apply(event);
+                events++;
+            }
+        }
+        if (expectedSeq <= target) {
+            System.err.println("流通事件不完整: 期望读到序号 " + target + "，实际到 " + (expectedSeq - 1));
+            return null;
+        }
+        state.setSeq(Math.max(state.getSeq(), target));
+        return new Replay(state, events, loadMillis, System.currentTimeMillis() - replayStart);
+    }
+
+    /**
+     * 由图书和在借记录的当前数据生成视图。先取序号再读数据：事件在对应写入完成后才追加，
+     * 序号不大于它的事件都已反映在读到的数据中，之后的事件重放时重复应用也不改变结果
+     */
+    private CirculationState loadLive() {
+        CirculationState state = new CirculationState();
+        state.setSeq(eventLog.lastSeq());
+
+        Query books = new Query();
+        books.fields().include("id").include("availableCopies").include("totalCopies").include("stockVersion");
+        try (Stream<Book> stream = mongoTemplate.stream(books, Book.class)) {
+            stream.forEach(book -> state.putStock(book.getId(),
+                    book.getAvailableCopies() != null ? book.getAvailableCopies() : 0,
+                    book.getTotalCopies() != null ? book.getTotalCopies() : 0,
+                    book.getStockVersion() != null ? book.getStockVersion() : 0L));
+        }
+
+        Query loans = new Query(Criteria.where("status").in(BorrowService.ACTIVE_STATUSES));
+        loans.fields().include("id").include("userId").include("bookId").include("dueDate").include("status");
+        try (Stream<BorrowRecord> stream = mongoTemplate.stream(loans, BorrowRecord.class)) {
+            stream.forEach(record -> state.putLoan(record.getId(), new CirculationState.Loan(
+                    record.getUserId(), record.getBookId(), record.getDueDate(), "OVERDUE".equals(record.getStatus()))));
+        }
+        return state;
+    }
+
+    private CirculationState loadSnapshot(CirculationSnapshot snapshot) {
+        CirculationState state = new CirculationState();
+        state.setSeq(snapshot.getSeq());
+        Query query = new Query(Criteria.where("snapshotId").is(snapshot.getId()))
+                .with(Sort.by(Sort.Direction.ASC, "index"));
+        try (Stream<CirculationSnapshotChunk> chunks = mongoTemplate.stream(query, CirculationSnapshotChunk.class)) {
+            chunks.forEach(chunk -> {
+                for (Map<String, Object> entry : chunk.getStock()) {
+                    state.putStock((String) entry.get("bookId"), ((Number) entry.get("available")).intValue(),
+                            ((Number) entry.get("total")).intValue(), ((Number) entry.get("version")).longValue());
+                }
+                for (Map<String, Object> entry : chunk.getLoans()) {
+                    Date dueDate = (Date) entry.get("dueDate");
+                    state.putLoan((String) entry.get("borrowId"), new CirculationState.Loan(
+                            (String) entry.get("userId"), (String) entry.get("bookId"),
+                            dueDate != null ? LocalDateTime.ofInstant(dueDate.toInstant(), ZoneId.systemDefault()) : null,
+                            Boolean.TRUE.equals(entry.get("overdue"))));
+                }
+            });
+        }
+        return state;
+    }
+
+    /**
+     * 按chunkSize条一块写入快照内容，返回块数
+     */
+    private int writeChunks(String snapshotId, CirculationState state) {
+        ChunkWriter writer = new ChunkWriter(snapshotId);
+        for (Map.Entry<String, CirculationState.Stock> entry : state.getStock().entrySet()) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("bookId", entry.getKey());
+            item.put("available", entry.getValue().getAvailable());
+            item.put("total", entry.getValue().getTotal());
+            item.put("version", entry.getValue().getVersion());
+            writer.current().getStock().add(item);
+            writer.added();
+        }
+        for (Map.Entry<String, CirculationState.Loan> entry : state.getLoans().entrySet()) {
+            CirculationState.Loan loan = entry.getValue();
+            Map<String, Object> item = new HashMap<>();
+            item.put("borrowId", entry.getKey());
+            item.put("userId", loan.getUserId());
+            item.put("bookId", loan.getBookId());
+            item.put("dueDate", loan.getDueDate() != null
+                    ? Date.from(loan.getDueDate().atZone(ZoneId.systemDefault()).toInstant()) : null);
+            item.put("overdue", loan.isOverdue());
+            writer.current().getLoans().add(item);
+            writer.added();
+        }
+        return writer.finish();
+    }
+
+    /**
+     * 删除较旧的快照和未写完的快照，保留最近KEEP_SNAPSHOTS个
+     */
+    private void removeOldSnapshots(CirculationSnapshot current) {
+        Query query = new Query(Criteria.where("id").ne(current.getId()))
+                .with(Sort.by(Sort.Direction.DESC, "seq"));
+        List<CirculationSnapshot> others = mongoTemplate.find(query, CirculationSnapshot.class);
+        int kept = 1;
+        for (CirculationSnapshot snapshot : others) {
+            if (STATUS_COMPLETE.equals(snapshot.getStatus()) && kept < KEEP_SNAPSHOTS) {
+                kept++;
+                continue;
+            }
+            mongoTemplate.remove(new Query(Criteria.where("snapshotId").is(snapshot.getId())),
+                    CirculationSnapshotChunk.class);
+            mongoTemplate.remove(new Query(Criteria.where("id").is(snapshot.getId())), CirculationSnapshot.class);
+        }
+    }
+
+    private CirculationSnapshot latestSnapshot() {
+        Query query = new Query(Criteria.where("status").is(STATUS_COMPLETE))
+                .with(Sort.by(Sort.Direction.DESC, "seq")).limit(1);
+        return mongoTemplate.findOne(query, CirculationSnapshot.class);
+    }
+
+    private static boolean sameLoan(CirculationState.Loan expected, CirculationState.Loan replayed) {
+        return Objects.equals(expected.getUserId(), replayed.getUserId())
+                && Objects.equals(expected.getBookId(), replayed.getBookId())
+                && Objects.equals(truncate(expected.getDueDate()), truncate(replayed.getDueDate()))
+                && expected.isOverdue() == replayed.isOverdue();
+    }
+
+    private static LocalDateTime truncate(LocalDateTime time) {
+        return time != null ? time.truncatedTo(ChronoUnit.MILLIS) : null;
+    }
+
+    private static void sample(List<String> samples, String message) {
+        if (samples.size() < MAX_SAMPLES) {
+            samples.add(message);
+        }
+    }
+
+    private static String describe(CirculationState.Stock stock) {
+        return stock == null ? "无记录" : "可借" + stock.getAvailable() + "/共" + stock.getTotal();
+    }
+
+    private static String describe(CirculationState.Loan loan) {
+        return loan == null ? "无记录"
+                : "用户" + loan.getUserId() + " 图书" + loan.getBookId() + " 应还" + loan.getDueDate()
+                + (loan.isOverdue() ? " 已逾期" : "");
+    }
+
+    /**
+     * 分块写入：每块chunkSize条，每积累若干块一次insertMany
+     */
+    private final class ChunkWriter {
+        private final String snapshotId;
+        private final List<CirculationSnapshotChunk> batch = new ArrayList<>();
+        private CirculationSnapshotChunk chunk;
+        private int count;
+        private int chunks;
+
+        private ChunkWriter(String snapshotId) {
+            this.snapshotId = snapshotId;
+            this.chunk = new CirculationSnapshotChunk(snapshotId, 0);
+        }
+
+        private CirculationSnapshotChunk current() {
+            return chunk;
+        }
+
+        private void added() {
+            if (++count < chunkSize) {
+                return;
+            }
+            batch.add(chunk);
+            chunk = new CirculationSnapshotChunk(snapshotId, ++chunks);
+            count = 0;
+            if (batch.size() >= CHUNKS_PER_INSERT) {
+                mongoTemplate.insert(new ArrayList<>(batch), CirculationSnapshotChunk.class);
+                batch.clear();
+            }
+        }
+
+        private int finish() {
+            if (count > 0) {
+                batch.add(chunk);
+                chunks++;
+            }
+            if (!batch.isEmpty()) {
+                mongoTemplate.insert(new ArrayList<>(batch), CirculationSnapshotChunk.class);
+            }
+            return chunks;
+        }
+    }
+
+    private static final class Replay {
+        private final CirculationState state;
+        private final int events;
+        private final long loadMillis;
+        private final long replayMillis;
+
+        private Replay(CirculationState state, int events, long loadMillis, long replayMillis) {
+            this.state = state;
+            this.events = events;
+            this.loadMillis = loadMillis;
+            this.replayMillis = replayMillis;
+        }
+    }
+}
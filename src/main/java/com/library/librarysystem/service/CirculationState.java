@@ -0,0 +1,149 @@
+package com.library.librarysystem.service;
+
+import com.library.librarysystem.entity.CirculationEvent;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 由流通事件重放得到的库存视图和在借视图
+ * 库存事件携带变更后的完整数量和版本号，只接受版本更高的记录；
+ * 借还事件按借阅ID覆盖或删除。因此同一事件重复应用、或从稍旧的状态开始重放，结果都相同
+ */
+public class CirculationState {
+
+    private final Map<String, Stock> stock = new HashMap<>();
+    private final Map<String, Loan> loans = new HashMap<>();
+    private long seq;
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    public Map<String, Stock> getStock() {
+        return stock;
+    }
+
+    public Map<String, Loan> getLoans() {
+        return loans;
+    }
+
+    /**
+     * 应用一条事件
+     */
+    public void apply(CirculationEvent event) {
+        switch (event.getType()) {
+            case CirculationEventLog.STOCK_ADJUSTED:
+                putStock(event.getBookId(), valueOf(event.getAvailableCopies()), valueOf(event.getTotalCopies()),
+                        event.getStockVersion() != null ? event.getStockVersion() : 0L);
+                break;
+            case CirculationEventLog.BOOK_REMOVED:
+                stock.remove(event.getBookId());
+                break;
+            case CirculationEventLog.BORROWED:
+                loans.put(event.getBorrowId(), new Loan(event.getUserId(), event.getBookId(), event.getDueDate(), false));
+                break;
+            case CirculationEventLog.RETURNED:
+                loans.remove(event.getBorrowId());
+                break;
+            case CirculationEventLog.RENEWED:
+                Loan renewed = loans.get(event.getBorrowId());
+                if (renewed != null) {
+                    renewed.dueDate = event.getDueDate();
+                    renewed.overdue = false;
+                }
+                break;
+            case CirculationEventLog.OVERDUE:
+                // 截止时间之前到期且仍为借出状态的记录全部转为逾期
+                for (Loan loan : loans.values()) {
+                    if (!loan.overdue && loan.dueDate != null && loan.dueDate.isBefore(event.getDueDate())) {
+                        loan.overdue = true;
+                    }
+                }
+                break;
+            default:
+                // 未知类型（新版本写入的事件）忽略
+                break;
+        }
+        if (event.getSeq() != null && event.getSeq() > seq) {
+            seq = event.getSeq();
+        }
+    }
+
+    /**
+     * 写入一本书的库存，已有版本更高的记录时忽略
+     */
+    public void putStock(String bookId, int available, int total, long version) {
+        Stock current = stock.get(bookId);
+        if (current == null || version > current.version) {
+            stock.put(bookId, new Stock(available, total, version));
+        }
+    }
+
+    public void putLoan(String borrowId, Loan loan) {
+        loans.put(borrowId, loan);
+    }
+
+    private static int valueOf(Integer value) {
+        return value != null ? value : 0;
+    }
+
+    public static final class Stock {
+        private final int available;
+        private final int total;
+        private final long version;
+
+        public Stock(int available, int total, long version) {
+            this.available = available;
+            this.total = total;
+            this.version = version;
+        }
+
+        public int getAvailable() {
+            return available;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    public static final class Loan {
+        private final String userId;
+        private final String bookId;
+        private LocalDateTime dueDate;
+        private boolean overdue;
+
+        public Loan(String userId, String bookId, LocalDateTime dueDate, boolean overdue) {
+            this.userId = userId;
+            this.bookId = bookId;
+            this.dueDate = dueDate;
+            this.overdue = overdue;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public String getBookId() {
+            return bookId;
+        }
+
+        public LocalDateTime getDueDate() {
+            return dueDate;
+        }
+
+        public boolean isOverdue() {
+            return overdue;
+        }
+    }
+}
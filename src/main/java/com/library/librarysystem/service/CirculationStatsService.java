@@ -0,0 +1,186 @@
+package com.library.librarysystem.service;
+
+import com.library.librarysystem.entity.BorrowRecord;
+import com.library.librarysystem.entity.CirculationStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 借阅统计文档
+ * 总借阅、未归还、逾期、已归还数量保存在一份统计文档中，借出、归还、续借和逾期标记成功后以$inc原子地累加，
+ * 仪表板只读取这一份文档，不再按借阅记录计数。
+ * 文档不存在时（首次启动或被删除）由借阅记录计数生成一次；逾期数量为定时任务已标记为逾期的记录数
+ */
+@Service
+public class CirculationStatsService {
+
+    public static final String GLOBAL = "global";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * 应用就绪后确认统计文档存在
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        try {
+            if (mongoTemplate.findById(GLOBAL, CirculationStats.class) == null) {
+                seed();
+            }
+        } catch (Exception e) {
+            System.err.println("初始化借阅统计失败，首次读取时重试: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 新增借出
+     */
+    public void borrowed(int count) {
+        if (count > 0) {
+            apply(new Update().inc("totalBorrows", count).inc("currentBorrows", count));
+        }
+    }
+
+    /**
+     * 归还，overdueCount为其中归还前已标记逾期的数量
+     */
+    public void returned(int count, int overdueCount) {
+        if (count > 0) {
+            Update update = new Update().inc("currentBorrows", -count).inc("returnedBorrows", count);
+            if (overdueCount > 0) {
+                update.inc("overdueBorrows", -overdueCount);
+            }
+            apply(update);
+        }
+    }
+
+    /**
+     * 续借，逾期记录续借后恢复为借阅中
+     */
+    public void renewed(boolean wasOverdue) {
+        Update update = new Update().inc("renewals", 1);
+        if (wasOverdue) {
+            update.inc("overdueBorrows", -1);
+        }
+        apply(update);
+    }
+
+    /**
+     * 定时任务新标记的逾期数量
+     */
+    public void overdue(long count) {
+        if (count > 0) {
+            apply(new Update().inc("overdueBorrows", count));
+        }
+    }
+
+    /**
+     * 读取统计文档
+     */
+    public Map<String, Object> getStatistics() {
+        return getStatistics(0);
+    }
+
+    /**
+     * 读取统计文档，maxTimeMillis大于0时为数据库端的最长执行时间，超过时抛出异常
+     */
+    public Map<String, Object> getStatistics(long maxTimeMillis) {
+        Query query = new Query(Criteria.where("id").is(GLOBAL));
+        if (maxTimeMillis > 0) {
+            query.maxTime(Duration.ofMillis(maxTimeMillis));
+        }
+        CirculationStats stats = mongoTemplate.findOne(query, CirculationStats.class);
+        if (stats == null) {
+            stats = seed();
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("totalBorrows", valueOf(stats.getTotalBorrows()));
+        result.put("currentBorrows", valueOf(stats.getCurrentBorrows()));
+        result.put("overdueBorrows", valueOf(stats.getOverdueBorrows()));
+        result.put("returnedBorrows", valueOf(stats.getReturnedBorrows()));
+        result.put("renewals", valueOf(stats.getRenewals()));
+        result.put("updateTime", stats.getUpdateTime());
+        return result;
+    }
+
+    /**
+     * 由借阅记录重新计数并覆盖统计文档，用于修正偏差。
+     * 计数期间发生的借还不会计入，应在借还较少时执行
+     */
+    public Map<String, Object> rebuild() {
+        CirculationStats stats = count();
+        // 续借次数无法由借阅记录计算，沿用原值
+        CirculationStats existing = mongoTemplate.findById(GLOBAL, CirculationStats.class);
+        if (existing != null && existing.getRenewals() != null) {
+            stats.setRenewals(existing.getRenewals());
+        }
+        mongoTemplate.save(stats);
+        System.out.println("借阅统计已重新计数: 总借阅 " + stats.getTotalBorrows() + "，未归还 " + stats.getCurrentBorrows()
+                + "，逾期 " + stats.getOverdueBorrows() + "，已归还 " + stats.getReturnedBorrows());
+        return getStatistics();
+    }
+
+    /**
+     * 以$inc累加统计文档；文档不存在时由借阅记录计数生成（计数已包含本次变更）。
+     * 借还已经完成，统计更新失败只记录日志
+     */
+    private void apply(Update update) {
+        try {
+            update.set("updateTime", LocalDateTime.now());
+            long matched = mongoTemplate.updateFirst(new Query(Criteria.where("id").is(GLOBAL)), update,
+                    CirculationStats.class).getMatchedCount();
+            if (matched == 0) {
+                seed();
+            }
+        } catch (Exception e) {
+            System.err.println("更新借阅统计失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 统计文档不存在时计数生成；其他线程或实例已生成时使用已有的
+     */
+    private CirculationStats seed() {
+        CirculationStats stats = count();
+        try {
+            mongoTemplate.insert(stats);
+            System.out.println("已生成借阅统计文档");
+            return stats;
+        } catch (DuplicateKeyException e) {
+            CirculationStats existing = mongoTemplate.findById(GLOBAL, CirculationStats.class);
+            return existing != null ? existing : stats;
+        }
+    }
+
+    private CirculationStats count() {
+        CirculationStats stats = new CirculationStats();
+        stats.setId(GLOBAL);
+        stats.setTotalBorrows(mongoTemplate.count(new Query(), BorrowRecord.class));
+        stats.setCurrentBorrows(mongoTemplate.count(
+                new Query(Criteria.where("status").in(BorrowService.ACTIVE_STATUSES)), BorrowRecord.class));
+        stats.setOverdueBorrows(mongoTemplate.count(
+                new Query(Criteria.where("status").is("OVERDUE")), BorrowRecord.class));
+        stats.setReturnedBorrows(mongoTemplate.count(
+                new Query(Criteria.where("status").is("RETURNED")), BorrowRecord.class));
+        stats.setRenewals(0L);
+        stats.setRebuildTime(LocalDateTime.now());
+        return stats;
+    }
+
+    private static long valueOf(Long value) {
+        return value != null ? value : 0L;
+    }
+}
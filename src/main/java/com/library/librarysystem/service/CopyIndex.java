@@ -0,0 +1,147 @@
+package com.library.librarysystem.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 副本条码的内存索引
+ * 条码 -> (图书ID, 副本编号)，以及每本书的在馆位图（与图书文档中的copyWords一致），
+ * 服务台扫码时不必查询数据库即可定位副本并判断是否在馆。
+ * 数据库仍是唯一依据：借出、归还以位图中对应位为条件原子地翻转，成功后用返回的文档刷新这里的位图
+ */
+@Component
+public class CopyIndex {
+
+    private final Map<String, CopyRef> barcodes = new HashMap<>();
+    private final Map<String, List<String>> barcodesByBook = new HashMap<>();
+    private final Map<String, long[]> shelves = new HashMap<>();
+
+    /**
+     * 副本编号对应的位图元素下标
+     */
+    public static int wordOf(int copyIndex) {
+        return copyIndex >>> 6;
+    }
+
+    /**
+     * 副本编号在位图元素中的位
+     */
+    public static int bitOf(int copyIndex) {
+        return copyIndex & 63;
+    }
+
+    public synchronized CopyRef lookup(String barcode) {
+        return barcodes.get(barcode);
+    }
+
+    public synchronized void put(String barcode, String bookId, int copyIndex) {
+        if (barcodes.put(barcode, new CopyRef(barcode, bookId, copyIndex)) == null) {
+            barcodesByBook.computeIfAbsent(bookId, id -> new ArrayList<>()).add(barcode);
+        }
+    }
+
+    /**
+     * 用图书文档中的位图刷新内存位图，文档中没有位图（未登记副本或只读取了部分字段）时忽略
+     */
+    public synchronized void updateShelf(String bookId, List<Long> words) {
+        if (words == null) {
+            return;
+        }
+        long[] shelf = new long[words.size()];
+        for (int i = 0; i < shelf.length; i++) {
+            Long word = words.get(i);
+            shelf[i] = word != null ? word : 0L;
+        }
+        shelves.put(bookId, shelf);
+    }
+
+    /**
+     * 副本是否在馆
+     */
+    public synchronized boolean isOnShelf(String bookId, int copyIndex) {
+        long[] shelf = shelves.get(bookId);
+        int word = wordOf(copyIndex);
+        return shelf != null && word < shelf.length && (shelf[word] & (1L << bitOf(copyIndex))) != 0;
+    }
+
+    /**
+     * 在馆副本数（位图中置位的个数）
+     */
+    public synchronized int onShelfCount(String bookId) {
+        long[] shelf = shelves.get(bookId);
+        int count = 0;
+        if (shelf != null) {
+            for (long word : shelf) {
+                count += Long.bitCount(word);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 某本书已登记的全部副本，按副本编号排列
+     */
+    public synchronized List<CopyRef> copiesOf(String bookId) {
+        List<CopyRef> copies = new ArrayList<>();
+        for (String barcode : barcodesByBook.getOrDefault(bookId, List.of())) {
+            copies.add(barcodes.get(barcode));
+        }
+        copies.sort((a, b) -> Integer.compare(a.getCopyIndex(), b.getCopyIndex()));
+        return copies;
+    }
+
+    public synchronized void removeBook(String bookId) {
+        List<String> removed = barcodesByBook.remove(bookId);
+        if (removed != null) {
+            for (String barcode : removed) {
+                barcodes.remove(barcode);
+            }
+        }
+        shelves.remove(bookId);
+    }
+
+    public synchronized void clear() {
+        barcodes.clear();
+        barcodesByBook.clear();
+        shelves.clear();
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("barcodes", barcodes.size());
+        stats.put("trackedTitles", shelves.size());
+        return stats;
+    }
+
+    /**
+     * 条码对应的副本
+     */
+    public static final class CopyRef {
+        private final String barcode;
+        private final String bookId;
+        private final int copyIndex;
+
+        public CopyRef(String barcode, String bookId, int copyIndex) {
+            this.barcode = barcode;
+            this.bookId = bookId;
+            this.copyIndex = copyIndex;
+        }
+
+        public String getBarcode() {
+            return barcode;
+        }
+
+        public String getBookId() {
+            return bookId;
+        }
+
+        public int getCopyIndex() {
+            return copyIndex;
+        }
+    }
+}
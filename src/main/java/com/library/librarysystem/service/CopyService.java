@@ -0,0 +1,313 @@
+package com.library.librarysystem.service;
+
+import com.library.librarysystem.entity.Book;
+import com.library.librarysystem.entity.BookCopy;
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * 副本条码登记与按副本借还
+ * 每本书的副本按登记顺序编号，图书文档中的copyWords位图记录各副本是否在馆。
+ * 服务台借出以该位置位且可借数量不少于1为条件，一条更新同时清位、可借数量减一；
+ * 归还时置位，没有人排队时同一条更新中可借数量加一（不超过总数量）
+ */
+@Service
+public class CopyService {
+
+    // 单次登记的最大条码数
+    public static final int MAX_BARCODES = 500;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private BookService bookService;
+
+    @Autowired
+    private CopyIndex copyIndex;
+
+    /**
+     * 应用就绪后加载条码索引和在馆位图
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadIndex() {
+        try {
+            copyIndex.clear();
+            Query copies = new Query(Criteria.where("copyIndex").ne(null));
+            try (Stream<BookCopy> stream = mongoTemplate.stream(copies, BookCopy.class)) {
+                stream.forEach(copy -> copyIndex.put(copy.getId(), copy.getBookId(), copy.getCopyIndex()));
+            }
+            Query books = new Query(Criteria.where("copyWords").exists(true));
+            books.fields().include("id").include("copyWords");
+            try (Stream<Book> stream = mongoTemplate.stream(books, Book.class)) {
+                stream.forEach(book -> copyIndex.updateShelf(book.getId(), book.getCopyWords()));
+            }
+            System.out.println("副本条码索引加载完成: " + copyIndex.stats());
+        } catch (Exception e) {
+            System.err.println("加载副本条码索引失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 按条码查找副本（优先读内存索引），未登记返回null
+     */
+    public CopyIndex.CopyRef findCopy(String barcode) {
+        if (barcode == null || barcode.isBlank()) {
+            return null;
+        }
+        CopyIndex.CopyRef ref = copyIndex.lookup(barcode.trim());
+        if (ref != null) {
+            return ref;
+        }
+        BookCopy copy = mongoTemplate.findById(barcode.trim(), BookCopy.class);
+        if (copy == null || copy.getCopyIndex() == null) {
+            return null;
+        }
+        copyIndex.put(copy.getId(), copy.getBookId(), copy.getCopyIndex());
+        return copyIndex.lookup(copy.getId());
+    }
+
+    /**
+     * 副本是否在馆（内存位图）
+     */
+    public boolean isOnShelf(CopyIndex.CopyRef ref) {
+        return copyIndex.isOnShelf(ref.getBookId(), ref.getCopyIndex());
+    }
+
+    /**
+     * 某本书的全部副本及在馆状态
+     */
+    public List<Map<String, Object>> getCopies(String bookId) {
+        List<Map<String, Object>> copies = new ArrayList<>();
+        for (CopyIndex.CopyRef ref : copyIndex.copiesOf(bookId)) {
+            Map<String, Object> copy = new LinkedHashMap<>();
+            copy.put("barcode", ref.getBarcode());
+            copy.put("copyIndex", ref.getCopyIndex());
+            copy.put("onShelf", isOnShelf(ref));
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    /**
+     * 为图书登记副本条码：新副本依次编号并标记为在馆。
+     * 登记的副本数超过总数量时，总数量和可借数量增加超出的部分
+     */
+    public Book registerCopies(String bookId, List<String> barcodes) {
+        List<String> codes = new ArrayList<>(new LinkedHashSet<>(trimmed(barcodes)));
+        if (codes.isEmpty()) {
+            throw new RuntimeException("请至少输入一个条码");
+        }
+        if (codes.size() > MAX_BARCODES) {
+            throw new RuntimeException("单次最多登记" + MAX_BARCODES + "个条码");
+        }
+        if (bookService.getBookById(bookId) == null) {
+            throw new RuntimeException("图书不存在");
+        }
+
+        // 先占用条码，重复的条码由主键唯一约束拒绝
+        List<BookCopy> copies = new ArrayList<>();
+        for (String code : codes) {
+            copies.add(new BookCopy(code, bookId));
+        }
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BookCopy.class).insert(copies).execute();
+        } catch (BulkOperationException e) {
+            Set<String> duplicates = new HashSet<>();
+            for (BulkWriteError error : e.getErrors()) {
+                duplicates.add(codes.get(error.getIndex()));
+            }
+            List<String> inserted = new ArrayList<>(codes);
+            inserted.removeAll(duplicates);
+            removeCopies(inserted);
+            throw new RuntimeException("条码已存在：" + String.join("，", duplicates));
+        }
+
+        Book claimed = claimCopyRange(bookId, codes.size());
+        if (claimed == null) {
+            removeCopies(codes);
+            throw new RuntimeException("图书信息已被修改，请重试");
+        }
+
+        // 编号区间已占用，写入各条码的编号并把新副本置为在馆
+        int start = claimed.getCopyCount() - codes.size();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BookCopy.class);
+        Map<Integer, Long> masks = new TreeMap<>();
+        for (int i = 0; i < codes.size(); i++) {
+            int index = start + i;
+            bulk.updateOne(new Query(Criteria.where("id").is(codes.get(i))), new Update().set("copyIndex", index));
+            masks.merge(CopyIndex.wordOf(index), 1L << CopyIndex.bitOf(index), (a, b) -> a | b);
+        }
+        bulk.execute();
+
+        Update update = new Update();
+        for (Map.Entry<Integer, Long> mask : masks.entrySet()) {
+            update.bitwise("copyWords." + mask.getKey()).or(mask.getValue());
+        }
+        Book updated = mongoTemplate.findAndModify(new Query(Criteria.where("id").is(bookId)), update,
+                FindAndModifyOptions.options().returnNew(true), Book.class);
+        if (updated == null) {
+            throw new RuntimeException("图书不存在");
+        }
+        for (int i = 0; i < codes.size(); i++) {
+            copyIndex.put(codes.get(i), bookId, start + i);
+        }
+        bookService.onStockChanged(updated);
+        return updated;
+    }
+
+    /**
+     * 服务台按副本借出：该副本在馆且可借数量不少于1时，一条更新清除在馆位并扣减可借数量。
+     * 返回更新后的图书，条件不满足时返回null
+     */
+    public Book checkOut(CopyIndex.CopyRef ref) {
+        String word = "copyWords." + CopyIndex.wordOf(ref.getCopyIndex());
+        int bit = CopyIndex.bitOf(ref.getCopyIndex());
+        Query query = new Query(Criteria.where("id").is(ref.getBookId())
+                .and("availableCopies").gte(1)
+                .and(word).bits().allSet(List.of(bit)));
+        Update update = new Update().bitwise(word).and(~(1L << bit))
+                .inc("availableCopies", -1).inc("stockVersion", 1L)
+                .set("updateTime", LocalDateTime.now());
+        Book updated = mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), Book.class);
+        if (updated != null) {
+            bookService.onStockChanged(updated);
+        }
+        return updated;
+    }
+
+    /**
+     * 借出条件不满足时判断原因（只在失败时多一次读取）
+     */
+    public RuntimeException checkOutRejection(CopyIndex.CopyRef ref) {
+        Book book = mongoTemplate.findById(ref.getBookId(), Book.class);
+        if (book == null) {
+            return new RuntimeException("图书不存在");
+        }
+        copyIndex.updateShelf(book.getId(), book.getCopyWords());
+        if (!copyIndex.isOnShelf(ref.getBookId(), ref.getCopyIndex())) {
+            return new RuntimeException("该副本已借出");
+        }
+        return new RuntimeException("暂无可借副本（已被预约或在线借阅占用）");
+    }
+
+    /**
+     * 副本归还入馆：置在馆位；release为true时（没有分配给预约读者）同一条更新中可借数量加一，不超过总数量。
+     * 该位已置位（例如副本在借出期间才登记）时，可借数量按数量方式归还
+     */
+    public void checkIn(CopyIndex.CopyRef ref, boolean release) {
+        String word = "copyWords." + CopyIndex.wordOf(ref.getCopyIndex());
+        int bit = CopyIndex.bitOf(ref.getCopyIndex());
+        long mask = 1L << bit;
+        Criteria outOnLoan = Criteria.where("id").is(ref.getBookId()).and(word).bits().allClear(List.of(bit));
+
+        if (release) {
+            Document belowTotal = new Document("$lt", List.of("$availableCopies", "$totalCopies"));
+            Query query = new Query(Criteria.where("id").is(ref.getBookId()).and(word).bits().allClear(List.of(bit))
+                    .andOperator(Criteria.expr(() -> belowTotal)));
+            Update update = new Update().bitwise(word).or(mask)
+                    .inc("availableCopies", 1).inc("stockVersion", 1L)
+                    .set("updateTime", LocalDateTime.now());
+            Book updated = mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().returnNew(true), Book.class);
+            if (updated != null) {
+                bookService.onStockChanged(updated);
+                return;
+            }
+        }
+
+        // 只置在馆位（分配给预约读者，或可借数量已达总数量）
+        Book updated = mongoTemplate.findAndModify(new Query(outOnLoan), new Update().bitwise(word).or(mask),
+                FindAndModifyOptions.options().returnNew(true), Book.class);
+        if (updated != null) {
+            copyIndex.updateShelf(updated.getId(), updated.getCopyWords());
+        } else if (release) {
+            bookService.releaseCopies(ref.getBookId(), 1);
+        }
+    }
+
+    /**
+     * 条码索引统计
+     */
+    public Map<String, Object> stats() {
+        return copyIndex.stats();
+    }
+
+    /**
+     * 以读到的已登记副本数为条件占用编号区间：副本数增加、位图补足元素，
+     * 超出总数量的部分计入总数量和可借数量。期间有并发登记时重试
+     */
+    private Book claimCopyRange(String bookId, int count) {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            Book book = mongoTemplate.findById(bookId, Book.class);
+            if (book == null) {
+                return null;
+            }
+            int start = book.getCopyCount() != null ? book.getCopyCount() : 0;
+            int end = start + count;
+            int words = book.getCopyWords() != null ? book.getCopyWords().size() : 0;
+            int total = book.getTotalCopies() != null ? book.getTotalCopies() : 0;
+
+            Update update = new Update().set("copyCount", end).set("updateTime", LocalDateTime.now());
+            int missingWords = CopyIndex.wordOf(end - 1) + 1 - words;
+            if (missingWords > 0) {
+                Object[] zeros = new Object[missingWords];
+                Arrays.fill(zeros, 0L);
+                update.push("copyWords").each(zeros);
+            }
+            if (end > total) {
+                update.inc("totalCopies", end - total).inc("availableCopies", end - total).inc("stockVersion", 1L);
+            }
+            Query query = new Query(Criteria.where("id").is(bookId).and("copyCount").is(book.getCopyCount())
+                    .and("totalCopies").is(book.getTotalCopies()));
+            Book claimed = mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().returnNew(true), Book.class);
+            if (claimed != null) {
+                return claimed;
+            }
+        }
+        return null;
+    }
+
+    private void removeCopies(List<String> barcodes) {
+        if (!barcodes.isEmpty()) {
+            mongoTemplate.remove(new Query(Criteria.where("id").in(barcodes)), BookCopy.class);
+        }
+    }
+
+    private static List<String> trimmed(List<String> barcodes) {
+        List<String> codes = new ArrayList<>();
+        if (barcodes != null) {
+            for (String barcode : barcodes) {
+                if (barcode != null && !barcode.isBlank()) {
+                    codes.add(barcode.trim());
+                }
+            }
+        }
+        return codes;
+    }
+}
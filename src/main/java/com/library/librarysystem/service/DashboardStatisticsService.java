@@ -0,0 +1,115 @@
+package com.library.librarysystem.service;
+
+import com.mongodb.MongoExecutionTimeoutException;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 仪表板统计
+ * 用户数、各角色用户数、图书数、可借图书数都是只计数的查询，连同借阅统计文档的读取同时提交到一个有界线程池，
+ * 耗时取决于最慢的一项而不是各项之和。每项查询带数据库端的最长执行时间（maxTimeMS），超过时由数据库终止查询，
+ * 线程随之释放；超时或失败的项记为0并在结果中列出，不影响其他项
+ */
+@Service
+public class DashboardStatisticsService {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private BookService bookService;
+
+    @Autowired
+    private CirculationStatsService circulationStatsService;
+
+    // 等待结果的时间比数据库端的最长执行时间多出的余量
+    private static final long WAIT_MARGIN_MILLIS = 1000;
+
+    private final long timeoutMillis;
+
+    private final ThreadPoolExecutor executor;
+
+    public DashboardStatisticsService(@Value("${library.stats.query-threads:6}") int threads,
+                                      @Value("${library.stats.queue-capacity:60}") int queueCapacity,
+                                      @Value("${library.stats.query-timeout-ms:2000}") long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        AtomicInteger sequence = new AtomicInteger();
+        // 队列有上限，仪表板被频繁刷新时多出的请求直接失败，不会堆积查询
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "dashboard-stats-" + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 并发查询全部统计项，返回totalUsers、totalReaders、totalAdmins、totalBooks、availableBooks和borrowStats；
+     * 有项目超时或失败时failedItems列出这些项
+     */
+    public Map<String, Object> collect() {
+        long startTime = System.currentTimeMillis();
+        Map<String, CompletableFuture<Object>> queries = new LinkedHashMap<>();
+        queries.put("totalUsers", submit(() -> userService.countUsers(null, timeoutMillis)));
+        queries.put("totalReaders", submit(() -> userService.countUsers("READER", timeoutMillis)));
+        queries.put("totalAdmins", submit(() -> userService.countUsers("ADMIN", timeoutMillis)));
+        queries.put("totalBooks", submit(() -> bookService.countBooks(false, timeoutMillis)));
+        queries.put("availableBooks", submit(() -> bookService.countBooks(true, timeoutMillis)));
+        queries.put("borrowStats", submit(() -> circulationStatsService.getStatistics(timeoutMillis)));
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        List<String> failedItems = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<Object>> query : queries.entrySet()) {
+            try {
+                stats.put(query.getKey(), query.getValue().join());
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                String reason = cause instanceof TimeoutException || cause instanceof MongoExecutionTimeoutException
+                        || cause instanceof QueryTimeoutException ? "超时" : cause.getMessage();
+                System.err.println("统计项 " + query.getKey() + " 查询失败: " + reason);
+                failedItems.add(query.getKey());
+                stats.put(query.getKey(), "borrowStats".equals(query.getKey()) ? Map.of() : 0L);
+            }
+        }
+        if (!failedItems.isEmpty()) {
+            stats.put("failedItems", failedItems);
+        }
+        stats.put("elapsedMs", System.currentTimeMillis() - startTime);
+        return stats;
+    }
+
+    /**
+     * 查询本身由数据库按maxTimeMS终止；等待再多给一段余量，只在网络无响应时兜底，不让页面一直等待
+     */
+    private CompletableFuture<Object> submit(Supplier<?> query) {
+        try {
+            return CompletableFuture.<Object>supplyAsync(query::get, executor)
+                    .orTimeout(timeoutMillis + WAIT_MARGIN_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new RuntimeException("统计查询繁忙"));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
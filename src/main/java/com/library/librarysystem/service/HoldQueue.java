@@ -0,0 +1,104 @@
+package com.library.librarysystem.service;
+
+import com.library.librarysystem.entity.Hold;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 预约排队的内存索引
+ * 每本书一个按预约时间排列的先进先出队列（预约ID -> 用户ID），归还时直接取队首，
+ * 不必为每次归还查询数据库；没有人排队的书（绝大多数）只需一次内存判断。
+ * 数据库中的预约状态仍是唯一依据，分配时以状态为WAITING为条件更新，队列只提供候选顺序
+ */
+@Component
+public class HoldQueue {
+
+    private final Map<String, LinkedHashMap<String, String>> queues = new HashMap<>();
+
+    /**
+     * 加入队尾
+     */
+    public synchronized void add(String bookId, String holdId, String userId) {
+        queues.computeIfAbsent(bookId, id -> new LinkedHashMap<>()).put(holdId, userId);
+    }
+
+    /**
+     * 移出队列（已分配、取消或状态已变化）
+     */
+    public synchronized void remove(String bookId, String holdId) {
+        LinkedHashMap<String, String> queue = queues.get(bookId);
+        if (queue != null && queue.remove(holdId) != null && queue.isEmpty()) {
+            queues.remove(bookId);
+        }
+    }
+
+    /**
+     * 队首的预约ID，没有人排队时返回null
+     */
+    public synchronized String peek(String bookId) {
+        LinkedHashMap<String, String> queue = queues.get(bookId);
+        return queue == null ? null : queue.keySet().iterator().next();
+    }
+
+    /**
+     * 排队位置，从1开始，不在队列中返回0
+     */
+    public synchronized int position(String bookId, String holdId) {
+        LinkedHashMap<String, String> queue = queues.get(bookId);
+        if (queue == null) {
+            return 0;
+        }
+        int position = 1;
+        for (String id : queue.keySet()) {
+            if (id.equals(holdId)) {
+                return position;
+            }
+            position++;
+        }
+        return 0;
+    }
+
+    /**
+     * 排队人数
+     */
+    public synchronized int size(String bookId) {
+        LinkedHashMap<String, String> queue = queues.get(bookId);
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * 有人排队的图书
+     */
+    public synchronized List<String> bookIds() {
+        return new ArrayList<>(queues.keySet());
+    }
+
+    /**
+     * 按预约时间顺序的排队中预约重建队列
+     */
+    public synchronized void rebuild(List<Hold> waiting) {
+        queues.clear();
+        for (Hold hold : waiting) {
+            add(hold.getBookId(), hold.getId(), hold.getUserId());
+        }
+    }
+
+    /**
+     * 排队统计
+     */
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        int waiting = 0;
+        for (Map<String, String> queue : queues.values()) {
+            waiting += queue.size();
+        }
+        stats.put("queuedTitles", queues.size());
+        stats.put("waitingHolds", waiting);
+        return stats;
+    }
+}
@@ -0,0 +1,299 @@
+package com.library.librarysystem.service;
+
+import com.library.librarysystem.entity.Book;
+import com.library.librarysystem.entity.Hold;
+import com.library.librarysystem.entity.User;
+import com.library.librarysystem.repository.HoldRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 图书预约排队
+ * 无库存时读者预约排队，归还的副本按预约先后直接分配给队首读者（预约改为待取书并开始计时），
+ * 不再回到可借库存，读者无需反复刷新页面抢书。待取书超时未取的预约过期，副本顺延给下一位
+ */
+@Service
+public class HoldService {
+    
+    public static final String STATUS_WAITING = "WAITING";
+    public static final String STATUS_READY = "READY";
+    public static final String STATUS_FULFILLED = "FULFILLED";
+    public static final String STATUS_CANCELLED = "CANCELLED";
+    public static final String STATUS_EXPIRED = "EXPIRED";
+    
+    @Autowired
+    private HoldRepository holdRepository;
+    
+    @Autowired
+    private BookService bookService;
+    
+    @Autowired
+    private UserService userService;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private HoldQueue holdQueue;
+    
+    @Autowired
+    private CopyService copyService;
+    
+    @Value("${library.hold.pickup-hours:48}")
+    private long pickupHours;
+    
+    /**
+     * 应用就绪后从数据库加载排队中的预约
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadQueue() {
+        try {
+            List<Hold> waiting = holdRepository.findByStatusOrderByCreateTimeAsc(STATUS_WAITING);
+            holdQueue.rebuild(waiting);
+            System.out.println("预约队列加载完成，排队中的预约：" + waiting.size());
+        } catch (Exception e) {
+            System.err.println("加载预约队列失败: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 预约图书（仅在无库存时可预约，同一用户同一本书只能有一个有效预约）
+     */
+    public Hold placeHold(String userId, String bookId) {
+        User user = userService.getUserById(userId);
+        if (user == null) {
+            throw new RuntimeException("用户不存在");
+        }
+        
+        Book book = bookService.getBookById(bookId);
+        if (book == null) {
+            throw new RuntimeException("图书不存在");
+        }
+        if (book.getAvailableCopies() != null && book.getAvailableCopies() > 0) {
+            throw new RuntimeException("图书有库存，可直接借阅");
+        }
+        
+        if (user.getActiveBookIds() != null && user.getActiveBookIds().contains(bookId)) {
+            throw new RuntimeException("您已借阅此书");
+        }
+        
+        Hold hold = new Hold();
+        hold.setUserId(userId);
+        hold.setUsername(user.getUsername());
+        hold.setBookId(bookId);
+        hold.setBookTitle(book.getTitle());
+        hold.setStatus(STATUS_WAITING);
+        hold.setActive(true);
+        try {
+            hold = holdRepository.insert(hold);
+        } catch (DuplicateKeyException e) {
+            throw new RuntimeException("您已预约此书");
+        }
+        holdQueue.add(bookId, hold.getId(), userId);
+        
+        // 检查库存与写入预约之间可能恰好有副本归还到了库存，补做一次分配
+        allocateAvailable(bookId);
+        
+        return hold;
+    }
+    
+    /**
+     * 取消预约；已分配副本的预约取消后副本顺延给下一位
+     */
+    public void cancelHold(String holdId, String userId) {
+        Query query = new Query(Criteria.where("id").is(holdId).and("userId").is(userId).and("active").is(true));
+        Update update = new Update().set("status", STATUS_CANCELLED).set("active", false)
+                .set("closeTime", LocalDateTime.now());
+        Hold previous = mongoTemplate.findAndModify(query, update, Hold.class);
+        if (previous == null) {
+            throw new RuntimeException("预约不存在或已结束");
+        }
+        
+        holdQueue.remove(previous.getBookId(), holdId);
+        if (STATUS_READY.equals(previous.getStatus())) {
+            releaseCopies(previous.getBookId(), 1);
+        }
+    }
+    
+    /**
+     * 取书：把未过期的待取书预约原子地改为已完成，返回该预约；不存在或已过期返回null
+     */
+    public Hold claimReady(String holdId, String userId) {
+        Query query = new Query(Criteria.where("id").is(holdId).and("userId").is(userId)
+                .and("status").is(STATUS_READY).and("expireTime").gt(LocalDateTime.now()));
+        Update update = new Update().set("status", STATUS_FULFILLED).set("active", false)
+                .set("closeTime", LocalDateTime.now());
+        return mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), Hold.class);
+    }
+    
+    /**
+     * 取书后借阅记录写入失败时，恢复为待取书
+     */
+    public void restoreReady(Hold hold) {
+        Query query = new Query(Criteria.where("id").is(hold.getId()).and("status").is(STATUS_FULFILLED));
+        Update update = new Update().set("status", STATUS_READY).set("active", true).unset("closeTime");
+        mongoTemplate.updateFirst(query, update, Hold.class);
+    }
+    
+    /**
+     * 归还副本：先按预约先后分配给排队的读者，剩余的才回到可借库存
+     */
+    public void releaseCopies(String bookId, int quantity) {
+        releaseCopies(Map.of(bookId, quantity));
+    }
+    
+    /**
+     * 批量归还副本（图书ID -> 数量），剩余部分一次批量写入回到库存
+     */
+    public void releaseCopies(Map<String, Integer> quantities) {
+        Map<String, Integer> remaining = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : quantities.entrySet()) {
+            int left = entry.getValue() - assignCopies(entry.getKey(), entry.getValue());
+            if (left > 0) {
+                remaining.put(entry.getKey(), left);
+            }
+        }
+        bookService.releaseCopies(remaining);
+    }
+    
+    /**
+     * 按副本归还：有人排队时副本分配给队首读者，只标记副本在馆；否则副本在馆的同时回到可借库存
+     */
+    public void releaseCopy(CopyIndex.CopyRef copy) {
+        boolean assigned = assignCopies(copy.getBookId(), 1) > 0;
+        copyService.checkIn(copy, !assigned);
+    }
+    
+    /**
+     * 用户的有效预约（排队中或待取书），附排队位置
+     */
+    public List<Hold> getUserActiveHolds(String userId) {
+        List<Hold> holds = holdRepository.findByUserIdAndStatus(userId, STATUS_READY);
+        for (Hold hold : holdRepository.findByUserIdAndStatus(userId, STATUS_WAITING)) {
+            hold.setQueuePosition(holdQueue.position(hold.getBookId(), hold.getId()));
+            holds.add(hold);
+        }
+        holds.sort(Comparator.comparing(Hold::getCreateTime));
+        return holds;
+    }
+    
+    /**
+     * 用户对某本书的有效预约，没有返回null
+     */
+    public Hold getUserActiveHold(String userId, String bookId) {
+        for (Hold hold : getUserActiveHolds(userId)) {
+            if (hold.getBookId().equals(bookId)) {
+                return hold;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 某本书的排队人数（内存）
+     */
+    public int getQueueLength(String bookId) {
+        return holdQueue.size(bookId);
+    }
+    
+    /**
+     * 预约排队统计
+     */
+    public Map<String, Object> getHoldStats() {
+        return holdQueue.stats();
+    }
+    
+    /**
+     * 定时处理：待取书超时的预约过期并顺延副本；有人排队但仍有库存的图书
+     * （总数量增加、预约与归还并发等情况）补做分配
+     */
+    @Scheduled(fixedDelayString = "${library.hold.sweep-interval-ms:60000}",
+            initialDelayString = "${library.hold.sweep-interval-ms:60000}")
+    public void sweep() {
+        try {
+            int expired = 0;
+            for (Hold hold : holdRepository.findByStatusAndExpireTimeBefore(STATUS_READY, LocalDateTime.now())) {
+                Query query = new Query(Criteria.where("id").is(hold.getId()).and("status").is(STATUS_READY));
+                Update update = new Update().set("status", STATUS_EXPIRED).set("active", false)
+                        .set("closeTime", LocalDateTime.now());
+                if (mongoTemplate.updateFirst(query, update, Hold.class).getModifiedCount() > 0) {
+                    releaseCopies(hold.getBookId(), 1);
+                    expired++;
+                }
+            }
+            
+            List<String> queued = holdQueue.bookIds();
+            if (!queued.isEmpty()) {
+                Query query = new Query(Criteria.where("id").in(queued).and("availableCopies").gt(0));
+                query.fields().include("id");
+                for (Book book : mongoTemplate.find(query, Book.class)) {
+                    allocateAvailable(book.getId());
+                }
+            }
+            
+            if (expired > 0) {
+                System.out.println("预约过期处理完成，过期数量：" + expired);
+            }
+        } catch (Exception e) {
+            System.err.println("预约定时处理失败: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 把至多copies本副本依次分配给队首的读者，返回实际分配数量。
+     * 以预约仍为WAITING为条件更新，并发归还取到同一个队首时只有一个成功，另一个继续取下一位
+     */
+    private int assignCopies(String bookId, int copies) {
+        int assigned = 0;
+        while (assigned < copies) {
+            String holdId = holdQueue.peek(bookId);
+            if (holdId == null) {
+                break;
+            }
+            
+            LocalDateTime now = LocalDateTime.now();
+            Query query = new Query(Criteria.where("id").is(holdId).and("status").is(STATUS_WAITING));
+            Update update = new Update().set("status", STATUS_READY).set("readyTime", now)
+                    .set("expireTime", now.plusHours(pickupHours));
+            Hold ready = mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().returnNew(true), Hold.class);
+            holdQueue.remove(bookId, holdId);
+            
+            if (ready != null) {
+                assigned++;
+                System.out.println("预约到书：" + ready.getUsername() + " 《" + ready.getBookTitle()
+                        + "》，请在" + pickupHours + "小时内取书");
+            }
+        }
+        return assigned;
+    }
+    
+    /**
+     * 有人排队时把可借库存逐本转给排队的读者
+     */
+    private void allocateAvailable(String bookId) {
+        while (holdQueue.size(bookId) > 0 && bookService.reserveCopies(bookId, 1) != null) {
+            if (assignCopies(bookId, 1) == 0) {
+                bookService.releaseCopies(bookId, 1);
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.library.librarysystem.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.library.librarysystem.cache.EntityCache;
+import com.library.librarysystem.entity.IdempotencyRecord;
+import com.mongodb.MongoException;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 写操作幂等键
+ * 客户端为每次操作生成一个键，网络重试时带同一个键。首次请求执行后保存响应，
+ * 之后同一个键的请求直接返回保存的响应而不再执行。最近的键保存在有界的内存缓存中，
+ * 全部键保存在带TTL索引的集合中（重启或被内存淘汰后仍能识别），到期后由数据库自动删除。
+ * 只保存确定的结果（成功或业务校验失败）；数据库异常、超时等临时失败返回5xx，释放键由客户端重试
+ */
+@Service
+public class IdempotencyService {
+    
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    
+    private static final String STATUS_IN_PROGRESS = "IN_PROGRESS";
+    private static final String STATUS_COMPLETED = "COMPLETED";
+    
+    private static final int MAX_KEY_LENGTH = 128;
+    
+    // 处理中的键的占用期限，超过后视为原请求已中断，允许重试接管
+    private static final long LOCK_SECONDS = 30;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    private final long ttlHours;
+    
+    private final EntityCache<IdempotencyRecord> recent;
+    
+    public IdempotencyService(
+            @Value("${library.idempotency.ttl-hours:24}") long ttlHours,
+            @Value("${library.idempotency.memory-max-entries:10000}") int memoryMaxEntries,
+            @Value("${library.idempotency.memory-ttl-seconds:600}") long memoryTtlSeconds) {
+        this.ttlHours = ttlHours;
+        this.recent = new EntityCache<>("idempotency", memoryMaxEntries, Long.MAX_VALUE, memoryTtlSeconds * 1000,
+                IdempotencyRecord::getId, null,
+                record -> EntityCache.estimateStrings(record.getId(), record.getFingerprint(), record.getResponseBody()),
+                record -> {
+                    IdempotencyRecord copy = new IdempotencyRecord();
+                    BeanUtils.copyProperties(record, copy);
+                    return copy;
+                });
+    }
+    
+    /**
+     * 以幂等方式执行写操作。key为空时直接执行；scope区分不同接口（及用户），
+     * fingerprint为请求参数摘要，同一个键携带不同参数时拒绝
+     */
+    public ResponseEntity<Map<String, Object>> execute(String scope, String key, String fingerprint,
+                                                       Supplier<ResponseEntity<Map<String, Object>>> action) {
+        if (key == null || key.isBlank()) {
+            return action.get();
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            return reject(HttpStatus.BAD_REQUEST, "幂等键过长");
+        }
+        
+        String id = scope + ":" + key;
+        IdempotencyRecord existing = recent.get(id, () -> mongoTemplate.findById(id, IdempotencyRecord.class));
+        if (existing != null && STATUS_COMPLETED.equals(existing.getStatus())) {
+            return replay(existing, fingerprint);
+        }
+        
+        IdempotencyRecord claimed = claim(id, fingerprint);
+        if (claimed == null) {
+            IdempotencyRecord current = mongoTemplate.findById(id, IdempotencyRecord.class);
+            if (current != null && STATUS_COMPLETED.equals(current.getStatus())) {
+                recent.put(current);
+                return replay(current, fingerprint);
+            }
+            if (current != null && !fingerprint.equals(current.getFingerprint())) {
+                return reject(HttpStatus.UNPROCESSABLE_ENTITY, "幂等键已用于其他请求");
+            }
+            return reject(HttpStatus.CONFLICT, "相同的请求正在处理中，请稍后重试");
+        }
+        
+        ResponseEntity<Map<String, Object>> response;
+        try {
+            response = action.get();
+        } catch (RuntimeException e) {
+            // 未得到结果，释放键，允许客户端重试
+            release(claimed);
+            throw e;
+        }
+        
+        if (response.getStatusCode().is5xxServerError()) {
+            // 临时失败不是确定的结果，不保存
+            release(claimed);
+        } else {
+            complete(claimed, response);
+        }
+        return response;
+    }
+    
+    /**
+     * 写操作失败时的响应：临时失败（数据库异常、超时）返回503，键被释放，客户端可用同一个键重试；
+     * 其他异常为业务校验失败，返回400并作为确定的结果保存
+     */
+    public static ResponseEntity<Map<String, Object>> failure(Exception e) {
+        if (isTransient(e)) {
+            System.err.println("写操作临时失败: " + e.getMessage());
+            return reject(HttpStatus.SERVICE_UNAVAILABLE, "服务暂时不可用，请稍后重试");
+        }
+        return reject(HttpStatus.BAD_REQUEST, e.getMessage());
+    }
+    
+    /**
+     * 是否为临时失败：数据访问异常（违反唯一约束等数据完整性异常除外）、超时和中断，包括作为原因包装的
+     */
+    public static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DataIntegrityViolationException) {
+                return false;
+            }
+            if (cause instanceof DataAccessException || cause instanceof MongoException
+                    || cause instanceof TimeoutException || cause instanceof InterruptedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * 占用键：不存在时插入处理中记录；已存在但处理中且占用已过期时接管。返回null表示未占到
+     */
+    private IdempotencyRecord claim(String id, String fingerprint) {
+        // 数据库中的时间精确到毫秒，占用期限截断到毫秒，保存响应时才能按原值匹配
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        IdempotencyRecord record = new IdempotencyRecord();
+        record.setId(id);
+        record.setFingerprint(fingerprint);
+        record.setStatus(STATUS_IN_PROGRESS);
+        record.setClaimToken(UUID.randomUUID().toString());
+        record.setLockedUntil(now.plusSeconds(LOCK_SECONDS));
+        record.setExpireAt(now.plusHours(ttlHours));
+        try {
+            return mongoTemplate.insert(record);
+        } catch (DuplicateKeyException e) {
+            Query query = new Query(Criteria.where("id").is(id).and("status").is(STATUS_IN_PROGRESS)
+                    .and("fingerprint").is(fingerprint).and("lockedUntil").lt(now));
+            Update update = new Update()
+                    .set("lockedUntil", now.plusSeconds(LOCK_SECONDS))
+                    .set("claimToken", UUID.randomUUID().toString());
+            return mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().returnNew(true), IdempotencyRecord.class);
+        }
+    }
+    
+    /**
+     * 本次占用仍然有效的条件：占用期限过后被其他请求接管时，占用标识和期限都已改变
+     */
+    private static Query held(IdempotencyRecord record) {
+        return new Query(Criteria.where("id").is(record.getId()).and("status").is(STATUS_IN_PROGRESS)
+                .and("claimToken").is(record.getClaimToken()).and("lockedUntil").is(record.getLockedUntil()));
+    }
+    
+    /**
+     * 保存响应。只在本次占用仍然有效时写入，已被接管时由接管的请求保存它的结果
+     */
+    private void complete(IdempotencyRecord record, ResponseEntity<Map<String, Object>> response) {
+        try {
+            Update update = new Update()
+                    .set("status", STATUS_COMPLETED)
+                    .set("statusCode", response.getStatusCode().value())
+                    .set("responseBody", objectMapper.writeValueAsString(response.getBody()))
+                    .unset("lockedUntil")
+                    .unset("claimToken");
+            IdempotencyRecord completed = mongoTemplate.findAndModify(held(record), update,
+                    FindAndModifyOptions.options().returnNew(true), IdempotencyRecord.class);
+            if (completed == null) {
+                System.err.println("幂等键 " + record.getId() + " 的占用已过期并被接管，不保存本次响应");
+                recent.invalidate(record.getId());
+                return;
+            }
+            recent.put(completed);
+        } catch (Exception e) {
+            // 操作本身已完成，保存响应失败只影响之后的重放
+            System.err.println("保存幂等响应失败 " + record.getId() + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 释放本次占用的键；已被接管时不删除接管者的记录
+     */
+    private void release(IdempotencyRecord record) {
+        try {
+            mongoTemplate.remove(held(record), IdempotencyRecord.class);
+        } catch (Exception e) {
+            // 释放失败时键在占用期限过后仍可由重试接管
+            System.err.println("释放幂等键失败 " + record.getId() + ": " + e.getMessage());
+        }
+        recent.invalidate(record.getId());
+    }
+    
+    private ResponseEntity<Map<String, Object>> replay(IdempotencyRecord record, String fingerprint) {
+        if (!fingerprint.equals(record.getFingerprint())) {
+            return reject(HttpStatus.UNPROCESSABLE_ENTITY, "幂等键已用于其他请求");
+        }
+        try {
+            Map<String, Object> body = objectMapper.readValue(record.getResponseBody(),
+                    new TypeReference<Map<String, Object>>() { });
+            return ResponseEntity.status(record.getStatusCode()).header(REPLAYED_HEADER, "true").body(body);
+        } catch (JsonProcessingException e) {
+            return reject(HttpStatus.INTERNAL_SERVER_ERROR, "无法读取原请求的响应");
+        }
+    }
+    
+    private static ResponseEntity<Map<String, Object>> reject(HttpStatus status, String message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", message);
+        return ResponseEntity.status(status).body(response);
+    }
+    
+    /**
+     * 内存中幂等键缓存的统计
+     */
+    public Map<String, Object> stats() {
+        return recent.stats();
+    }
+}
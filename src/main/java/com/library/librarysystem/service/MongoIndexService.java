@@ -0,0 +1,363 @@
+package com.library.librarysystem.service;
+
+import com.library.librarysystem.entity.Book;
+import com.library.librarysystem.entity.BookCopy;
+import com.library.librarysystem.entity.BorrowRecord;
+import com.library.librarysystem.entity.CirculationEvent;
+import com.library.librarysystem.entity.CirculationRollup;
+import com.library.librarysystem.entity.CirculationSnapshot;
+import com.library.librarysystem.entity.CirculationSnapshotChunk;
+import com.library.librarysystem.entity.Hold;
+import com.library.librarysystem.entity.IdempotencyRecord;
+import com.library.librarysystem.entity.User;
+import com.library.librarysystem.repository.BookRepository;
+import com.library.librarysystem.repository.BorrowRecordRepository;
+import com.library.librarysystem.repository.HoldRepository;
+import com.library.librarysystem.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.repository.Aggregation;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.repository.query.parser.Part;
+import org.springframework.data.repository.query.parser.PartTree;
+import org.springframework.stereotype.Service;
+
+import java.lang.reflect.Method;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * MongoDB索引管理
+ * 集中声明各集合需要的索引（单键、复合、唯一、部分索引），应用就绪后在后台线程中创建并校验，
+ * 不阻塞应用启动。同时按仓库接口中派生查询方法的条件字段检查是否有可用索引，缺失的记录日志并在诊断页展示
+ */
+@Service
+public class MongoIndexService {
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_DONE = "DONE";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private volatile String status = STATUS_PENDING;
+    private volatile LocalDateTime finishedAt;
+    private volatile List<Map<String, Object>> indexReport = Collections.emptyList();
+    private volatile List<Map<String, Object>> queryReport = Collections.emptyList();
+
+    /**
+     * 声明的索引
+     */
+    private List<IndexSpec> specs() {
+        List<IndexSpec> specs = new ArrayList<>();
+
+        // 图书：ISBN唯一（空ISBN不参与），游标分页的(title, _id)
+        specs.add(new IndexSpec(Book.class, new Index().on("isbn", Sort.Direction.ASC).unique()
+                .partial(PartialIndexFilter.of(Criteria.where("isbn").gt(""))).named("isbn_unique")));
+        specs.add(new IndexSpec(Book.class, new Index().on("title", Sort.Direction.ASC)
+                .on("_id", Sort.Direction.ASC).named("title_id")));
+
+        // 用户：用户名唯一，邮箱唯一（未填写邮箱的不参与），角色
+        specs.add(new IndexSpec(User.class, new Index().on("username", Sort.Direction.ASC).unique()
+                .named("username_unique")));
+        specs.add(new IndexSpec(User.class, new Index().on("email", Sort.Direction.ASC).unique()
+                .partial(PartialIndexFilter.of(Criteria.where("email").gt(""))).named("email_unique")));
+        specs.add(new IndexSpec(User.class, new Index().on("role", Sort.Direction.ASC).named("role")));
+
+        // 借阅记录：(userId, status) 同时覆盖按用户查询；(status, dueDate) 覆盖按状态和逾期查询；
+        // 只包含借阅中记录的到期日部分索引，体积随在借数量而不是历史记录增长
+        specs.add(new IndexSpec(BorrowRecord.class, new Index().on("userId", Sort.Direction.ASC)
+                .on("status", Sort.Direction.ASC).named("userId_status")));
+        specs.add(new IndexSpec(BorrowRecord.class, new Index().on("bookId", Sort.Direction.ASC)
+                .named("bookId")));
+        specs.add(new IndexSpec(BorrowRecord.class, new Index().on("status", Sort.Direction.ASC)
+                .on("dueDate", Sort.Direction.ASC).named("status_dueDate")));
+        specs.add(new IndexSpec(BorrowRecord.class, new Index().on("dueDate", Sort.Direction.ASC)
+                .partial(PartialIndexFilter.of(Criteria.where("status").is("BORROWED"))).named("borrowed_dueDate")));
+
+        // 预约：(bookId, status, createTime) 覆盖按书排队；(userId, status) 覆盖按用户查询；
+        // (status, expireTime) 覆盖过期扫描；同一用户同一本书只能有一个有效预约
+        specs.add(new IndexSpec(Hold.class, new Index().on("bookId", Sort.Direction.ASC)
+                .on("status", Sort.Direction.ASC).on("createTime", Sort.Direction.ASC).named("bookId_status_createTime")));
+        specs.add(new IndexSpec(Hold.class, new Index().on("userId", Sort.Direction.ASC)
+                .on("status", Sort.Direction.ASC).named("userId_status")));
+        specs.add(new IndexSpec(Hold.class, new Index().on("status", Sort.Direction.ASC)
+                .on("expireTime", Sort.Direction.ASC).named("status_expireTime")));
+        specs.add(new IndexSpec(Hold.class, new Index().on("userId", Sort.Direction.ASC)
+                .on("bookId", Sort.Direction.ASC).unique()
+                .partial(PartialIndexFilter.of(Criteria.where("active").is(true))).named("active_user_book_unique")));
+
+        // 幂等键：到期自动删除
+        specs.add(new IndexSpec(IdempotencyRecord.class, new Index().on("expireAt", Sort.Direction.ASC)
+                .expire(0).named("expireAt_ttl")));
+
+        // 副本：按书列出副本；按条码归还时查找该条码未归还的借阅记录
+        specs.add(new IndexSpec(BookCopy.class, new Index().on("bookId", Sort.Direction.ASC)
+                .on("copyIndex", Sort.Direction.ASC).named("bookId_copyIndex")));
+        specs.add(new IndexSpec(BorrowRecord.class, new Index().on("barcode", Sort.Direction.ASC)
+                .on("status", Sort.Direction.ASC)
+                .partial(PartialIndexFilter.of(Criteria.where("barcode").exists(true))).named("barcode_status")));
+
+        // 流通事件：按序号重放；快照分块按(快照, 序号)读取；最近完成的快照按(状态, 序号)查找
+        specs.add(new IndexSpec(CirculationEvent.class, new Index().on("seq", Sort.Direction.ASC).named("seq")));
+        specs.add(new IndexSpec(CirculationSnapshotChunk.class, new Index().on("snapshotId", Sort.Direction.ASC)
+                .on("index", Sort.Direction.ASC).named("snapshotId_index")));
+        specs.add(new IndexSpec(CirculationSnapshot.class, new Index().on("status", Sort.Direction.ASC)
+                .on("seq", Sort.Direction.DESC).named("status_seq")));
+
+        // 流通趋势汇总：按(范围, 键, 日期)查询区间；逾期标记后按标记时间分组计数（只包含被标记过的记录）
+        specs.add(new IndexSpec(CirculationRollup.class, new Index().on("scope", Sort.Direction.ASC)
+                .on("key", Sort.Direction.ASC).on("day", Sort.Direction.ASC).named("scope_key_day")));
+        specs.add(new IndexSpec(BorrowRecord.class, new Index().on("overdueAt", Sort.Direction.ASC)
+                .partial(PartialIndexFilter.of(Criteria.where("overdueAt").exists(true))).named("overdueAt")));
+
+        return specs;
+    }
+
+    /**
+     * 需要校验查询方法的仓库接口 -> 实体类
+     */
+    private Map<Class<?>, Class<?>> repositories() {
+        Map<Class<?>, Class<?>> repositories = new LinkedHashMap<>();
+        repositories.put(BookRepository.class, Book.class);
+        repositories.put(UserRepository.class, User.class);
+        repositories.put(BorrowRecordRepository.class, BorrowRecord.class);
+        repositories.put(HoldRepository.class, Hold.class);
+        return repositories;
+    }
+
+    /**
+     * 应用就绪后在后台创建索引，避免大集合建索引拖慢启动
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        Thread worker = new Thread(this::provision, "mongo-index-provisioning");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 创建缺失的索引并校验仓库查询
+     */
+    public synchronized void provision() {
+        status = STATUS_RUNNING;
+        System.out.println("=== 开始检查MongoDB索引 ===");
+        long startTime = System.currentTimeMillis();
+
+        List<Map<String, Object>> indexes = new ArrayList<>();
+        for (IndexSpec spec : specs()) {
+            indexes.add(ensure(spec));
+        }
+        indexReport = indexes;
+
+        List<Map<String, Object>> queries = new ArrayList<>();
+        try {
+            verifyQueries(queries);
+        } catch (Exception e) {
+            System.err.println("校验查询索引失败: " + e.getMessage());
+        }
+        queryReport = queries;
+
+        finishedAt = LocalDateTime.now();
+        status = STATUS_DONE;
+        System.out.println("=== MongoDB索引检查完成，耗时：" + (System.currentTimeMillis() - startTime) + "ms ===");
+    }
+
+    /**
+     * 索引检查结果
+     */
+    public Map<String, Object> getReport() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("status", status);
+        report.put("finishedAt", finishedAt);
+        report.put("indexes", indexReport);
+        report.put("queries", queryReport);
+        return report;
+    }
+
+    private Map<String, Object> ensure(IndexSpec spec) {
+        String collection = mongoTemplate.getCollectionName(spec.entity);
+        String name = (String) spec.index.getIndexOptions().get("name");
+        List<String> keys = new ArrayList<>(spec.index.getIndexKeys().keySet());
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("collection", collection);
+        result.put("name", name);
+        result.put("keys", keys);
+
+        try {
+            IndexInfo existing = findByKeys(mongoTemplate.indexOps(collection).getIndexInfo(), keys);
+            if (existing != null) {
+                if (sameOptions(spec.index, existing)) {
+                    result.put("status", "EXISTS");
+                } else {
+                    // 键相同但唯一性/部分过滤不同，不自动删除重建，交给管理员处理
+                    result.put("status", "CONFLICT");
+                    result.put("message", "已存在键相同但选项不同的索引: " + existing.getName());
+                    System.err.println("索引冲突 " + collection + "." + name + ": 已存在 " + existing.getName());
+                }
+                return result;
+            }
+
+            mongoTemplate.indexOps(collection).ensureIndex(spec.index);
+            result.put("status", "CREATED");
+            System.out.println("已创建索引 " + collection + "." + name + " " + keys);
+        } catch (Exception e) {
+            // 例如已有重复数据导致唯一索引无法创建
+            result.put("status", "FAILED");
+            result.put("message", e.getMessage());
+            System.err.println("创建索引失败 " + collection + "." + name + ": " + e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * 按派生查询方法名解析出的条件字段，检查集合上是否有能用于该查询的索引：
+     * 等值（含IN）字段构成索引前缀（顺序不限），范围字段紧随其后
+     */
+    private void verifyQueries(List<Map<String, Object>> queries) {
+        for (Map.Entry<Class<?>, Class<?>> entry : repositories().entrySet()) {
+            Class<?> repository = entry.getKey();
+            Class<?> entity = entry.getValue();
+            List<IndexInfo> existing = mongoTemplate.indexOps(entity).getIndexInfo();
+
+            for (Method method : repository.getDeclaredMethods()) {
+                // 手写的@Query/@Aggregation无法从方法名推断，不在此校验
+                if (method.isAnnotationPresent(Query.class) || method.isAnnotationPresent(Aggregation.class)) {
+                    continue;
+                }
+
+                PartTree tree = new PartTree(method.getName(), entity);
+                for (PartTree.OrPart orPart : tree) {
+                    List<String> equality = new ArrayList<>();
+                    String range = null;
+                    boolean indexable = true;
+                    for (Part part : orPart) {
+                        String field = fieldName(part.getProperty().toDotPath());
+                        if (part.shouldIgnoreCase() == Part.IgnoreCaseType.ALWAYS) {
+                            indexable = false;
+                        } else if (part.getType() == Part.Type.SIMPLE_PROPERTY || part.getType() == Part.Type.IN) {
+                            equality.add(field);
+                        } else if (isRange(part.getType()) && range == null) {
+                            range = field;
+                        } else {
+                            // 包含、正则、忽略大小写等条件无法利用普通索引
+                            indexable = false;
+                        }
+                    }
+
+                    List<String> fields = new ArrayList<>(equality);
+                    if (range != null) {
+                        fields.add(range);
+                    }
+
+                    String queryStatus;
+                    if (!indexable) {
+                        queryStatus = "NOT_INDEXABLE";
+                    } else if (covered(existing, equality, range)) {
+                        queryStatus = "COVERED";
+                    } else {
+                        queryStatus = "MISSING";
+                        System.err.println("缺少索引: " + repository.getSimpleName() + "." + method.getName()
+                                + " 需要 " + fields);
+                    }
+
+                    Map<String, Object> result = new LinkedHashMap<>();
+                    result.put("repository", repository.getSimpleName());
+                    result.put("method", method.getName());
+                    result.put("fields", fields);
+                    result.put("status", queryStatus);
+                    queries.add(result);
+                }
+            }
+        }
+    }
+
+    private static boolean covered(List<IndexInfo> indexes, List<String> equality, String range) {
+        if (equality.isEmpty() && range == null) {
+            return true;
+        }
+        Set<String> equalitySet = new HashSet<>(equality);
+        for (IndexInfo index : indexes) {
+            List<IndexField> fields = index.getIndexFields();
+            if (fields.size() < equalitySet.size()) {
+                continue;
+            }
+            Set<String> prefix = new HashSet<>();
+            for (int i = 0; i < equalitySet.size(); i++) {
+                prefix.add(fields.get(i).getKey());
+            }
+            if (!prefix.equals(equalitySet)) {
+                continue;
+            }
+            if (range == null
+                    || (fields.size() > equalitySet.size() && range.equals(fields.get(equalitySet.size()).getKey()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isRange(Part.Type type) {
+        switch (type) {
+            case BEFORE:
+            case AFTER:
+            case LESS_THAN:
+            case LESS_THAN_EQUAL:
+            case GREATER_THAN:
+            case GREATER_THAN_EQUAL:
+            case BETWEEN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static String fieldName(String property) {
+        return "id".equals(property) ? "_id" : property;
+    }
+
+    private static IndexInfo findByKeys(List<IndexInfo> indexes, List<String> keys) {
+        for (IndexInfo index : indexes) {
+            List<String> indexKeys = new ArrayList<>();
+            for (IndexField field : index.getIndexFields()) {
+                indexKeys.add(field.getKey());
+            }
+            if (indexKeys.equals(keys)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    private static boolean sameOptions(Index index, IndexInfo existing) {
+        boolean unique = Boolean.TRUE.equals(index.getIndexOptions().get("unique"));
+        boolean partial = index.getIndexOptions().containsKey("partialFilterExpression");
+        return unique == existing.isUnique() && partial == (existing.getPartialFilterExpression() != null);
+    }
+
+    private static final class IndexSpec {
+        private final Class<?> entity;
+        private final Index index;
+
+        private IndexSpec(Class<?> entity, Index index) {
+            this.entity = entity;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.library.librarysystem.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+@Service
+@Order(2) // 在数据初始化之后执行
+public class SearchIndexInitializationService implements CommandLineRunner {
+
+    @Autowired
+    private BookService bookService;
+
+    @Override
+    public void run(String... args) throws Exception {
+        System.out.println("=== 开始构建图书检索索引 ===");
+        
+        try {
+            long startTime = System.currentTimeMillis();
+            bookService.rebuildSearchIndex();
+            long endTime = System.currentTimeMillis();
+            
+            System.out.println("图书检索索引构建完成，耗时：" + (endTime - startTime) + "ms");
+        } catch (Exception e) {
+            // 索引不可用时检索会回退到数据库查询
+            System.err.println("构建图书检索索引失败: " + e.getMessage());
+        }
+        
+        System.out.println("=== 图书检索索引构建结束 ===");
+    }
+}
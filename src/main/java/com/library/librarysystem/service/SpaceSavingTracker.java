@@ -0,0 +1,137 @@
+package com.library.librarysystem.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 带时间衰减的Space-Saving高频项统计
+ * 最多保留capacity个计数器，内存固定。未被跟踪的新项替换计数最小的计数器，
+ * 继承其计数作为误差上界，真正的高频项不会被挤出。
+ * 时间衰减采用前向衰减：时刻t的一次记录权重为exp(λ(t - 基准时间))，读取时统一乘以exp(-λ(now - 基准时间))，
+ * 各计数器之间的大小关系不随时间变化，所以不需要定期衰减所有计数器；计数器按计数有序保存，取前k项为O(k)
+ */
+public class SpaceSavingTracker {
+
+    // 权重超过此值时整体缩小计数并把基准时间移到当前，避免溢出
+    private static final double RESCALE_THRESHOLD = 1e100;
+
+    private static final Comparator<Counter> ORDER = Comparator
+            .comparingDouble((Counter counter) -> counter.count)
+            .thenComparing(counter -> counter.key);
+
+    private final int capacity;
+    private final double lambda;
+    private long landmark;
+
+    private final Map<String, Counter> counters = new HashMap<>();
+    private final TreeSet<Counter> ordered = new TreeSet<>(ORDER);
+
+    /**
+     * halfLifeMillis为计数衰减一半所需的时间
+     */
+    public SpaceSavingTracker(int capacity, long halfLifeMillis, long now) {
+        this.capacity = Math.max(1, capacity);
+        this.lambda = Math.log(2) / Math.max(1, halfLifeMillis);
+        this.landmark = now;
+    }
+
+    /**
+     * 记录一次出现，label为展示用的名称（如书名），以最近一次记录的为准
+     */
+    public synchronized void offer(String key, String label, long now) {
+        double weight = weightAt(now);
+        if (weight > RESCALE_THRESHOLD) {
+            rescale(now);
+            weight = weightAt(now);
+        }
+
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            ordered.remove(counter);
+            counter.count += weight;
+            counter.label = label;
+            ordered.add(counter);
+            return;
+        }
+        if (counters.size() < capacity) {
+            counter = new Counter(key, label, weight, 0);
+        } else {
+            Counter min = ordered.pollFirst();
+            counters.remove(min.key);
+            counter = new Counter(key, label, min.count + weight, min.count);
+        }
+        counters.put(key, counter);
+        ordered.add(counter);
+    }
+
+    /**
+     * 衰减后计数最高的k项：key、label、count（估计值，不低于真实值）、error（高估的上界）
+     */
+    public synchronized List<Map<String, Object>> top(int k, long now) {
+        double decay = 1.0 / weightAt(now);
+        List<Map<String, Object>> top = new ArrayList<>(Math.min(k, ordered.size()));
+        Iterator<Counter> iterator = ordered.descendingIterator();
+        while (iterator.hasNext() && top.size() < k) {
+            Counter counter = iterator.next();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", counter.key);
+            item.put("label", counter.label);
+            item.put("count", round(counter.count * decay));
+            item.put("error", round(counter.error * decay));
+            top.add(item);
+        }
+        return top;
+    }
+
+    public synchronized int size() {
+        return counters.size();
+    }
+
+    public synchronized void clear(long now) {
+        counters.clear();
+        ordered.clear();
+        landmark = now;
+    }
+
+    private double weightAt(long now) {
+        return Math.exp(lambda * (now - landmark));
+    }
+
+    /**
+     * 计数和误差统一乘以同一系数；缩小后可能出现相等的计数，重新排序
+     */
+    private void rescale(long now) {
+        double factor = 1.0 / weightAt(now);
+        ordered.clear();
+        for (Counter counter : counters.values()) {
+            counter.count *= factor;
+            counter.error *= factor;
+            ordered.add(counter);
+        }
+        landmark = now;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+
+    private static final class Counter {
+        private final String key;
+        private String label;
+        private double count;
+        private double error;
+
+        private Counter(String key, String label, double count, double error) {
+            this.key = key;
+            this.label = label;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.library.librarysystem.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * 热门图书借阅准入
+ * 同一本书的借阅请求在进程内排队，由一个线程把排队中的请求合并成一次条件扣减（组提交），
+ * 按实际扣到的数量依次放行，其余请求失败。某本书扣减不足后标记为售罄，
+ * 之后的请求在访问数据库之前直接失败，直到有归还或标记过期。
+ * 这样抢借热门图书时数据库写入次数与副本数相当，而不是与请求数相当
+ */
+@Component
+public class StockAdmissionGate {
+
+    // 单次合并的最大请求数
+    private static final int MAX_BATCH = 256;
+
+    private final long exhaustedMillis;
+
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    // 后续批次在后台线程中执行，避免某个请求线程一直替别人处理
+    private final ExecutorService drainer = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2), runnable -> {
+                Thread thread = new Thread(runnable, "stock-admission");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // 售罄标记到期后移除空闲的排队，售出后不再有人借的书不会一直留在lanes中
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stock-admission-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong rejectedFast = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    public StockAdmissionGate(@Value("${library.borrow.sold-out-ttl-seconds:5}") long soldOutTtlSeconds) {
+        this.exhaustedMillis = soldOutTtlSeconds * 1000;
+    }
+
+    /**
+     * 该书是否已知售罄（不访问数据库）
+     */
+    public boolean isExhausted(String bookId) {
+        Lane lane = lanes.get(bookId);
+        if (lane == null) {
+            return false;
+        }
+        if (lane.exhaustedUntil > System.currentTimeMillis()) {
+            return true;
+        }
+        removeIfIdle(bookId, lane);
+        return false;
+    }
+
+    /**
+     * 申请借出一本，reserveUpTo(n)负责原子地扣减至多n本并返回实际扣减数量。
+     * 返回是否申请成功
+     */
+    public boolean admit(String bookId, IntUnaryOperator reserveUpTo) {
+        return enqueue(bookId, reserveUpTo, false).join();
+    }
+
+    /**
+     * 异步申请借出一本，处理在后台线程中进行；用于一次借多本时各书并行扣减
+     */
+    public CompletableFuture<Boolean> admitAsync(String bookId, IntUnaryOperator reserveUpTo) {
+        return enqueue(bookId, reserveUpTo, true);
+    }
+
+    private CompletableFuture<Boolean> enqueue(String bookId, IntUnaryOperator reserveUpTo, boolean async) {
+        Lane lane = lanes.computeIfAbsent(bookId, id -> new Lane());
+        if (lane.exhaustedUntil > System.currentTimeMillis()) {
+            rejectedFast.incrementAndGet();
+            return CompletableFuture.completedFuture(false);
+        }
+
+        CompletableFuture<Boolean> ticket = new CompletableFuture<>();
+        boolean leader;
+        synchronized (lane) {
+            lane.pending.add(ticket);
+            leader = !lane.draining;
+            lane.draining = true;
+        }
+
+        // 没有其他请求在处理时由当前线程直接处理，无竞争时不切换线程；异步申请交给后台线程
+        if (leader && async) {
+            drainer.execute(() -> process(bookId, lane, reserveUpTo));
+        } else if (leader) {
+            process(bookId, lane, reserveUpTo);
+        }
+        return ticket;
+    }
+
+    /**
+     * 有副本归还或总数增加后解除售罄标记
+     */
+    public void onStockAvailable(String bookId) {
+        Lane lane = lanes.get(bookId);
+        if (lane != null) {
+            lane.exhaustedUntil = 0;
+        }
+    }
+
+    /**
+     * 准入统计
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long exhausted = lanes.values().stream()
+                .filter(lane -> lane.exhaustedUntil > System.currentTimeMillis())
+                .count();
+        stats.put("admitted", admitted.get());
+        stats.put("rejected", rejected.get());
+        stats.put("rejectedFast", rejectedFast.get());
+        stats.put("batches", batches.get());
+        stats.put("activeTitles", lanes.size());
+        stats.put("soldOutTitles", exhausted);
+        return stats;
+    }
+
+    /**
+     * 处理一批排队的请求，然后安排下一批或退出
+     */
+    private void process(String bookId, Lane lane, IntUnaryOperator reserveUpTo) {
+        List<CompletableFuture<Boolean>> batch;
+        synchronized (lane) {
+            if (lane.pending.size() <= MAX_BATCH) {
+                batch = lane.pending;
+                lane.pending = new ArrayList<>();
+            } else {
+                batch = new ArrayList<>(lane.pending.subList(0, MAX_BATCH));
+                lane.pending = new ArrayList<>(lane.pending.subList(MAX_BATCH, lane.pending.size()));
+            }
+        }
+
+        try {
+            int granted = 0;
+            if (lane.exhaustedUntil <= System.currentTimeMillis()) {
+                granted = reserveUpTo.applyAsInt(batch.size());
+                batches.incrementAndGet();
+            }
+            if (granted < batch.size()) {
+                lane.exhaustedUntil = System.currentTimeMillis() + exhaustedMillis;
+                sweeper.schedule(() -> removeIfIdle(bookId, lane), exhaustedMillis + 1, TimeUnit.MILLISECONDS);
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).complete(i < granted);
+            }
+            admitted.addAndGet(granted);
+            rejected.addAndGet(batch.size() - granted);
+        } catch (RuntimeException e) {
+            for (CompletableFuture<Boolean> ticket : batch) {
+                ticket.completeExceptionally(e);
+            }
+        }
+
+        synchronized (lane) {
+            if (lane.pending.isEmpty()) {
+                lane.draining = false;
+                if (lane.exhaustedUntil <= System.currentTimeMillis()) {
+                    lanes.remove(bookId, lane);
+                }
+                return;
+            }
+        }
+        drainer.execute(() -> process(bookId, lane, reserveUpTo));
+    }
+
+    /**
+     * 没有排队的请求且售罄标记已过期（或已解除）时移除该书的排队
+     */
+    private void removeIfIdle(String bookId, Lane lane) {
+        synchronized (lane) {
+            if (!lane.draining && lane.pending.isEmpty() && lane.exhaustedUntil <= System.currentTimeMillis()) {
+                lanes.remove(bookId, lane);
+            }
+        }
+    }
+
+    private static final class Lane {
+        private List<CompletableFuture<Boolean>> pending = new ArrayList<>();
+        private boolean draining;
+        private volatile long exhaustedUntil;
+    }
+}
@@ -0,0 +1,282 @@
+package com.library.librarysystem.service;
+
+import com.library.librarysystem.entity.Book;
+import com.library.librarysystem.entity.BorrowRecord;
+import com.library.librarysystem.entity.Hold;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+
+/**
+ * 库存对账：可借数量应等于总数量减去在借数量，再减去已为预约读者保留的副本。
+ * 第一遍用一次分组聚合求出每本书的在借数和保留数，按批流式读取图书，各批在ForkJoin线程池中并行比较；
+ * 等待片刻后按批复核有偏差的图书，偏差仍相同且库存版本号未变时以该版本号为条件批量修正，
+ * 不会覆盖期间发生的借还，也不需要锁住借还
+ */
+@Service
+public class StockReconciliationService {
+
+    // 核对报告中列出的修正明细条数上限
+    private static final int MAX_SAMPLES = 20;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private BookService bookService;
+
+    @Value("${library.stock.reconcile-batch-size:5000}")
+    private int batchSize;
+
+    @Value("${library.stock.reconcile-confirm-delay-ms:2000}")
+    private long confirmDelayMillis;
+
+    private final ForkJoinPool comparePool;
+
+    private volatile Map<String, Object> lastReport;
+
+    public StockReconciliationService(@Value("${library.stock.reconcile-parallelism:0}") int parallelism) {
+        int threads = parallelism > 0 ? parallelism : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.comparePool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * 执行一次对账，返回扫描、复核和修正的数量
+     */
+    public synchronized Map<String, Object> reconcileStock() {
+        long startTime = System.currentTimeMillis();
+
+        // 第一遍：全量比较，找出有偏差的图书
+        Map<String, Integer> loans = countByBook(BorrowRecord.class,
+                Criteria.where("status").in(BorrowService.ACTIVE_STATUSES));
+        Map<String, Integer> reserved = countByBook(Hold.class,
+                Criteria.where("status").is(HoldService.STATUS_READY));
+        Map<String, Drift> suspects = new LinkedHashMap<>();
+        long scanned = 0;
+
+        Query scan = new Query();
+        scan.fields().include("id").include("totalCopies").include("availableCopies").include("stockVersion");
+        scan.cursorBatchSize(batchSize);
+        // 同时进行比较的批数有上限，流式读取不会把全部图书留在内存中
+        int maxInFlight = comparePool.getParallelism() * 2;
+        Deque<ForkJoinTask<List<Drift>>> inFlight = new ArrayDeque<>();
+        try (Stream<Book> books = mongoTemplate.stream(scan, Book.class)) {
+            Iterator<Book> iterator = books.iterator();
+            while (iterator.hasNext()) {
+                List<Book> batch = new ArrayList<>(batchSize);
+                while (iterator.hasNext() && batch.size() < batchSize) {
+                    batch.add(iterator.next());
+                }
+                scanned += batch.size();
+                inFlight.add(comparePool.submit(() -> compare(batch, loans, reserved)));
+                if (inFlight.size() >= maxInFlight) {
+                    collect(inFlight.poll(), suspects);
+                }
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            collect(inFlight.poll(), suspects);
+        }
+
+        if (!suspects.isEmpty()) {
+            try {
+                Thread.sleep(confirmDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // 第二遍：按批复核并修正
+        int confirmed = 0;
+        int repaired = 0;
+        int skipped = 0;
+        List<String> samples = new ArrayList<>();
+        List<String> ids = new ArrayList<>(suspects.keySet());
+        for (int from = 0; from < ids.size(); from += batchSize) {
+            List<String> chunk = ids.subList(from, Math.min(from + batchSize, ids.size()));
+            List<Drift> drifts = confirm(chunk, suspects);
+            skipped += chunk.size() - drifts.size();
+            confirmed += drifts.size();
+            int fixed = repair(drifts, samples);
+            repaired += fixed;
+            skipped += drifts.size() - fixed;
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("finishedAt", LocalDateTime.now());
+        report.put("scanned", scanned);
+        report.put("suspects", suspects.size());
+        report.put("confirmed", confirmed);
+        report.put("repaired", repaired);
+        report.put("skipped", skipped);
+        report.put("samples", samples);
+        report.put("elapsedMs", System.currentTimeMillis() - startTime);
+        lastReport = report;
+        System.out.println("库存对账完成: 扫描 " + scanned + "，偏差 " + suspects.size() + "，修正 " + repaired
+                + "，跳过 " + skipped + "，耗时 " + report.get("elapsedMs") + "ms");
+        return report;
+    }
+
+    /**
+     * 最近一次对账结果
+     */
+    public Map<String, Object> getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * 定时对账
+     */
+    @Scheduled(cron = "${library.stock.reconcile-cron:0 0 4 * * *}")
+    public void reconcileQuietly() {
+        try {
+            reconcileStock();
+        } catch (Exception e) {
+            System.err.println("库存对账失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 复核一批有偏差的图书：重新读取图书和这批图书的在借、保留数量，偏差与第一遍相同的才修正
+     */
+    private List<Drift> confirm(List<String> bookIds, Map<String, Drift> suspects) {
+        Query query = new Query(Criteria.where("id").in(bookIds));
+        query.fields().include("id").include("totalCopies").include("availableCopies").include("stockVersion");
+        List<Book> books = mongoTemplate.find(query, Book.class);
+        Map<String, Integer> loans = countByBook(BorrowRecord.class,
+                Criteria.where("bookId").in(bookIds).and("status").in(BorrowService.ACTIVE_STATUSES));
+        Map<String, Integer> reserved = countByBook(Hold.class,
+                Criteria.where("bookId").in(bookIds).and("status").is(HoldService.STATUS_READY));
+
+        List<Drift> confirmed = new ArrayList<>();
+        for (Drift drift : compare(books, loans, reserved)) {
+            Drift first = suspects.get(drift.bookId);
+            if (first != null && first.expected == drift.expected && Objects.equals(first.actual, drift.actual)) {
+                confirmed.add(drift);
+            }
+        }
+        return confirmed;
+    }
+
+    /**
+     * 以复核时读到的库存版本号为条件，一次无序批量写入修正可借数量；
+     * 修正后的图书同步缓存、索引并记录库存事件。返回实际修正的数量
+     */
+    private int repair(List<Drift> drifts, List<String> samples) {
+        if (drifts.isEmpty()) {
+            return 0;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Book.class);
+        for (Drift drift : drifts) {
+            Query query = new Query(Criteria.where("id").is(drift.bookId)
+                    .and("availableCopies").is(drift.actual).and("stockVersion").is(drift.version));
+            Update update = new Update().set("availableCopies", drift.expected).inc("stockVersion", 1L)
+                    .set("updateTime", LocalDateTime.now());
+            bulk.updateOne(query, update);
+        }
+        try {
+            bulk.execute();
+        } catch (BulkOperationException e) {
+            System.err.println("库存修正部分失败: " + e.getErrors().size() + " 条");
+        }
+
+        // 取回这批图书，版本号恰好加一且数量为修正值的即为本次修正的
+        Map<String, Drift> byId = new HashMap<>();
+        for (Drift drift : drifts) {
+            byId.put(drift.bookId, drift);
+        }
+        int repaired = 0;
+        for (Book book : mongoTemplate.find(new Query(Criteria.where("id").in(byId.keySet())), Book.class)) {
+            Drift drift = byId.get(book.getId());
+            long before = drift.version != null ? drift.version : 0L;
+            if (Objects.equals(book.getStockVersion(), before + 1)
+                    && Objects.equals(book.getAvailableCopies(), drift.expected)) {
+                repaired++;
+                if (samples.size() < MAX_SAMPLES) {
+                    samples.add(book.getId() + ": " + drift.actual + " -> " + drift.expected);
+                }
+                System.out.println("修正图书可借数量: " + book.getId() + " " + drift.actual + " -> " + drift.expected);
+                bookService.onStockChanged(book);
+            }
+        }
+        return repaired;
+    }
+
+    /**
+     * 比较一批图书，返回可借数量与推算值不一致的
+     */
+    private static List<Drift> compare(Collection<Book> books, Map<String, Integer> loans, Map<String, Integer> reserved) {
+        List<Drift> drifts = new ArrayList<>();
+        for (Book book : books) {
+            int total = book.getTotalCopies() != null ? book.getTotalCopies() : 0;
+            Integer actual = book.getAvailableCopies();
+            int outstanding = loans.getOrDefault(book.getId(), 0) + reserved.getOrDefault(book.getId(), 0);
+            // 在借超过总数量（总数量被调小过）时可借数量为0
+            int expected = Math.max(0, total - outstanding);
+            if (actual == null || actual != expected) {
+                drifts.add(new Drift(book.getId(), actual, expected, book.getStockVersion()));
+            }
+        }
+        return drifts;
+    }
+
+    private static void collect(ForkJoinTask<List<Drift>> task, Map<String, Drift> suspects) {
+        for (Drift drift : task.join()) {
+            suspects.put(drift.bookId, drift);
+        }
+    }
+
+    /**
+     * 按图书分组计数（一次聚合）
+     */
+    private Map<String, Integer> countByBook(Class<?> entity, Criteria criteria) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                Aggregation.group("bookId").count().as("count"))
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        Map<String, Integer> counts = new HashMap<>();
+        for (Document group : mongoTemplate.aggregate(aggregation, entity, Document.class)) {
+            counts.put(group.getString("_id"), ((Number) group.get("count")).intValue());
+        }
+        return counts;
+    }
+
+    private static final class Drift {
+        private final String bookId;
+        private final Integer actual;
+        private final int expected;
+        private final Long version;
+
+        private Drift(String bookId, Integer actual, int expected, Long version) {
+            this.bookId = bookId;
+            this.actual = actual;
+            this.expected = expected;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.library.librarysystem.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 热门图书和热门搜索
+ * 借出和搜索发生时记入各自的Space-Saving统计（固定数量的计数器，按半衰期衰减），
+ * 首页读取前k项不访问数据库。统计只在进程内，重启后重新累计
+ */
+@Service
+public class TrendingService {
+
+    // 单次最多返回的条数
+    public static final int MAX_TOP = 50;
+
+    // 搜索词超过此长度的截断后统计
+    private static final int MAX_QUERY_LENGTH = 50;
+
+    private final SpaceSavingTracker books;
+    private final SpaceSavingTracker searches;
+
+    public TrendingService(@Value("${library.trending.capacity:500}") int capacity,
+                           @Value("${library.trending.book-half-life-hours:72}") long bookHalfLifeHours,
+                           @Value("${library.trending.search-half-life-hours:24}") long searchHalfLifeHours) {
+        long now = System.currentTimeMillis();
+        this.books = new SpaceSavingTracker(capacity, bookHalfLifeHours * 3600_000L, now);
+        this.searches = new SpaceSavingTracker(capacity, searchHalfLifeHours * 3600_000L, now);
+    }
+
+    /**
+     * 记录一次借出
+     */
+    public void recordBorrow(String bookId, String title) {
+        if (bookId != null) {
+            books.offer(bookId, title != null ? title : bookId, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 记录一次搜索，搜索词去掉首尾空白、合并连续空白并转为小写后统计，空搜索不计
+     */
+    public void recordSearch(String keyword) {
+        String normalized = normalize(keyword);
+        if (normalized != null) {
+            String label = keyword.trim();
+            if (label.length() > MAX_QUERY_LENGTH) {
+                label = label.substring(0, MAX_QUERY_LENGTH);
+            }
+            searches.offer(normalized, label, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 近期借出最多的图书，key为图书ID，label为书名
+     */
+    public List<Map<String, Object>> topBooks(int k) {
+        return books.top(limit(k), System.currentTimeMillis());
+    }
+
+    /**
+     * 近期搜索最多的搜索词
+     */
+    public List<Map<String, Object>> topSearches(int k) {
+        return searches.top(limit(k), System.currentTimeMillis());
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("trackedBooks", books.size());
+        stats.put("trackedSearches", searches.size());
+        return stats;
+    }
+
+    private static int limit(int k) {
+        return Math.max(1, Math.min(k, MAX_TOP));
+    }
+
+    private static String normalize(String keyword) {
+        if (keyword == null || keyword.isBlank()) {
+            return null;
+        }
+        String normalized = keyword.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        return normalized.length() > MAX_QUERY_LENGTH ? normalized.substring(0, MAX_QUERY_LENGTH) : normalized;
+    }
+}
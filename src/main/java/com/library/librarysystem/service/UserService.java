@@ -1,15 +1,33 @@
 package com.library.librarysystem.service;
 
+import com.library.librarysystem.cache.EntityCaches;
+import com.library.librarysystem.entity.BorrowRecord;
 import com.library.librarysystem.entity.User;
 import com.library.librarysystem.repository.UserRepository;
 import com.library.librarysystem.util.PasswordUtil;
+import com.mongodb.client.model.CountOptions;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 @Service
 public class UserService {
@@ -19,6 +37,18 @@ public class UserService {
 
     @Autowired
     private PasswordUtil passwordUtil;
+
+    @Autowired
+    private EntityCaches entityCaches;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    // 对账时第一次发现偏差到复核之间的等待时间，让进行中的借还先完成
+    @Value("${library.loans.reconcile-confirm-delay-ms:2000}")
+    private long reconcileConfirmDelayMillis;
+
+    private volatile Map<String, Object> lastReconcileReport = Collections.emptyMap();
     
     public List<User> searchUsers(String keyword, String roleFilter) {
 		return null;
@@ -95,11 +125,11 @@ public class UserService {
     }
 
     /**
-     * 根据ID获取用户
+     * 根据ID获取用户（优先读近端缓存）
      */
     public User getUserById(String id) {
         try {
-            return userRepository.findById(id).orElse(null);
+            return entityCaches.users().get(id, () -> userRepository.findById(id).orElse(null));
         } catch (Exception e) {
             System.err.println("根据ID获取用户失败：" + e.getMessage());
             return null;
@@ -107,11 +137,12 @@ public class UserService {
     }
 
     /**
-     * 根据用户名获取用户
+     * 根据用户名获取用户（优先读近端缓存）
      */
     public User getUserByUsername(String username) {
         try {
-            return userRepository.findByUsername(username).orElse(null);
+            return entityCaches.users().getByAlias(username,
+                    () -> userRepository.findByUsername(username).orElse(null));
         } catch (Exception e) {
             System.err.println("根据用户名获取用户失败：" + e.getMessage());
             return null;
@@ -149,8 +180,11 @@ public class UserService {
             user.setEmail(email);
             user.setRole("READER"); // 默认角色为读者
             user.setMaxBorrow(5); // 默认最大借阅数
+            user.setActiveLoans(0);
+            user.setActiveBookIds(new ArrayList<>());
 
             User savedUser = userRepository.save(user);
+            evictUser(savedUser);
             
             result.put("success", true);
             result.put("message", "注册成功");
@@ -209,11 +243,33 @@ public class UserService {
     }
 
     /**
-     * 更新用户信息
+     * 更新用户信息，只写入可编辑的资料字段（角色、姓名、邮箱、密码），为null的字段不修改。
+     * 在借数量和在借图书只由借还时的条件更新维护，不随整个文档写回，
+     * 否则从缓存读到的旧值会覆盖并发借还的结果
      */
     public User updateUser(User user) {
         try {
-            return userRepository.save(user);
+            Update update = new Update().set("updateTime", LocalDateTime.now());
+            if (user.getRole() != null) {
+                update.set("role", user.getRole());
+            }
+            if (user.getName() != null) {
+                update.set("name", user.getName());
+            }
+            if (user.getEmail() != null) {
+                update.set("email", user.getEmail());
+            }
+            if (user.getPassword() != null) {
+                update.set("password", user.getPassword());
+            }
+            User savedUser = mongoTemplate.findAndModify(new Query(Criteria.where("id").is(user.getId())), update,
+                    FindAndModifyOptions.options().returnNew(true), User.class);
+            if (savedUser == null) {
+                System.err.println("更新用户失败: 用户不存在 " + user.getId());
+                return null;
+            }
+            evictUser(savedUser);
+            return savedUser;
         } catch (Exception e) {
             System.err.println("更新用户失败: " + e.getMessage());
             return null;
@@ -227,6 +283,7 @@ public class UserService {
         try {
             if (userRepository.existsById(id)) {
                 userRepository.deleteById(id);
+                entityCaches.users().invalidate(id);
                 System.out.println("删除用户成功，ID: " + id);
                 return true;
             }
@@ -252,14 +309,245 @@ public class UserService {
     }
 
     /**
-     * 获取用户总数
+     * 占用一个借阅名额：在借数量未达上限且未借阅同一本书时，原子地计数加一并记录图书ID。
+     * 名额检查和重复借阅检查合并为一次条件更新，不需要读取用户的借阅记录
      */
-    public long getUserCount() {
+    public void reserveLoan(String userId, String bookId) {
+        List<String> bookIds = List.of(bookId);
+        Update update = new Update().inc("activeLoans", 1).addToSet("activeBookIds", bookId);
+        if (mongoTemplate.updateFirst(loanQuota(userId, bookIds), update, User.class).getModifiedCount() == 0) {
+            throw loanRejection(userId, bookIds);
+        }
+        entityCaches.users().invalidate(userId);
+    }
+
+    /**
+     * 一次占用多个借阅名额，返回未能占用的图书及原因。
+     * 先尝试一次条件更新全部占用，不满足时逐本占用，直到名额用完
+     */
+    public Map<String, String> reserveLoans(String userId, List<String> bookIds) {
+        Map<String, String> failures = new LinkedHashMap<>();
+        if (bookIds.isEmpty()) {
+            return failures;
+        }
+
+        Update update = new Update().inc("activeLoans", bookIds.size()).addToSet("activeBookIds").each(bookIds.toArray());
+        if (mongoTemplate.updateFirst(loanQuota(userId, bookIds), update, User.class).getModifiedCount() > 0) {
+            entityCaches.users().invalidate(userId);
+            return failures;
+        }
+
+        for (String bookId : bookIds) {
+            try {
+                reserveLoan(userId, bookId);
+            } catch (RuntimeException e) {
+                failures.put(bookId, e.getMessage());
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * 归还借阅名额；以图书ID仍在在借列表中为条件，重复调用不会多减
+     */
+    public void releaseLoan(String userId, String bookId) {
+        Query query = new Query(Criteria.where("id").is(userId).and("activeBookIds").is(bookId));
+        Update update = new Update().inc("activeLoans", -1).pull("activeBookIds", bookId);
+        mongoTemplate.updateFirst(query, update, User.class);
+        entityCaches.users().invalidate(userId);
+    }
+
+    /**
+     * 批量归还借阅名额（用户ID -> 图书ID），通过一次无序批量写入执行
+     */
+    public void releaseLoans(Map<String, List<String>> userBooks) {
+        if (userBooks.isEmpty()) {
+            return;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, User.class);
+        for (Map.Entry<String, List<String>> entry : userBooks.entrySet()) {
+            for (String bookId : entry.getValue()) {
+                bulk.updateOne(new Query(Criteria.where("id").is(entry.getKey()).and("activeBookIds").is(bookId)),
+                        new Update().inc("activeLoans", -1).pull("activeBookIds", bookId));
+            }
+        }
+        bulk.execute();
+        for (String userId : userBooks.keySet()) {
+            entityCaches.users().invalidate(userId);
+        }
+    }
+
+    /**
+     * 对账：按在借的借阅记录修正用户的在借数量和在借图书。
+     * 第一遍用一次分组聚合和一次用户扫描找出有偏差的用户；等待片刻后逐个复核，
+     * 只有用户文档在此期间未变化且偏差仍在时才以读到的值为条件修正，避免覆盖进行中的借还
+     */
+    public synchronized Map<String, Object> reconcileActiveLoans() {
+        long startTime = System.currentTimeMillis();
+        Map<String, User> suspects = new LinkedHashMap<>();
+        Map<String, List<String>> expected = activeLoansByUser(null);
+
+        Query scan = new Query();
+        scan.fields().include("id").include("activeLoans").include("activeBookIds");
+        try (Stream<User> users = mongoTemplate.stream(scan, User.class)) {
+            users.forEach(user -> {
+                if (drifted(user, expected.getOrDefault(user.getId(), List.of()))) {
+                    suspects.put(user.getId(), user);
+                }
+            });
+        }
+
+        if (!suspects.isEmpty()) {
+            try {
+                Thread.sleep(reconcileConfirmDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        int repaired = 0;
+        int skipped = 0;
+        for (User suspect : suspects.values()) {
+            User current = mongoTemplate.findOne(new Query(Criteria.where("id").is(suspect.getId())), User.class);
+            if (current == null || !Objects.equals(current.getActiveLoans(), suspect.getActiveLoans())
+                    || !Objects.equals(current.getActiveBookIds(), suspect.getActiveBookIds())) {
+                skipped++;
+                continue;
+            }
+
+            List<String> actual = activeLoansByUser(suspect.getId()).getOrDefault(suspect.getId(), List.of());
+            if (!drifted(current, actual)) {
+                continue;
+            }
+
+            Query query = new Query(Criteria.where("id").is(suspect.getId())
+                    .and("activeLoans").is(suspect.getActiveLoans())
+                    .and("activeBookIds").is(suspect.getActiveBookIds()));
+            Update update = new Update().set("activeLoans", actual.size())
+                    .set("activeBookIds", new ArrayList<>(new LinkedHashSet<>(actual)));
+            if (mongoTemplate.updateFirst(query, update, User.class).getModifiedCount() > 0) {
+                entityCaches.users().invalidate(suspect.getId());
+                repaired++;
+                System.out.println("修正用户在借数量: " + suspect.getId() + " " + suspect.getActiveLoans()
+                        + " -> " + actual.size());
+            } else {
+                skipped++;
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("finishedAt", LocalDateTime.now());
+        report.put("suspects", suspects.size());
+        report.put("repaired", repaired);
+        report.put("skipped", skipped);
+        report.put("elapsedMs", System.currentTimeMillis() - startTime);
+        lastReconcileReport = report;
+        System.out.println("在借数量对账完成: " + report);
+        return report;
+    }
+
+    /**
+     * 最近一次对账结果
+     */
+    public Map<String, Object> getLastReconcileReport() {
+        return lastReconcileReport;
+    }
+
+    /**
+     * 应用就绪后在后台对账一次（同时为尚无计数字段的老用户初始化）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcileOnStartup() {
+        Thread worker = new Thread(this::reconcileQuietly, "active-loan-reconcile");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 定时对账
+     */
+    @Scheduled(cron = "${library.loans.reconcile-cron:0 30 3 * * *}")
+    public void reconcileQuietly() {
         try {
-            return userRepository.count();
+            reconcileActiveLoans();
         } catch (Exception e) {
-            System.err.println("获取用户总数失败: " + e.getMessage());
-            return 0;
+            System.err.println("在借数量对账失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 借阅名额条件：用户存在、借阅的图书都不在在借列表中、在借数量加上本次数量不超过上限。
+     * 没有maxBorrow字段的旧用户文档按实体的默认上限计算
+     */
+    private static Query loanQuota(String userId, List<String> bookIds) {
+        Document withinLimit = new Document("$lte", List.of(
+                new Document("$add", List.of(new Document("$ifNull", List.of("$activeLoans", 0)), bookIds.size())),
+                new Document("$ifNull", List.of("$maxBorrow", new User().getMaxBorrow()))));
+        return new Query(Criteria.where("id").is(userId).and("activeBookIds").nin(bookIds)
+                .andOperator(Criteria.expr(() -> withinLimit)));
+    }
+
+    /**
+     * 条件更新未命中时读取用户判断原因（只在失败时多一次读取）
+     */
+    private RuntimeException loanRejection(String userId, List<String> bookIds) {
+        User user = userRepository.findById(userId).orElse(null);
+        if (user == null) {
+            return new RuntimeException("用户不存在");
         }
+        if (user.getActiveBookIds() != null && !Collections.disjoint(user.getActiveBookIds(), bookIds)) {
+            return new RuntimeException("您已借阅此书");
+        }
+        return new RuntimeException("借阅数量已达上限");
+    }
+
+    /**
+     * 按用户分组的在借图书ID（userId为null时统计全部用户）
+     */
+    private Map<String, List<String>> activeLoansByUser(String userId) {
+        Criteria criteria = Criteria.where("status").in(BorrowService.ACTIVE_STATUSES);
+        if (userId != null) {
+            criteria = Criteria.where("userId").is(userId).and("status").in(BorrowService.ACTIVE_STATUSES);
+        }
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                Aggregation.group("userId").push("bookId").as("bookIds"));
+
+        Map<String, List<String>> result = new HashMap<>();
+        for (Document group : mongoTemplate.aggregate(aggregation, BorrowRecord.class, Document.class)) {
+            result.put(group.getString("_id"), group.getList("bookIds", String.class));
+        }
+        return result;
+    }
+
+    private static boolean drifted(User user, List<String> activeBookIds) {
+        Set<String> actual = user.getActiveBookIds() != null ? new HashSet<>(user.getActiveBookIds()) : null;
+        return user.getActiveLoans() == null || user.getActiveLoans() != activeBookIds.size()
+                || actual == null || !actual.equals(new HashSet<>(activeBookIds));
+    }
+
+    /**
+     * 失效近端缓存中该用户按ID和用户名的条目（旧用户名随ID条目一并移除）
+     */
+    private void evictUser(User user) {
+        entityCaches.users().invalidate(user.getId());
+        entityCaches.users().invalidateAlias(user.getUsername());
+    }
+
+    /**
+     * 统计用户数（只计数，不加载用户），role为null时统计全部用户。
+     * maxTimeMillis为数据库端的最长执行时间，超过时数据库终止查询并抛出异常
+     */
+    public long countUsers(String role, long maxTimeMillis) {
+        Query query = role != null ? new Query(Criteria.where("role").is(role)) : new Query();
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(User.class))
+                .countDocuments(query.getQueryObject(), new CountOptions().maxTime(maxTimeMillis, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 获取用户总数，查询失败时抛出异常
+     */
+    public long getUserCount() {
+        return userRepository.count();
     }
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package com.library.librarysystem.test;
+
+import com.library.librarysystem.entity.Book;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 库存扣减并发压测：多个线程同时抢借同一本书，对比“读取-判断-整体保存”与条件findAndModify两种写法。
+ * 默认不启用，设置 library.benchmark.stock.enabled=true 后在启动时运行一次
+ */
+@Component
+@Order(10)
+@ConditionalOnProperty(name = "library.benchmark.stock.enabled", havingValue = "true")
+public class StockContentionBenchmark implements CommandLineRunner {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${library.benchmark.stock.copies:100}")
+    private int copies;
+
+    @Value("${library.benchmark.stock.threads:16}")
+    private int threads;
+
+    @Value("${library.benchmark.stock.attempts-per-thread:50}")
+    private int attemptsPerThread;
+
+    @Override
+    public void run(String... args) throws Exception {
+        System.out.println("\n=== 库存扣减并发压测开始 ===");
+        System.out.println("副本数: " + copies + "，线程数: " + threads + "，每线程尝试: " + attemptsPerThread);
+
+        runCase("读取-判断-保存", this::readModifyWrite);
+        runCase("条件findAndModify", this::conditionalDecrement);
+
+        System.out.println("=== 库存扣减并发压测结束 ===\n");
+    }
+
+    private void runCase(String name, Attempt attempt) throws Exception {
+        Book book = new Book("并发压测-" + System.nanoTime(), "benchmark");
+        book.setTotalCopies(copies);
+        book.setAvailableCopies(copies);
+        book = mongoTemplate.insert(book);
+        String bookId = book.getId();
+
+        AtomicInteger successes = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < attemptsPerThread; i++) {
+                        if (attempt.borrow(bookId)) {
+                            successes.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            long startTime = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long elapsedNanos = System.nanoTime() - startTime;
+
+            Book after = mongoTemplate.findById(bookId, Book.class);
+            int remaining = after != null ? after.getAvailableCopies() : -1;
+            int attempts = threads * attemptsPerThread;
+            double seconds = elapsedNanos / 1_000_000_000.0;
+
+            System.out.println("\n[" + name + "]");
+            System.out.println("  借出成功: " + successes.get() + "，剩余库存: " + remaining);
+            System.out.println("  超借数量: " + Math.max(0, successes.get() - copies)
+                    + "，丢失更新: " + (successes.get() + remaining - copies));
+            System.out.println("  耗时: " + String.format("%.1f", seconds * 1000) + "ms，吞吐量: "
+                    + String.format("%.0f", attempts / seconds) + " 次/秒");
+        } finally {
+            executor.shutdownNow();
+            mongoTemplate.remove(new Query(Criteria.where("id").is(bookId)), Book.class);
+        }
+    }
+
+    /**
+     * 原先的写法：读取整本书，判断后减一再整体保存
+     */
+    private boolean readModifyWrite(String bookId) {
+        Book book = mongoTemplate.findById(bookId, Book.class);
+        if (book == null || book.getAvailableCopies() <= 0) {
+            return false;
+        }
+        book.setAvailableCopies(book.getAvailableCopies() - 1);
+        mongoTemplate.save(book);
+        return true;
+    }
+
+    /**
+     * 现在的写法：与BookService.reserveCopies相同的条件$inc
+     */
+    private boolean conditionalDecrement(String bookId) {
+        Query query = new Query(Criteria.where("id").is(bookId).and("availableCopies").gte(1));
+        return mongoTemplate.findAndModify(query, new Update().inc("availableCopies", -1),
+                FindAndModifyOptions.options().returnNew(true), Book.class) != null;
+    }
+
+    @FunctionalInterface
+    private interface Attempt {
+        boolean borrow(String bookId);
+    }
+}
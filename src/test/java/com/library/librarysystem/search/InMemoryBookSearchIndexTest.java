@@ -0,0 +1,119 @@
+package com.library.librarysystem.search;
+
+import com.library.librarysystem.entity.Book;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 模糊匹配的词典遍历：复用共享前缀的状态、跳过不可能匹配的前缀后，结果与逐词计算编辑距离一致；
+ * 删除大量图书触发重新编号后，检索结果和顺序不变
+ */
+class InMemoryBookSearchIndexTest {
+
+    @Test
+    void fuzzyTermsAgreesWithBruteForceOnDenseDictionary() {
+        // 字母表上长度不超过5的全部词，相邻词共享前缀多，被跳过的前缀一直延伸到词典末尾
+        TreeSet<String> words = new TreeSet<>();
+        for (int length = 1; length <= 5; length++) {
+            words.addAll(LevenshteinAutomatonTest.allStrings(length));
+        }
+        String[] dictionary = words.toArray(new String[0]);
+
+        for (int length = 1; length <= 4; length++) {
+            for (String term : LevenshteinAutomatonTest.allStrings(length)) {
+                for (int k = 0; k <= 2; k++) {
+                    assertEquals(bruteForce(dictionary, term, k),
+                            InMemoryBookSearchIndex.fuzzyTerms(dictionary, term, k),
+                            "term=" + term + " k=" + k);
+                }
+            }
+        }
+    }
+
+    @Test
+    void fuzzyTermsAgreesWithBruteForceOnWords() {
+        String[] dictionary = new TreeSet<>(List.of(
+                "data", "database", "databases", "datum", "design", "designing", "java", "javafx",
+                "javascript", "jvm", "kotlin", "pattern", "patterns", "python", "pythonic", "spring",
+                "springboot", "sprint", "struts", "system", "systems", "zookeeper")).toArray(new String[0]);
+
+        for (String term : List.of("java", "jave", "pattren", "sprnig", "systm", "databse", "zoo", "xyz")) {
+            for (int k = 0; k <= 2; k++) {
+                assertEquals(bruteForce(dictionary, term, k),
+                        InMemoryBookSearchIndex.fuzzyTerms(dictionary, term, k),
+                        "term=" + term + " k=" + k);
+            }
+        }
+    }
+
+    @Test
+    void fuzzyTermsOnEmptyDictionary() {
+        assertEquals(List.of(), InMemoryBookSearchIndex.fuzzyTerms(new String[0], "java", 2));
+    }
+
+    @Test
+    void removalsCompactDocNumbersAndKeepOrder() {
+        InMemoryBookSearchIndex index = new InMemoryBookSearchIndex();
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            Book book = new Book("title" + i + (i % 2 == 0 ? " even" : " odd"), "author" + (i % 7));
+            book.setId("b" + i);
+            books.add(book);
+        }
+        index.rebuild(books);
+
+        // 删除三分之二，空缺超过阈值后重新编号；之后再加入的书排在最后
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            if (i % 3 == 0) {
+                expected.add("b" + i);
+            } else {
+                index.remove("b" + i);
+            }
+        }
+        Book added = new Book("title-new even", "author0");
+        added.setId("new");
+        index.index(added);
+        expected.add("new");
+
+        assertEquals(1001, index.size());
+        assertEquals(expected, ids(index.search("", 0, PageRequest.of(0, 5000))));
+
+        List<String> even = new ArrayList<>();
+        for (String id : expected) {
+            if (id.equals("new") || Integer.parseInt(id.substring(1)) % 2 == 0) {
+                even.add(id);
+            }
+        }
+        assertEquals(even, ids(index.search("even", 0, PageRequest.of(0, 5000))));
+
+        // 重新编号后仍能按ID更新和删除
+        index.remove("b0");
+        assertEquals(even.subList(1, even.size()), ids(index.search("even", 0, PageRequest.of(0, 5000))));
+    }
+
+    private static List<String> ids(Page<Book> page) {
+        List<String> ids = new ArrayList<>();
+        for (Book book : page.getContent()) {
+            ids.add(book.getId());
+        }
+        return ids;
+    }
+
+    private static List<String> bruteForce(String[] dictionary, String term, int k) {
+        List<String> result = new ArrayList<>();
+        for (String word : dictionary) {
+            if (LevenshteinAutomatonTest.distance(word, term) <= k) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+}
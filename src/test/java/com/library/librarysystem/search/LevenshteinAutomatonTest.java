@@ -0,0 +1,159 @@
+package com.library.librarysystem.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 编辑距离自动机与完整编辑距离矩阵的对照
+ * 在小字母表上穷举目标词和输入前缀，逐字符推进自动机，每一步的状态、isMatch、canMatch
+ * 都与直接计算的编辑距离比较
+ */
+class LevenshteinAutomatonTest {
+
+    private static final char[] ALPHABET = {'a', 'b', 'c'};
+
+    private static final int MAX_TERM_LENGTH = 4;
+
+    // 比最长目标词加最大编辑次数更长，覆盖超出可能匹配长度之后的前缀
+    private static final int MAX_INPUT_LENGTH = 7;
+
+    @Test
+    void agreesWithFullDistanceForAllShortTerms() {
+        for (int length = 0; length <= MAX_TERM_LENGTH; length++) {
+            for (String term : allStrings(length)) {
+                for (int k = 0; k <= 2; k++) {
+                    LevenshteinAutomaton automaton = new LevenshteinAutomaton(term, k);
+                    walk(automaton, term, k, "", automaton.start());
+                }
+            }
+        }
+    }
+
+    @Test
+    void exactMatchOnlyWhenNoEditsAllowed() {
+        assertEquals(0, run("kotlin", 0, "kotlin")[6]);
+        assertTrue(matches("kotlin", 0, "kotlin"));
+        assertFalse(matches("kotlin", 0, "kotlim"));
+        assertFalse(matches("kotlin", 0, "kotli"));
+    }
+
+    @Test
+    void matchesAtExactlyKEdits() {
+        // 替换、插入、删除各一次
+        assertTrue(matches("spring", 1, "sprint"));
+        assertTrue(matches("spring", 1, "springs"));
+        assertTrue(matches("spring", 1, "sprig"));
+        assertFalse(matches("spring", 1, "sprints"));
+        assertTrue(matches("spring", 2, "sprints"));
+        assertFalse(matches("spring", 2, "sprites"));
+    }
+
+    @Test
+    void prefixIsPrunedOnlyWhenNoExtensionCanMatch() {
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton("java", 1);
+        // "jx"加上"va"后距离为1，仍可能匹配
+        assertTrue(automaton.canMatch(run("java", 1, "jx")));
+        // "xx"开头的词与"java"至少相差2
+        assertFalse(automaton.canMatch(run("java", 1, "xx")));
+        // 长度达到maxDepth的前缀仍可匹配，再长一位就不可能
+        assertTrue(automaton.canMatch(run("java", 1, "javaa")));
+        assertTrue(automaton.isMatch(run("java", 1, "javaa")));
+        assertFalse(automaton.canMatch(run("java", 1, "javaaa")));
+        assertEquals(5, automaton.maxDepth());
+    }
+
+    /**
+     * 深度优先枚举所有长度不超过MAX_INPUT_LENGTH的输入，校验每个前缀的状态
+     */
+    private static void walk(LevenshteinAutomaton automaton, String term, int k, String prefix, int[] state) {
+        check(automaton, term, k, prefix, state);
+        if (prefix.length() == MAX_INPUT_LENGTH) {
+            return;
+        }
+        for (char c : ALPHABET) {
+            int[] next = new int[automaton.stateSize()];
+            automaton.step(state, c, prefix.length() + 1, next);
+            walk(automaton, term, k, prefix + c, next);
+        }
+    }
+
+    private static void check(LevenshteinAutomaton automaton, String term, int k, String prefix, int[] state) {
+        int[] expected = distanceRow(prefix, term);
+        int best = Integer.MAX_VALUE;
+        for (int i = 0; i < expected.length; i++) {
+            // 带外和超过k的值都记为k+1
+            assertEquals(Math.min(expected[i], k + 1), state[i],
+                    () -> "term=" + term + " k=" + k + " prefix=" + prefix);
+            best = Math.min(best, expected[i]);
+        }
+        int distance = expected[term.length()];
+        assertEquals(distance <= k, automaton.isMatch(state),
+                () -> "isMatch term=" + term + " k=" + k + " prefix=" + prefix);
+        // 某个扩展能匹配，当且仅当前缀与目标词的某个前缀距离不超过k（补上目标词余下的部分即可）
+        assertEquals(best <= k, automaton.canMatch(state),
+                () -> "canMatch term=" + term + " k=" + k + " prefix=" + prefix);
+        if (prefix.length() > automaton.maxDepth()) {
+            assertFalse(automaton.canMatch(state), () -> "beyond maxDepth term=" + term + " prefix=" + prefix);
+        }
+    }
+
+    private static boolean matches(String term, int k, String input) {
+        return new LevenshteinAutomaton(term, k).isMatch(run(term, k, input));
+    }
+
+    private static int[] run(String term, int k, String input) {
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(term, k);
+        int[] state = automaton.start();
+        for (int i = 0; i < input.length(); i++) {
+            int[] next = new int[automaton.stateSize()];
+            automaton.step(state, input.charAt(i), i + 1, next);
+            state = next;
+        }
+        return state;
+    }
+
+    /**
+     * 完整编辑距离矩阵的最后一行：input与term每个前缀的编辑距离
+     */
+    static int[] distanceRow(String input, String term) {
+        int[] row = new int[term.length() + 1];
+        for (int i = 0; i <= term.length(); i++) {
+            row[i] = i;
+        }
+        for (int j = 1; j <= input.length(); j++) {
+            int[] next = new int[row.length];
+            next[0] = j;
+            for (int i = 1; i <= term.length(); i++) {
+                int cost = term.charAt(i - 1) == input.charAt(j - 1) ? 0 : 1;
+                next[i] = Math.min(row[i - 1] + cost, Math.min(row[i] + 1, next[i - 1] + 1));
+            }
+            row = next;
+        }
+        return row;
+    }
+
+    static int distance(String a, String b) {
+        return distanceRow(a, b)[b.length()];
+    }
+
+    static List<String> allStrings(int length) {
+        List<String> result = new ArrayList<>();
+        result.add("");
+        for (int i = 0; i < length; i++) {
+            List<String> longer = new ArrayList<>();
+            for (String s : result) {
+                for (char c : ALPHABET) {
+                    longer.add(s + c);
+                }
+            }
+            result = longer;
+        }
+        return result;
+    }
+}
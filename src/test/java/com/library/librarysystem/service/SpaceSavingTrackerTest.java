@@ -0,0 +1,118 @@
+package com.library.librarysystem.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Space-Saving统计的误差界、衰减和重新缩放，时间全部显式传入
+ */
+class SpaceSavingTrackerTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+
+    private static final long HOUR = 3600_000L;
+
+    @Test
+    void heavyHitterSurvivesWhenCapacityIsExceeded() {
+        SpaceSavingTracker tracker = new SpaceSavingTracker(5, 24 * HOUR, T0);
+        // 每两次记录中有一次是hot，其余全是只出现一次的新项，远超计数器数量
+        for (int i = 0; i < 200; i++) {
+            tracker.offer("hot", "hot", T0);
+            tracker.offer("cold-" + i, "cold-" + i, T0);
+        }
+
+        assertEquals(5, tracker.size());
+        List<Map<String, Object>> top = tracker.top(1, T0);
+        assertEquals("hot", top.get(0).get("key"));
+        assertTrue(count(top.get(0)) >= 200);
+    }
+
+    @Test
+    void countMinusErrorNeverExceedsTrueCount() {
+        SpaceSavingTracker tracker = new SpaceSavingTracker(10, 24 * HOUR, T0);
+        Map<String, Integer> truth = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            // 偏斜分布：小编号的项出现得多
+            String key = "k" + (int) Math.floor(Math.pow(random.nextDouble(), 3) * 100);
+            truth.merge(key, 1, Integer::sum);
+            tracker.offer(key, key, T0);
+        }
+
+        // 时间未变化时权重为1，计数是精确的整数
+        for (Map<String, Object> item : tracker.top(10, T0)) {
+            int actual = truth.get((String) item.get("key"));
+            double count = count(item);
+            double error = (Double) item.get("error");
+            assertTrue(count - error <= actual, item + " true=" + actual);
+            assertTrue(count >= actual, item + " true=" + actual);
+        }
+    }
+
+    @Test
+    void countsHalveAfterEachHalfLife() {
+        SpaceSavingTracker tracker = new SpaceSavingTracker(10, HOUR, T0);
+        for (int i = 0; i < 10; i++) {
+            tracker.offer("book", "book", T0);
+        }
+
+        assertEquals(10.0, count(tracker.top(1, T0).get(0)), 1e-9);
+        assertEquals(5.0, count(tracker.top(1, T0 + HOUR).get(0)), 1e-9);
+        assertEquals(2.5, count(tracker.top(1, T0 + 2 * HOUR).get(0)), 1e-9);
+
+        // 一个半衰期后的一次记录与之前衰减后的计数相加
+        tracker.offer("book", "book", T0 + HOUR);
+        assertEquals(6.0, count(tracker.top(1, T0 + HOUR).get(0)), 1e-9);
+    }
+
+    @Test
+    void orderIsPreservedAcrossRescale() {
+        long halfLife = 1000;
+        SpaceSavingTracker tracker = new SpaceSavingTracker(10, halfLife, T0);
+        offer(tracker, "a", 5, T0);
+        offer(tracker, "b", 3, T0);
+        offer(tracker, "c", 2, T0);
+        // 两个半衰期后a、b、c分别衰减为1.25、0.75、0.5，新记录的d为1
+        offer(tracker, "d", 1, T0 + 2 * halfLife);
+        assertEquals(List.of("a", "d", "b", "c"), keys(tracker.top(10, T0 + 2 * halfLife)));
+
+        // 400个半衰期后新记录的权重为2^400，超过缩放阈值，先整体缩小再记录
+        long later = T0 + 400 * halfLife;
+        offer(tracker, "e", 1, later);
+        assertEquals(List.of("e", "a", "d", "b", "c"), keys(tracker.top(10, later)));
+        assertEquals(1.0, count(tracker.top(1, later).get(0)), 1e-9);
+
+        // 缩放之后衰减和累加照常
+        offer(tracker, "f", 3, later + halfLife);
+        List<Map<String, Object>> top = tracker.top(10, later + halfLife);
+        assertEquals(List.of("f", "e", "a", "d", "b", "c"), keys(top));
+        assertEquals(3.0, count(top.get(0)), 1e-9);
+        assertEquals(0.5, count(top.get(1)), 1e-9);
+    }
+
+    private static void offer(SpaceSavingTracker tracker, String key, int times, long now) {
+        for (int i = 0; i < times; i++) {
+            tracker.offer(key, key, now);
+        }
+    }
+
+    private static double count(Map<String, Object> item) {
+        return (Double) item.get("count");
+    }
+
+    private static List<String> keys(List<Map<String, Object>> top) {
+        List<String> keys = new ArrayList<>();
+        for (Map<String, Object> item : top) {
+            keys.add((String) item.get("key"));
+        }
+        return keys;
+    }
+}